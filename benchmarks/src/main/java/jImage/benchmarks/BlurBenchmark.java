@@ -0,0 +1,69 @@
+package jImage.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jImage.EdgeMode;
+import jImage.Image;
+
+/**
+ * Box and gaussian blurs over a range of radii. Run time should not grow
+ * with the radius.
+ *
+ * @author Cy
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BlurBenchmark {
+  @Param({ "256", "1024", "2048" })
+  public int size;
+
+  @Param({ "1", "5", "25" })
+  public int radius;
+
+  private Image source;
+  private Image image;
+
+  @Setup
+  public void setup() {
+    source = Images.random(size);
+    image = source.clone();
+  }
+
+  @Setup(Level.Invocation)
+  public void reset() {
+    image.setSection(0, 0, source);
+  }
+
+  @Benchmark
+  public void blur() {
+    image.blur(radius);
+  }
+
+  @Benchmark
+  public void linearBlur() {
+    image.blur(radius, EdgeMode.MIRROR, false);
+  }
+
+  @Benchmark
+  public void gaussianBlur() {
+    image.gaussianBlur(radius / 2.0, EdgeMode.CLAMP);
+  }
+}
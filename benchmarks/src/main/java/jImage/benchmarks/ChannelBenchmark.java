@@ -0,0 +1,128 @@
+package jImage.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jImage.Color;
+import jImage.Image;
+import jImage.Lut;
+
+/**
+ * Per pixel color operations. The image is reset before every call so each
+ * one starts from the same pixels. Run with
+ * -jvmArgsAppend --add-modules=jdk.incubator.vector to measure the SIMD
+ * kernels.
+ *
+ * @author Cy
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChannelBenchmark {
+  @Param({ "256", "1024", "2048" })
+  public int size;
+
+  private Image source;
+  private Image image;
+  private Image over;
+  private Lut lut;
+
+  @Setup
+  public void setup() {
+    source = Images.random(size);
+    image = source.clone();
+    over = Images.random(size);
+    lut = Lut.of(c -> 255 - c);
+  }
+
+  @Setup(Level.Invocation)
+  public void reset() {
+    image.setSection(0, 0, source);
+  }
+
+  @Benchmark
+  public void setRedChannel() {
+    image.setRedChannel(c -> c / 2);
+  }
+
+  @Benchmark
+  public void setGreenChannel() {
+    image.setGreenChannel(c -> c / 2);
+  }
+
+  @Benchmark
+  public void setBlueChannel() {
+    image.setBlueChannel(c -> c / 2);
+  }
+
+  @Benchmark
+  public void setRedChannelConstant() {
+    image.setRedChannel(128);
+  }
+
+  @Benchmark
+  public void invert() {
+    image.invert();
+  }
+
+  @Benchmark
+  public void scaleChannels() {
+    image.scaleChannels(1.2, 0.9, 0.5);
+  }
+
+  @Benchmark
+  public void brightnessContrast() {
+    image.brightnessContrast(10, 1.3);
+  }
+
+  @Benchmark
+  public void setAllChannels() {
+    image.setAllChannels(c -> 255 - c);
+  }
+
+  @Benchmark
+  public void setChannels() {
+    image.setChannels(c -> new Color(c.getBlue(), c.getRed(), c.getGreen()));
+  }
+
+  @Benchmark
+  public void setChannelsAtPixel() {
+    image.setChannelsAtPixel(p -> new int[] { p[0] & 0xFF, p[1] & 0xFF, 0 });
+  }
+
+  /**
+   * An operator reading the image it changes. The bands run on other
+   * threads while this one holds the image, so this hangs if they are not
+   * lent its lock.
+   */
+  @Benchmark
+  public void setChannelsAtPixelReading() {
+    image.setChannelsAtPixel(p -> image.getPixel(p[0], p[1]).getArray());
+  }
+
+  @Benchmark
+  public void applyLut() {
+    image.applyLut(lut);
+  }
+
+  @Benchmark
+  public void impose() {
+    image.impose(over, new Color(0, 0, 0));
+  }
+}
@@ -0,0 +1,92 @@
+package jImage.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jImage.Color;
+import jImage.Drawing;
+
+/**
+ * Drawing primitives, with and without antialiasing.
+ *
+ * @author Cy
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DrawingBenchmark {
+  @Param({ "256", "1024" })
+  public int size;
+
+  @Param({ "false", "true" })
+  public boolean antialiasing;
+
+  private Drawing drawing;
+  private int[] xs;
+  private int[] ys;
+
+  @Setup
+  public void setup() {
+    drawing = new Drawing(size, size);
+    drawing.setStrokeColor(new Color(200, 40, 90));
+    drawing.setStrokeSize(3);
+    drawing.antialiasing(antialiasing);
+    xs = new int[] { 0, size / 2, size - 1, size / 3 };
+    ys = new int[] { size - 1, 0, size / 2, size / 3 };
+  }
+
+  @Benchmark
+  public void drawLine() {
+    drawing.drawLine(0, 0, size - 1, size - 1);
+  }
+
+  @Benchmark
+  public void drawRect() {
+    drawing.drawRect(size / 4, size / 4, size / 2, size / 2);
+  }
+
+  @Benchmark
+  public void fillRect() {
+    drawing.fillRect(size / 4, size / 4, size / 2, size / 2);
+  }
+
+  @Benchmark
+  public void drawEllipse() {
+    drawing.drawEllipse(0, 0, size, size);
+  }
+
+  @Benchmark
+  public void fillEllipse() {
+    drawing.fillEllipse(0, 0, size, size);
+  }
+
+  @Benchmark
+  public void fillPolygon() {
+    drawing.fillPolygon(xs, ys);
+  }
+
+  @Benchmark
+  public void fillRoundRect() {
+    drawing.fillRoundRect(0, 0, size, size, size / 8, size / 8);
+  }
+
+  @Benchmark
+  public void drawString() {
+    drawing.drawString("jImage benchmark", size / 8, size / 2);
+  }
+}
@@ -0,0 +1,77 @@
+package jImage.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jImage.BaseImage;
+import jImage.Color;
+import jImage.Gif;
+import jImage.Image;
+
+/**
+ * Writing an animated gif where a small square moves across a still
+ * background, so most of each frame is the same as the one before.
+ *
+ * @author Cy
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GifBenchmark {
+  @Param({ "128", "512" })
+  public int size;
+
+  @Param({ "10", "40" })
+  public int frames;
+
+  private BaseImage[] images;
+  private File file;
+
+  @Setup
+  public void setup() throws IOException {
+    Image background = Images.gradient(size);
+    images = new BaseImage[frames];
+    Color square = new Color(255, 255, 255);
+    for (int i = 0; i < frames; i++) {
+      Image frame = background.clone();
+      int x = i * (size - size / 8) / frames;
+      frame.setSection(x, size / 2, solid(size / 8, square));
+      images[i] = frame;
+    }
+    file = File.createTempFile("jImage-bench", ".gif");
+  }
+
+  private static BaseImage solid(int size, Color color) {
+    BaseImage im = new BaseImage(size, size);
+    im.fill(color);
+    return im;
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public void makeGif() {
+    Gif.makeGif(images, 50, file.getPath());
+  }
+}
@@ -0,0 +1,59 @@
+package jImage.benchmarks;
+
+import java.util.Random;
+
+import jImage.Image;
+
+/**
+ * Makes the test images used by the benchmarks. Pixels come from a fixed seed
+ * so every run works on the same data.
+ *
+ * @author Cy
+ *
+ */
+final class Images {
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Images() {}
+
+  /**
+   * Makes a size by size Image of random pixels.
+   *
+   * @param size Width and height of the Image.
+   * @return the new Image
+   */
+  static Image random(int size) {
+    Image im = new Image(size, size);
+    Random random = new Random(size);
+    int[] row = new int[size];
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        row[x] = random.nextInt(0x1000000);
+      }
+      im.setRow(y, row);
+    }
+    return im;
+  }
+
+  /**
+   * Makes a size by size Image of smooth gradients, closer to a photo than
+   * random noise is, for encoders that compress.
+   *
+   * @param size Width and height of the Image.
+   * @return the new Image
+   */
+  static Image gradient(int size) {
+    Image im = new Image(size, size);
+    int[] row = new int[size];
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        row[x] = (x * 255 / size) << 16 | (y * 255 / size) << 8
+            | ((x + y) * 127 / size);
+      }
+      im.setRow(y, row);
+    }
+    return im;
+  }
+}
@@ -0,0 +1,31 @@
+package jImage.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler on, so every result
+ * includes the bytes allocated per operation. Takes the same arguments as the
+ * JMH runner, for example a regular expression to pick benchmarks and -p
+ * size=1024 to pick image sizes.
+ *
+ * @author Cy
+ *
+ */
+public final class Main {
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Main() {}
+
+  public static void main(String[] args) throws RunnerException,
+      CommandLineOptionException {
+    new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class).build()).run();
+  }
+}
@@ -0,0 +1,121 @@
+package jImage.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import jImage.BaseImage;
+import jImage.Color;
+import jImage.Image;
+
+/**
+ * Single pixel and whole image access: getPixel/setPixel, the packed
+ * getRGB/setRGB calls, fill, clone, setSection and equals.
+ *
+ * @author Cy
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PixelBenchmark {
+  @Param({ "256", "1024", "2048" })
+  public int size;
+
+  private Image image;
+  private Image copy;
+  private BaseImage section;
+  private int[] buffer;
+  private Color color;
+
+  @Setup
+  public void setup() {
+    image = Images.random(size);
+    copy = image.clone();
+    section = Images.random(size / 2);
+    buffer = new int[size * size];
+    color = new Color(12, 34, 56);
+  }
+
+  @Benchmark
+  public void getPixel(Blackhole bh) {
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        bh.consume(image.getPixel(x, y));
+      }
+    }
+  }
+
+  @Benchmark
+  public void setPixel() {
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        image.setPixel(x, y, color);
+      }
+    }
+  }
+
+  @Benchmark
+  public int getRGB() {
+    int sum = 0;
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        sum += image.getRGB(x, y);
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  public void setRGB() {
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        image.setRGB(x, y, x ^ y);
+      }
+    }
+  }
+
+  @Benchmark
+  public int[] getRGBBulk() {
+    return image.getRGB(0, 0, size, size, buffer, 0, size);
+  }
+
+  @Benchmark
+  public void setRGBBulk() {
+    image.setRGB(0, 0, size, size, buffer, 0, size);
+  }
+
+  @Benchmark
+  public void fill() {
+    image.fill(color);
+  }
+
+  @Benchmark
+  public Image cloneImage() {
+    return image.clone();
+  }
+
+  @Benchmark
+  public void setSection() {
+    image.setSection(size / 4, size / 4, section);
+  }
+
+  @Benchmark
+  public boolean equalImages() {
+    return image.equals(copy);
+  }
+}
@@ -0,0 +1,67 @@
+package jImage.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jImage.Image;
+
+/**
+ * Halving and doubling an image with every resize hint.
+ *
+ * @author Cy
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResizeBenchmark {
+  @Param({ "256", "1024", "2048" })
+  public int size;
+
+  /**
+   * SCALE_NEAREST, SCALE_BILENEAR, SCALE_AREA_AVERAGE, SCALE_LANCZOS and
+   * SCALE_MITCHELL.
+   */
+  @Param({ "0", "1", "2", "3", "4" })
+  public int hint;
+
+  private Image source;
+  private Image image;
+
+  @Setup
+  public void setup() {
+    source = Images.gradient(size);
+  }
+
+  @Setup(Level.Invocation)
+  public void reset() {
+    image = source.clone();
+  }
+
+  @Benchmark
+  public Image shrink() {
+    image.resize(size / 2, size / 2, hint);
+    return image;
+  }
+
+  @Benchmark
+  public Image enlarge() {
+    image.resize(size * 2, size * 2, hint);
+    return image;
+  }
+}
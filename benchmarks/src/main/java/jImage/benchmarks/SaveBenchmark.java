@@ -0,0 +1,66 @@
+package jImage.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jImage.Image;
+
+/**
+ * Encoding and writing an image in each format save() supports, then reading
+ * it back.
+ *
+ * @author Cy
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SaveBenchmark {
+  @Param({ "256", "1024" })
+  public int size;
+
+  @Param({ "png", "jpg", "bmp", "gif" })
+  public String format;
+
+  private Image image;
+  private File file;
+
+  @Setup
+  public void setup() throws IOException {
+    image = Images.gradient(size);
+    file = File.createTempFile("jImage-bench", "." + format);
+    image.save(file.getPath());
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public void save() {
+    image.save(file.getPath());
+  }
+
+  @Benchmark
+  public Image load() {
+    return new Image(file.getPath());
+  }
+}
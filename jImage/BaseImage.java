@@ -1,8 +1,13 @@
 package jImage;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
 
 import javax.imageio.ImageIO;
 
@@ -13,7 +18,26 @@ import javax.imageio.ImageIO;
  *
  */
 public class BaseImage {
-  protected BufferedImage im;
+  /**
+   * Number of pixels copied at a time when an image has to be streamed.
+   */
+  static final int BAND_PIXELS = 1 << 16;
+
+  /**
+   * Pixels of the image, or null if it is memory mapped.
+   */
+  protected volatile BufferedImage im;
+
+  /**
+   * Pixels of a memory-mapped image, which has no BufferedImage so it can
+   * hold more than 2^31 pixels. Exactly one of im and mapped is set.
+   */
+  volatile MappedBuffer mapped;
+
+  /**
+   * Guards the pixels of im, and im itself being replaced.
+   */
+  final ImageLock lock = new ImageLock();
 
   /**
    * Opens an image from a file source.
@@ -21,11 +45,7 @@ public class BaseImage {
    * @param source Source location of the image file.
    */
   public BaseImage(String source) {
-    try {
-      im = ImageIO.read(new File(source));
-    } catch (IOException e) {
-      throw new RuntimeException("Can Not Find Source File: " + source);
-    }
+    im = Decoder.read(source, null, 1, 1);
   }
 
   /**
@@ -47,14 +67,76 @@ public class BaseImage {
     im = bufferedImage;
   }
 
+  /**
+   * Creates an image whose pixels are kept in a MappedBuffer.
+   * 
+   * @param buffer Mapped pixels to create the image from.
+   */
+  BaseImage(MappedBuffer buffer) {
+    mapped = buffer;
+  }
+
+  /**
+   * Reads the size and format of an image file from its header, without
+   * decoding any pixels.
+   * 
+   * @param source Source location of the image file.
+   * @return ImageInfo with the width, height and format of the file
+   */
+  public static ImageInfo probe(String source) {
+    return Decoder.probe(source);
+  }
+
   /**
    * Clones the BaseImage to a new BaseImage object with the same data.
    */
-  public synchronized BaseImage clone() {
-    synchronized(im) {
-      BaseImage i = new BaseImage(width(), height());
-      i.setSection(0, 0, this);
+  public BaseImage clone() {
+    lock.readAll();
+    try {
+      BaseImage i = blank(width(), height());
+      copyTo(i);
       return i;
+    } finally {
+      lock.unlockReadAll();
+    }
+  }
+
+  /**
+   * Creates a black image stored the same way as this one: in a temporary
+   * memory-mapped file if this image is mapped, or on the heap otherwise.
+   * 
+   * @param width Width of the new image.
+   * @param height Height of the new image.
+   * @return the new BaseImage
+   */
+  BaseImage blank(int width, int height) {
+    if (mapped != null) {
+      return new BaseImage(MappedBuffer.create(width, height, null));
+    }
+    return new BaseImage(width, height);
+  }
+
+  /**
+   * Returns true if the pixels are kept in a memory-mapped file.
+   * 
+   * @return boolean describing the storage
+   */
+  public boolean isMapped() {
+    return mapped != null;
+  }
+
+  /**
+   * Copies all pixels into image, which must be a new image of the same size.
+   * 
+   * @param image Image receiving the copy.
+   */
+  protected void copyTo(BaseImage image) {
+    int[] src = getPixelData();
+    int[] dst = image.getPixelData();
+    if (src != null && dst != null) {
+      System.arraycopy(src, 0, dst, 0, src.length);
+    } else {
+      image.setSection(0, 0, this);
     }
   }
   
@@ -64,28 +146,162 @@ public class BaseImage {
  * @return boolean representing equality
  */
   public boolean equals(BaseImage image) {
-    synchronized(im) {
+    if (image == this) {
+      return true;
+    }
+    lock.lockWith(image.lock, false);
+    try {
       if (image.width() != width() || image.height() != height()) {
         return false;
       }
-      for (int i = 0; i < width(); i++) {
-        for (int j = 0; j < height(); j++) {
-          if (!(getPixel(i, j).equals(image.getPixel(i, j)))) {
-            return false;
-          }
-        }
+      return Compare.equal(this, image);
+    } finally {
+      lock.unlockWith(image.lock, false);
+    }
+  }
+
+  /**
+   * Tests Image equality. Two images are equal if they are the same size and
+   * every pixel has the same color, however they are stored.
+   *
+   * @param o Object to test
+   * @return boolean representing equality
+   */
+  public boolean equals(Object o) {
+    return o instanceof BaseImage && equals((BaseImage) o);
+  }
+
+  /**
+   * Returns a hash of the size and pixels of the image, matching equals().
+   * Reads every pixel, and changes whenever the image does.
+   *
+   * @return int hash of the image content
+   */
+  public int hashCode() {
+    long hash = contentHash();
+    return (int) (hash ^ (hash >>> 32));
+  }
+
+  /**
+   * Returns a 64 bit hash of the size and pixels of the image, for use as a
+   * cache key. Equal images always have the same hash. Rows are hashed in
+   * parallel.
+   *
+   * @return long hash of the image content
+   */
+  public long contentHash() {
+    lock.readAll();
+    try {
+      return Compare.hash(this, tileExecutor());
+    } finally {
+      lock.unlockReadAll();
+    }
+  }
+
+  /**
+   * Compares this image with another image of the same size, in tiles of 64
+   * by 64 pixels.
+   *
+   * @param image Image to compare with
+   * @return ImageDiff describing which pixels changed and by how much
+   */
+  public ImageDiff diff(BaseImage image) {
+    return diff(image, 64);
+  }
+
+  /**
+   * Compares this image with another image of the same size. Tiles are
+   * compared in parallel.
+   *
+   * @param image Image to compare with
+   * @param tileSize Width and height of the tiles changes are reported in.
+   * @return ImageDiff describing which pixels changed and by how much
+   */
+  public ImageDiff diff(BaseImage image, int tileSize) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("Tile size must be positive.");
+    }
+    lock.lockWith(image.lock, false);
+    try {
+      if (image.width() != width() || image.height() != height()) {
+        throw new IllegalArgumentException("Images must be the same size.");
       }
-      return true;
+      return Compare.diff(this, image, tileSize, tileExecutor());
+    } finally {
+      lock.unlockWith(image.lock, false);
     }
   }
 
   /**
-   * Returns the internal BufferedImage.
+   * Returns the TileExecutor that whole image work on this image is split
+   * across.
+   *
+   * @return the TileExecutor for this image
+   */
+  TileExecutor tileExecutor() {
+    return TileExecutor.getDefault();
+  }
+
+  /**
+   * Turns off all locking, for images that are only ever used by one thread,
+   * such as in a batch worker. Must only be changed while no other thread is
+   * using the image.
+   * 
+   * @param confined true to stop locking, false to lock again
+   */
+  public void setThreadConfined(boolean confined) {
+    lock.setConfined(confined);
+  }
+
+  /**
+   * Returns true if the image has been set to not lock.
+   * 
+   * @return boolean describing thread confinement
+   */
+  public boolean isThreadConfined() {
+    return lock.isConfined();
+  }
+
+  /**
+   * Locks rows startY up to but not including endY for writing, so a series
+   * of edits to them is seen by other threads all at once. Rows are locked in
+   * stripes, so threads holding rows that are far enough apart do not wait for
+   * each other, and the holder can still read and write the image as normal.
+   * Do not lock rows of another image while holding the lock.
+   * 
+   * <pre>
+   * try (BaseImage.RowLock l = image.lockRows(0, 64)) {
+   *   image.setRGB(0, 0, w, 64, tile, 0, w);
+   * }
+   * </pre>
+   * 
+   * @param startY First row to lock.
+   * @param endY Row after the last one to lock.
+   * @return RowLock that must be closed exactly once to release the rows
+   */
+  public RowLock lockRows(int startY, int endY) {
+    lock.write(startY, endY);
+    return () -> lock.unlockWrite(startY, endY);
+  }
+
+  /**
+   * Rows held by lockRows(), released by close().
+   */
+  @FunctionalInterface
+  public interface RowLock extends AutoCloseable {
+    void close();
+  }
+
+  /**
+   * Returns the internal BufferedImage. For memory-mapped images this is a
+   * view of the mapped pixels, which can only be made for images of fewer
+   * than 2^31 pixels.
    * 
    * @return BufferedImage contained within the Image.
    */
-  protected synchronized BufferedImage getBI() {
-    return im;
+  protected BufferedImage getBI() {
+    BufferedImage bi = im;
+    return bi != null ? bi : mapped.image();
   }
 
   /**
@@ -96,8 +312,11 @@ public class BaseImage {
    * @return Color of the pixel.
    */
   public Color getPixel(int x, int y) {
-    synchronized(im) {
-      return new Color(fromInt(im.getRGB(x, y)));
+    lock.read(y, y + 1);
+    try {
+      return Color.ofRGB(readRGB(x, y));
+    } finally {
+      lock.unlockRead(y, y + 1);
     }
   }
 
@@ -109,8 +328,284 @@ public class BaseImage {
    * @param color Color the pixel will be set to.
    */
   public void setPixel(int x, int y, Color color) {
-    synchronized(im) {
-      im.setRGB(x, y, toInt(color.getArray()));
+    lock.write(y, y + 1);
+    try {
+      writeRGB(x, y, color.toRGB());
+    } finally {
+      lock.unlockWrite(y, y + 1);
+    }
+  }
+
+  /**
+   * Returns the color at the given coordinates packed into an int as
+   * 0xRRGGBB. Unlike getPixel this does not create any objects.
+   * 
+   * @param x X value of the pixel.
+   * @param y Y value of the pixel.
+   * @return packed RGB value of the pixel
+   */
+  public int getRGB(int x, int y) {
+    lock.read(y, y + 1);
+    try {
+      return readRGB(x, y);
+    } finally {
+      lock.unlockRead(y, y + 1);
+    }
+  }
+
+  /**
+   * Sets the pixel at x and y to a color packed into an int as 0xRRGGBB.
+   * 
+   * @param x X position of the pixel.
+   * @param y Y position of the pixel.
+   * @param rgb packed RGB value the pixel will be set to
+   */
+  public void setRGB(int x, int y, int rgb) {
+    lock.write(y, y + 1);
+    try {
+      writeRGB(x, y, rgb);
+    } finally {
+      lock.unlockWrite(y, y + 1);
+    }
+  }
+
+  /**
+   * Reads a rectangle of packed 0xRRGGBB pixels into buffer, one row every
+   * scansize elements starting at offset. A new buffer is made if buffer is
+   * null.
+   * 
+   * @param x Left-most x coordinate of the rectangle.
+   * @param y Upper y coordinate of the rectangle.
+   * @param width Width of the rectangle.
+   * @param height Height of the rectangle.
+   * @param buffer int[] to read into, may be null
+   * @param offset index of the first pixel in buffer
+   * @param scansize distance between rows in buffer
+   * @return the buffer holding the pixels
+   */
+  public int[] getRGB(int x, int y, int width, int height, int[] buffer,
+      int offset, int scansize) {
+    if (buffer == null) {
+      buffer = new int[offset + height * scansize];
+    }
+    lock.read(y, y + height);
+    try {
+      readRGB(x, y, width, height, buffer, offset, scansize);
+    } finally {
+      lock.unlockRead(y, y + height);
+    }
+    return buffer;
+  }
+
+  /**
+   * Writes a rectangle of packed 0xRRGGBB pixels from buffer, one row every
+   * scansize elements starting at offset.
+   * 
+   * @param x Left-most x coordinate of the rectangle.
+   * @param y Upper y coordinate of the rectangle.
+   * @param width Width of the rectangle.
+   * @param height Height of the rectangle.
+   * @param buffer int[] holding the pixels
+   * @param offset index of the first pixel in buffer
+   * @param scansize distance between rows in buffer
+   */
+  public void setRGB(int x, int y, int width, int height, int[] buffer,
+      int offset, int scansize) {
+    lock.write(y, y + height);
+    try {
+      writeRGB(x, y, width, height, buffer, offset, scansize);
+    } finally {
+      lock.unlockWrite(y, y + height);
+    }
+  }
+
+  /**
+   * Reads one row of packed 0xRRGGBB pixels. A new buffer is made if buffer is
+   * null.
+   * 
+   * @param y Row to read.
+   * @param buffer int[] at least width() long, may be null
+   * @return the buffer holding the row
+   */
+  public int[] getRow(int y, int[] buffer) {
+    int w = width();
+    return getRGB(0, y, w, 1, buffer, 0, w);
+  }
+
+  /**
+   * Writes one row of packed 0xRRGGBB pixels.
+   * 
+   * @param y Row to write.
+   * @param row int[] at least width() long
+   */
+  public void setRow(int y, int[] row) {
+    int w = width();
+    setRGB(0, y, w, 1, row, 0, w);
+  }
+
+  /**
+   * Returns the int[] backing a TYPE_INT_RGB image, laid out row by row with
+   * width() pixels per row. Changes to the array change the image. Returns
+   * null if the image is stored in any other way, such as images loaded from
+   * files with an alpha channel or sub-sections of a larger image.
+   * 
+   * @return the backing pixel array or null
+   */
+  public int[] getPixelData() {
+    BufferedImage bi = im;
+    if (bi == null || bi.getType() != BufferedImage.TYPE_INT_RGB) {
+      return null;
+    }
+    WritableRaster raster = bi.getRaster();
+    if (raster.getSampleModelTranslateX() != 0
+        || raster.getSampleModelTranslateY() != 0
+        || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+        || ((SinglePixelPackedSampleModel) raster.getSampleModel())
+            .getScanlineStride() != bi.getWidth()) {
+      return null;
+    }
+    DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+    if (buffer.getNumBanks() != 1 || buffer.getOffset() != 0) {
+      return null;
+    }
+    return buffer.getData();
+  }
+
+  /**
+   * Returns getPixelData() if the image has a backing array, otherwise a new
+   * array with a copy of every pixel. Does not lock.
+   * 
+   * @return packed pixels, width() * height() long
+   */
+  int[] pixelArray() {
+    int[] data = getPixelData();
+    if (data != null) {
+      return data;
+    }
+    int w = size(true);
+    int h = size(false);
+    int[] copy = new int[w * h];
+    readRGB(0, 0, w, h, copy, 0, w);
+    return copy;
+  }
+
+  /**
+   * Reads a single packed pixel without locking.
+   * 
+   * @param x X value of the pixel.
+   * @param y Y value of the pixel.
+   * @return packed RGB value of the pixel
+   */
+  int readRGB(int x, int y) {
+    int[] data = getPixelData();
+    if (data == null) {
+      MappedBuffer m = mapped;
+      if (m != null) {
+        checkBounds(x, y, 1, 1);
+        return m.get(x, y);
+      }
+      return im.getRGB(x, y) & 0xFFFFFF;
+    }
+    int w = im.getWidth();
+    checkBounds(x, y, 1, 1);
+    return data[y * w + x] & 0xFFFFFF;
+  }
+
+  /**
+   * Writes a single packed pixel without locking.
+   * 
+   * @param x X value of the pixel.
+   * @param y Y value of the pixel.
+   * @param rgb packed RGB value
+   */
+  void writeRGB(int x, int y, int rgb) {
+    int[] data = getPixelData();
+    if (data == null) {
+      MappedBuffer m = mapped;
+      if (m != null) {
+        checkBounds(x, y, 1, 1);
+        m.set(x, y, rgb);
+        return;
+      }
+      im.setRGB(x, y, rgb);
+      return;
+    }
+    checkBounds(x, y, 1, 1);
+    data[y * im.getWidth() + x] = rgb & 0xFFFFFF;
+  }
+
+  /**
+   * Reads a rectangle of packed pixels without locking.
+   */
+  void readRGB(int x, int y, int width, int height, int[] buffer, int offset,
+      int scansize) {
+    int[] data = getPixelData();
+    MappedBuffer m = mapped;
+    if (m != null) {
+      checkBounds(x, y, width, height);
+      for (int j = 0; j < height; j++) {
+        m.read(x, y + j, width, buffer, offset + j * scansize);
+      }
+      return;
+    }
+    if (data == null) {
+      im.getRGB(x, y, width, height, buffer, offset, scansize);
+      for (int j = 0; j < height; j++) {
+        int start = offset + j * scansize;
+        for (int i = start; i < start + width; i++) {
+          buffer[i] &= 0xFFFFFF;
+        }
+      }
+      return;
+    }
+    checkBounds(x, y, width, height);
+    int w = im.getWidth();
+    for (int j = 0; j < height; j++) {
+      int src = (y + j) * w + x;
+      int dst = offset + j * scansize;
+      for (int i = 0; i < width; i++) {
+        buffer[dst + i] = data[src + i] & 0xFFFFFF;
+      }
+    }
+  }
+
+  /**
+   * Writes a rectangle of packed pixels without locking.
+   */
+  void writeRGB(int x, int y, int width, int height, int[] buffer, int offset,
+      int scansize) {
+    int[] data = getPixelData();
+    MappedBuffer m = mapped;
+    if (m != null) {
+      checkBounds(x, y, width, height);
+      for (int j = 0; j < height; j++) {
+        m.write(x, y + j, width, buffer, offset + j * scansize);
+      }
+      return;
+    }
+    if (data == null) {
+      im.setRGB(x, y, width, height, buffer, offset, scansize);
+      return;
+    }
+    checkBounds(x, y, width, height);
+    int w = im.getWidth();
+    for (int j = 0; j < height; j++) {
+      int src = offset + j * scansize;
+      int dst = (y + j) * w + x;
+      for (int i = 0; i < width; i++) {
+        data[dst + i] = buffer[src + i] & 0xFFFFFF;
+      }
+    }
+  }
+
+  /**
+   * Throws the same exception BufferedImage does when a rectangle is not
+   * within the image.
+   */
+  private void checkBounds(int x, int y, int width, int height) {
+    if (x < 0 || y < 0 || width < 0 || height < 0
+        || (long) x + width > size(true) || (long) y + height > size(false)) {
+      throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
     }
   }
 
@@ -125,8 +620,15 @@ public class BaseImage {
    * @return Image which is a smaller part of the original.
    */
   public BaseImage subSection(int x, int y, int width, int height) {
-    synchronized(im) {
+    lock.read(y, y + height);
+    try {
+      MappedBuffer m = mapped;
+      if (m != null) {
+        return new BaseImage(m.view(x, y, width, height));
+      }
       return new BaseImage(im.getSubimage(x, y, width, height));
+    } finally {
+      lock.unlockRead(y, y + height);
     }
   }
 
@@ -139,13 +641,39 @@ public class BaseImage {
    * @param image Image to be set.
    */
   public void setSection(int x, int y, BaseImage image) {
-    synchronized(im) {
-      BufferedImage bi = image.getBI();
-      int[] dat = bi.getRGB(0, 0, image.width(), image.height(), null, 0,
-          Math.max(image.height(), image.width()));
-      // System.out.println(dat.length);
-      im.setRGB(x, y, image.width(), image.height(), dat, 0,
-          Math.max(image.height(), image.width()));
+    int w = image.width();
+    int h = image.height();
+    lock.write(y, y + h);
+    try {
+      int[] src = image.getPixelData();
+      int[] dst = getPixelData();
+      if (src != null && dst != null) {
+        checkBounds(x, y, w, h);
+        for (int j = 0; j < h; j++) {
+          System.arraycopy(src, j * w, dst, (y + j) * im.getWidth() + x, w);
+        }
+        return;
+      }
+      BufferedImage bi = image.im;
+      boolean alpha = bi != null && bi.getColorModel().hasAlpha();
+      int rows = Math.max(1, BAND_PIXELS / Math.max(w, 1));
+      int[] dat = new int[Math.min(rows, h) * w];
+      for (int j = 0; j < h; j += rows) {
+        int n = Math.min(rows, h - j);
+        if (alpha) {
+          bi.getRGB(0, j, w, n, dat, 0, w);
+          if (im != null) {
+            im.setRGB(x, y + j, w, n, dat, 0, w);
+          } else {
+            writeRGB(x, y + j, w, n, dat, 0, w);
+          }
+        } else {
+          image.readRGB(0, j, w, n, dat, 0, w);
+          writeRGB(x, y + j, w, n, dat, 0, w);
+        }
+      }
+    } finally {
+      lock.unlockWrite(y, y + h);
     }
   }
 
@@ -155,12 +683,22 @@ public class BaseImage {
    * @param color Color for the image to be filled with.
    */
   public void fill(Color color) {
-    synchronized(im) {
-      for (int x = 0; x < width(); x++) {
-        for (int y = 0; y < height(); y++) {
-          setPixel(x, y, color);
-        }
+    lock.writeAll();
+    try {
+      int rgb = color.toRGB();
+      int[] data = getPixelData();
+      if (data != null) {
+        Arrays.fill(data, rgb & 0xFFFFFF);
+        return;
       }
+      int w = width();
+      int[] row = new int[w];
+      Arrays.fill(row, rgb);
+      for (int y = 0; y < height(); y++) {
+        writeRGB(0, y, w, 1, row, 0, w);
+      }
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -169,9 +707,25 @@ public class BaseImage {
    * 
    * @param image image to set current image to
    */
-  public synchronized void setImage(BaseImage image) {
-    synchronized(im) {
-      im = image.getBI();
+  public void setImage(BaseImage image) {
+    lock.writeAll();
+    try {
+      long stamp = lock.shape.writeLock();
+      try {
+        BufferedImage bi = image.im;
+        MappedBuffer m = image.mapped;
+        if (bi != null) {
+          im = bi;
+          mapped = null;
+        } else {
+          mapped = m;
+          im = null;
+        }
+      } finally {
+        lock.shape.unlockWrite(stamp);
+      }
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -181,9 +735,18 @@ public class BaseImage {
    * @return int defining the image width
    */
   public int width() {
-    synchronized(im) {
-      return im.getWidth();
+    StampedLock shape = lock.shape;
+    long stamp = shape.tryOptimisticRead();
+    int w = size(true);
+    if (!shape.validate(stamp)) {
+      stamp = shape.readLock();
+      try {
+        w = size(true);
+      } finally {
+        shape.unlockRead(stamp);
+      }
     }
+    return w;
   }
 
   /**
@@ -192,45 +755,56 @@ public class BaseImage {
    * @return int defining the image height
    */
   public int height() {
-    synchronized(im) {
-      return im.getHeight();
+    StampedLock shape = lock.shape;
+    long stamp = shape.tryOptimisticRead();
+    int h = size(false);
+    if (!shape.validate(stamp)) {
+      stamp = shape.readLock();
+      try {
+        h = size(false);
+      } finally {
+        shape.unlockRead(stamp);
+      }
     }
+    return h;
   }
 
   /**
-   * Conversion for BufferedImage
-   * 
-   * @param n
-   * @return int[] from the pixel color.
-   */
-  private int[] fromInt(int n) {
-    n = (n + (256 * 256 * 256)) % (256 * 256 * 256);
-    return new int[] { n / (256 * 256), (n / 256) % 256, n % 256 };
-  }
-
-  /**
-   * Conversion for BufferedImage
-   * 
-   * @param n
-   * @return int from the int[].
+   * Width, if across, or height of whichever store the image has, without
+   * locking. Returns 0 while setImage() swaps stores, which only happens
+   * when a caller's stamp will not validate.
    */
-  private int toInt(int[] n) {
-    return n[0] * 256 * 256 + n[1] * 256 + n[2];
+  private int size(boolean across) {
+    BufferedImage bi = im;
+    if (bi != null) {
+      return across ? bi.getWidth() : bi.getHeight();
+    }
+    MappedBuffer m = mapped;
+    if (m != null) {
+      return across ? m.width() : m.height();
+    }
+    return 0;
   }
 
   /**
-   * Saves the Image as the type defined in the extension.
+   * Saves the Image as the type defined in the extension. Memory-mapped
+   * images of 2^31 pixels or more have no BufferedImage to encode, so save
+   * their subSection()s instead; their pixels are already in their file.
    * 
    * @param fileName Name of the file to save. Must contain extension.
    */
-  public synchronized void save(String fileName) {
-    synchronized (im) {
-      try {
-        ImageIO.write(im, fileName.substring(fileName.lastIndexOf('.') + 1),
-            new File(fileName));
-      } catch (IOException e) {
-        throw new RuntimeException("Can Not Save File: " + fileName);
-      }
+  public void save(String fileName) {
+    String format = fileName.substring(fileName.lastIndexOf('.') + 1);
+    lock.readAll();
+    try {
+      Metrics.Probe probe = Metrics.start("save.", format);
+      BufferedImage bi = getBI();
+      ImageIO.write(bi, format, new File(fileName));
+      Metrics.end(probe, (long) bi.getWidth() * bi.getHeight());
+    } catch (IOException e) {
+      throw new RuntimeException("Can Not Save File: " + fileName);
+    } finally {
+      lock.unlockReadAll();
     }
   }
 }
@@ -0,0 +1,400 @@
+package jImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runs the same edit over many image files. Each file goes through three
+ * stages: it is decoded on an I/O thread, edited on a fixed pool of CPU
+ * threads and saved on an I/O thread, so reading, editing and writing of
+ * different files overlap. I/O threads are virtual threads when the JVM has
+ * them.
+ *
+ * Before a file is decoded its size is read from the header and its pixels
+ * are taken from a byte budget, which is given back once it is saved, so no
+ * more than the budget is held in decoded images at once. Without virtual
+ * threads, decoding and saving have separate pools, so readers waiting on
+ * the budget never hold up the writers that free it. A file that fails
+ * at any stage is recorded in the Report and the rest carry on.
+ *
+ * <pre>
+ * Batch.Report report = new Batch(Batch.files("masters", "*.jpg"),
+ *     image -&gt; image.resize(320, 240, Image.SCALE_AREA_AVERAGE),
+ *     Batch.into("thumbs", "png")).run();
+ * </pre>
+ *
+ * @author Cy
+ *
+ */
+public final class Batch {
+  /**
+   * Images are edited one per CPU thread, so each runs its own work on the
+   * thread it was given.
+   */
+  private static final TileExecutor INLINE = new TileExecutor(1);
+
+  private final List<String> files;
+  private final Consumer<Image> operation;
+  private final UnaryOperator<String> naming;
+  private int cpuThreads = Runtime.getRuntime().availableProcessors();
+  private int ioThreads = 2 * Runtime.getRuntime().availableProcessors();
+  private long budget = Math.max(Runtime.getRuntime().maxMemory() / 4,
+      1L << 26);
+  private int inFlight = 1024;
+  private boolean virtual = true;
+
+  /**
+   * Sets up a batch. Nothing runs until run() is called.
+   *
+   * @param files names of the files to read
+   * @param operation edit made to each Image
+   * @param naming gives the output file name for each input file name
+   */
+  public Batch(List<String> files, Consumer<Image> operation,
+      UnaryOperator<String> naming) {
+    this.files = new ArrayList<String>(files);
+    this.operation = operation;
+    this.naming = naming;
+  }
+
+  /**
+   * Lists the files in a directory that match a glob, such as "*.{jpg,png}",
+   * in name order. Subdirectories are not searched.
+   *
+   * @param directory directory to list
+   * @param glob pattern the file names must match
+   * @return List of file names
+   */
+  public static List<String> files(String directory, String glob) {
+    List<String> list = new ArrayList<String>();
+    try (DirectoryStream<Path> dir = Files.newDirectoryStream(
+        Paths.get(directory), glob)) {
+      for (Path p : dir) {
+        if (Files.isRegularFile(p)) {
+          list.add(p.toString());
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Can Not List Directory: " + directory);
+    }
+    Collections.sort(list);
+    return list;
+  }
+
+  /**
+   * Returns a naming rule that puts each output in directory with the same
+   * base name as its input and a new extension, which picks the format.
+   *
+   * @param directory directory to write to
+   * @param extension file extension without the dot, such as "png"
+   * @return naming rule for the Batch constructor
+   */
+  public static UnaryOperator<String> into(String directory,
+      String extension) {
+    return source -> {
+      String name = new File(source).getName();
+      int dot = name.lastIndexOf('.');
+      if (dot > 0) {
+        name = name.substring(0, dot);
+      }
+      return new File(directory, name + "." + extension).getPath();
+    };
+  }
+
+  /**
+   * Sets the number of threads editing images. Defaults to one per core.
+   *
+   * @param threads number of CPU threads
+   */
+  public void setCpuThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Threads must be positive.");
+    }
+    cpuThreads = threads;
+  }
+
+  /**
+   * Sets the number of threads decoding, and the number saving, when
+   * virtual threads are not used. Defaults to two per core.
+   *
+   * @param threads number of I/O threads
+   */
+  public void setIoThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Threads must be positive.");
+    }
+    ioThreads = threads;
+  }
+
+  /**
+   * Turns virtual threads for decoding and saving on or off. They are on by
+   * default, and only used when the JVM has them.
+   *
+   * @param virtual use virtual threads for I/O
+   */
+  public void setVirtualThreads(boolean virtual) {
+    this.virtual = virtual;
+  }
+
+  /**
+   * Sets how many bytes of decoded pixels may be held at once, counted as
+   * four bytes per pixel. A single image larger than the budget still runs,
+   * on its own. Defaults to a quarter of the maximum heap.
+   *
+   * @param bytes byte budget
+   */
+  public void setByteBudget(long bytes) {
+    if (bytes < 1) {
+      throw new IllegalArgumentException("Byte budget must be positive.");
+    }
+    budget = bytes;
+  }
+
+  /**
+   * Sets how many files may be started and not yet finished, however small.
+   * Defaults to 1024.
+   *
+   * @param files largest number of files in flight
+   */
+  public void setMaxInFlight(int files) {
+    if (files < 1) {
+      throw new IllegalArgumentException("Files in flight must be positive.");
+    }
+    inFlight = files;
+  }
+
+  /**
+   * Runs every file through the batch and waits for them all to finish.
+   *
+   * @return Report of the files written and the ones that failed
+   */
+  public Report run() {
+    ThreadFactory ioFactory = SavePipe.threadFactory("jImage-batch-io-",
+        virtual);
+    boolean perTask = virtual && isVirtual(ioFactory);
+    ExecutorService readers = perTask ? null : pool(ioThreads, ioFactory);
+    ExecutorService writers = perTask ? null : pool(ioThreads, ioFactory);
+    Executor read = perTask ? r -> ioFactory.newThread(r).start() : readers;
+    Executor write = perTask ? read : writers;
+    ExecutorService cpu = pool(cpuThreads,
+        SavePipe.threadFactory("jImage-batch-cpu-", false));
+    Budget bytes = new Budget(budget);
+    Semaphore window = new Semaphore(inFlight);
+    Report report = new Report();
+    long start = System.nanoTime();
+    try {
+      for (String file : files) {
+        window.acquireUninterruptibly();
+        Job job = new Job(file);
+        CompletableFuture.runAsync(() -> decode(job, bytes), read)
+            .thenRunAsync(() -> process(job, bytes), cpu)
+            .thenRunAsync(() -> encode(job), write)
+            .whenComplete((v, e) -> {
+              job.image = null;
+              bytes.release(job.bytes);
+              report.add(job.source, e);
+              window.release();
+            });
+      }
+      window.acquireUninterruptibly(inFlight);
+    } finally {
+      cpu.shutdown();
+      if (!perTask) {
+        readers.shutdown();
+        writers.shutdown();
+      }
+    }
+    report.nanos = System.nanoTime() - start;
+    return report;
+  }
+
+  private static ExecutorService pool(int threads, ThreadFactory factory) {
+    return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), factory);
+  }
+
+  /**
+   * Tests whether a ThreadFactory makes virtual threads.
+   */
+  private static boolean isVirtual(ThreadFactory factory) {
+    try {
+      return (Boolean) Thread.class.getMethod("isVirtual").invoke(
+          factory.newThread(() -> {}));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Takes the pixels of the file from the budget, then decodes it.
+   */
+  private void decode(Job job, Budget bytes) {
+    ImageInfo info = BaseImage.probe(job.source);
+    long n = 4L * info.getWidth() * info.getHeight();
+    bytes.acquire(n);
+    job.bytes = n;
+    job.image = new Image(job.source);
+    job.image.setExecutor(INLINE);
+  }
+
+  /**
+   * Runs the edit and updates the budget if the image changed size.
+   */
+  private void process(Job job, Budget bytes) {
+    operation.accept(job.image);
+    long n = 4L * job.image.width() * job.image.height();
+    bytes.adjust(n - job.bytes);
+    job.bytes = n;
+  }
+
+  private void encode(Job job) {
+    String target = naming.apply(job.source);
+    File parent = new File(target).getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs()
+        && !parent.isDirectory()) {
+      throw new RuntimeException("Can Not Make Directory: " + parent);
+    }
+    job.image.save(target);
+  }
+
+  /**
+   * One file on its way through the stages.
+   */
+  private static final class Job {
+    final String source;
+    Image image;
+    long bytes = 0;
+
+    Job(String source) {
+      this.source = source;
+    }
+  }
+
+  /**
+   * Bytes of pixels held by files in flight. acquire() waits until there is
+   * room, unless nothing is held, so one image larger than the budget can
+   * still run. Waits use a Condition rather than Object.wait(), which would
+   * pin the carrier of a waiting virtual thread, so readers held up by the
+   * budget can not starve the writers that free it of carriers.
+   */
+  private static final class Budget {
+    private final long limit;
+    private long used = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition freed = lock.newCondition();
+
+    Budget(long limit) {
+      this.limit = limit;
+    }
+
+    void acquire(long n) {
+      lock.lock();
+      try {
+        while (used > 0 && used + n > limit) {
+          freed.awaitUninterruptibly();
+        }
+        used += n;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Changes what is held without waiting, as the image is already in
+     * memory.
+     */
+    void adjust(long n) {
+      lock.lock();
+      try {
+        used += n;
+        if (n < 0) {
+          freed.signalAll();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void release(long n) {
+      adjust(-n);
+    }
+  }
+
+  /**
+   * What happened to the files of a Batch.
+   */
+  public static final class Report {
+    private int written = 0;
+    private final Map<String, Throwable> failures =
+        new TreeMap<String, Throwable>();
+    private long nanos;
+
+    synchronized void add(String source, Throwable error) {
+      if (error == null) {
+        written++;
+        return;
+      }
+      if (error instanceof CompletionException && error.getCause() != null) {
+        error = error.getCause();
+      }
+      failures.put(source, error);
+    }
+
+    /**
+     * Returns the number of files written.
+     *
+     * @return int count of files
+     */
+    public synchronized int getWritten() {
+      return written;
+    }
+
+    /**
+     * Returns the files that failed, in name order, with the error each one
+     * failed with.
+     *
+     * @return unmodifiable Map from input file name to error
+     */
+    public synchronized Map<String, Throwable> getFailures() {
+      return Collections.unmodifiableMap(new TreeMap<String, Throwable>(
+          failures));
+    }
+
+    /**
+     * Returns how long the batch took.
+     *
+     * @return long time in milliseconds
+     */
+    public long getMillis() {
+      return nanos / 1000000;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return "Batch.Report[" + written + " written, " + failures.size()
+          + " failed, " + getMillis() + " ms]";
+    }
+  }
+}
@@ -0,0 +1,368 @@
+package jImage;
+
+/**
+ * Separable box blurs over packed 0xRRGGBB pixel buffers. Each pass keeps a
+ * running sum across a row and then down each column, so the cost per pixel
+ * does not depend on the radius.
+ *
+ * @author Cy
+ *
+ */
+final class Blur {
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Blur() {}
+
+  /**
+   * Box blurs pixels once for each radius in radii. Results are written back
+   * into pixels.
+   *
+   * @param pixels packed pixels, width * height long
+   * @param width Width of the image.
+   * @param height Height of the image.
+   * @param radii radius of each pass
+   * @param edge how pixels outside the image are read
+   * @param rootMeanSquare average the squares of the channels and take the
+   *          root, instead of a plain average
+   * @param executor TileExecutor to split the work across
+   */
+  static void blur(int[] pixels, int width, int height, int[] radii,
+      EdgeMode edge, boolean rootMeanSquare, TileExecutor executor) {
+    Planes planes = new Planes(width * (height + 1));
+    for (int radius : radii) {
+      if (radius > 0) {
+        long largest = (long) (2 * radius + 1) * (rootMeanSquare ? 255 * 255
+            : 255);
+        planes.widen(largest > Integer.MAX_VALUE);
+        horizontal(pixels, planes, width, height, radius, edge,
+            rootMeanSquare, executor);
+        vertical(planes, pixels, width, height, radius, edge, rootMeanSquare,
+            executor);
+      }
+    }
+  }
+
+  /**
+   * Box blurs an image without a backing array, such as a memory-mapped
+   * one, holding only a few rows of it at a time. Each pass reads one image
+   * and writes another, going through temporary images made by
+   * image.blank(). Each band of output rows keeps running sums down its
+   * columns and works out the sums along the rows entering and leaving the
+   * window as it slides, so the cost per pixel still does not depend on the
+   * radius.
+   *
+   * @param image image to blur in place
+   * @param radii radius of each pass
+   * @param edge how pixels outside the image are read
+   * @param rootMeanSquare average the squares of the channels and take the
+   *          root, instead of a plain average
+   * @param executor TileExecutor to split the work across
+   */
+  static void blur(BaseImage image, int[] radii, EdgeMode edge,
+      boolean rootMeanSquare, TileExecutor executor) {
+    int width = image.width();
+    int height = image.height();
+    int passes = 0;
+    for (int radius : radii) {
+      if (radius > 0) {
+        passes++;
+      }
+    }
+    if (passes == 0) {
+      return;
+    }
+    BaseImage first = image.blank(width, height);
+    BaseImage second = passes > 2 ? image.blank(width, height) : null;
+    BaseImage source = image;
+    int pass = 0;
+    for (int radius : radii) {
+      if (radius > 0) {
+        BaseImage target = pass > 0 && pass == passes - 1 ? image
+            : pass % 2 == 0 ? first : second;
+        stream(source, target, width, height, radius, edge, rootMeanSquare,
+            executor);
+        source = target;
+        pass++;
+      }
+    }
+    if (source != image) {
+      BaseImage result = source;
+      executor.forEachBand(width, height, (start, end) -> {
+        int[] row = new int[width];
+        for (int y = start; y < end; y++) {
+          result.readRGB(0, y, width, 1, row, 0, width);
+          image.writeRGB(0, y, width, 1, row, 0, width);
+        }
+      });
+    }
+  }
+
+  /**
+   * One box blur pass from source into target, a row at a time.
+   */
+  private static void stream(BaseImage source, BaseImage target, int width,
+      int height, int radius, EdgeMode edge, boolean square,
+      TileExecutor executor) {
+    int[] across = edge.table(width, radius);
+    int[] down = edge.table(height, radius);
+    int span = 2 * radius + 1;
+    long window = (long) span * span;
+    int[] insideX = edge == EdgeMode.SKIP ? EdgeMode.inside(width, radius)
+        : null;
+    int[] insideY = edge == EdgeMode.SKIP ? EdgeMode.inside(height, radius)
+        : null;
+    executor.forEachBand(width, height, (start, end) -> {
+      int[] row = new int[width];
+      int[][] line = new int[3][width + 1];
+      long[][] sums = new long[3][width];
+      for (int i = 0; i < span; i++) {
+        addRow(source, height, down[start + i], 1, across, span, square,
+            row, line, sums);
+      }
+      for (int y = start; y < end; y++) {
+        for (int x = 0; x < width; x++) {
+          long count = insideX == null ? window
+              : (long) insideX[x] * insideY[y];
+          row[x] = average(sums[0][x], count, square) << 16
+              | average(sums[1][x], count, square) << 8
+              | average(sums[2][x], count, square);
+        }
+        target.writeRGB(0, y, width, 1, row, 0, width);
+        if (y + 1 < end) {
+          addRow(source, height, down[y + span], 1, across, span, square,
+              row, line, sums);
+          addRow(source, height, down[y], -1, across, span, square, row,
+              line, sums);
+        }
+      }
+    });
+  }
+
+  /**
+   * Adds sign times the window sums along row y of source onto sums. Row
+   * height, past the edge for EdgeMode.CONSTANT and SKIP, adds nothing.
+   */
+  private static void addRow(BaseImage source, int height, int y, int sign,
+      int[] across, int span, boolean square, int[] row, int[][] line,
+      long[][] sums) {
+    int width = row.length;
+    if (y == height) {
+      return;
+    }
+    source.readRGB(0, y, width, 1, row, 0, width);
+    for (int x = 0; x < width; x++) {
+      int n = row[x];
+      line[0][x] = (n >> 16) & 0xFF;
+      line[1][x] = (n >> 8) & 0xFF;
+      line[2][x] = n & 0xFF;
+    }
+    for (int c = 0; c < 3; c++) {
+      int[] v = line[c];
+      if (square) {
+        for (int x = 0; x < width; x++) {
+          v[x] *= v[x];
+        }
+      }
+      long[] s = sums[c];
+      long sum = 0;
+      for (int i = 0; i < span; i++) {
+        sum += v[across[i]];
+      }
+      for (int x = 0; x < width; x++) {
+        s[x] += sign * sum;
+        if (x + 1 < width) {
+          sum += v[across[x + span]] - v[across[x]];
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the radii of passes box blurs which together approximate a
+   * gaussian blur.
+   *
+   * @param sigma standard deviation of the gaussian
+   * @param passes number of box blurs
+   * @return int[] with one radius per pass
+   */
+  static int[] gaussianRadii(double sigma, int passes) {
+    double ideal = Math.sqrt(12 * sigma * sigma / passes + 1);
+    int lower = (int) Math.floor(ideal);
+    if (lower % 2 == 0) {
+      lower--;
+    }
+    int upper = lower + 2;
+    long m = Math.round((12 * sigma * sigma - passes * lower * lower - 4
+        * passes * lower - 3 * passes)
+        / (-4.0 * lower - 4));
+    int[] radii = new int[passes];
+    for (int i = 0; i < passes; i++) {
+      radii[i] = ((i < m ? lower : upper) - 1) / 2;
+    }
+    return radii;
+  }
+
+  /**
+   * Writes the sum of each window along every row into the three channel
+   * planes. Lines have one more entry than the row, always zero, which
+   * EdgeMode.CONSTANT and SKIP read past the edges; the planes have an extra
+   * zero row for the same reason.
+   */
+  private static void horizontal(int[] pixels, Planes planes, int width,
+      int height, int radius, EdgeMode edge, boolean square,
+      TileExecutor executor) {
+    int[] index = edge.table(width, radius);
+    int span = 2 * radius + 1;
+    executor.forEachBand(width, height, (start, end) -> {
+      int[][] line = new int[3][width + 1];
+      for (int y = start; y < end; y++) {
+        int row = y * width;
+        for (int x = 0; x < width; x++) {
+          int n = pixels[row + x];
+          line[0][x] = (n >> 16) & 0xFF;
+          line[1][x] = (n >> 8) & 0xFF;
+          line[2][x] = n & 0xFF;
+        }
+        for (int c = 0; c < 3; c++) {
+          int[] v = line[c];
+          if (square) {
+            for (int x = 0; x < width; x++) {
+              v[x] *= v[x];
+            }
+          }
+          int[] out = planes.narrow[c];
+          long[] wide = planes.wide[c];
+          long sum = 0;
+          for (int i = 0; i < span; i++) {
+            sum += v[index[i]];
+          }
+          for (int x = 0; x < width; x++) {
+            if (wide != null) {
+              wide[row + x] = sum;
+            } else {
+              out[row + x] = (int) sum;
+            }
+            if (x + 1 < width) {
+              sum += v[index[x + span]] - v[index[x]];
+            }
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Sums each window down every column of the planes and writes the averages
+   * as packed pixels. With EdgeMode.SKIP each sum is divided by the number
+   * of its pixels inside the image instead of the whole window.
+   */
+  private static void vertical(Planes planes, int[] pixels, int width,
+      int height, int radius, EdgeMode edge, boolean square,
+      TileExecutor executor) {
+    int[] index = edge.table(height, radius);
+    int span = 2 * radius + 1;
+    long window = (long) span * span;
+    int[] across = edge == EdgeMode.SKIP ? EdgeMode.inside(width, radius)
+        : null;
+    int[] down = edge == EdgeMode.SKIP ? EdgeMode.inside(height, radius)
+        : null;
+    executor.forEachBand(height, width, (start, end) -> {
+      int columns = end - start;
+      long[][] sums = new long[3][columns];
+      for (int c = 0; c < 3; c++) {
+        for (int i = 0; i < span; i++) {
+          planes.add(c, index[i] * width + start, sums[c], columns);
+        }
+      }
+      for (int y = 0; y < height; y++) {
+        int row = y * width + start;
+        for (int x = 0; x < columns; x++) {
+          long count = across == null ? window
+              : (long) across[start + x] * down[y];
+          pixels[row + x] = average(sums[0][x], count, square) << 16
+              | average(sums[1][x], count, square) << 8
+              | average(sums[2][x], count, square);
+        }
+        if (y + 1 < height) {
+          int add = index[y + span] * width + start;
+          int remove = index[y] * width + start;
+          for (int c = 0; c < 3; c++) {
+            planes.slide(c, add, remove, sums[c], columns);
+          }
+        }
+      }
+    });
+  }
+
+  private static int average(long sum, long count, boolean square) {
+    if (square) {
+      return (int) Math.sqrt(sum / count);
+    }
+    return (int) ((sum + count / 2) / count);
+  }
+
+  /**
+   * Row sums of the three channels. They are kept in ints unless a window
+   * could add up past Integer.MAX_VALUE, which only happens for root mean
+   * square blurs with radii over 16000 or so.
+   */
+  private static final class Planes {
+    private final int size;
+    private int[][] narrow = new int[3][];
+    private long[][] wide = new long[3][];
+
+    Planes(int size) {
+      this.size = size;
+    }
+
+    /**
+     * Makes sure the planes of the kind needed exist.
+     */
+    void widen(boolean needed) {
+      if (needed && wide[0] == null) {
+        wide = new long[3][size];
+        narrow = new int[3][];
+      } else if (!needed && narrow[0] == null) {
+        narrow = new int[3][size];
+        wide = new long[3][];
+      }
+    }
+
+    /**
+     * Adds count entries of plane c from offset onto sums.
+     */
+    void add(int c, int offset, long[] sums, int count) {
+      if (wide[c] != null) {
+        long[] p = wide[c];
+        for (int x = 0; x < count; x++) {
+          sums[x] += p[offset + x];
+        }
+      } else {
+        int[] p = narrow[c];
+        for (int x = 0; x < count; x++) {
+          sums[x] += p[offset + x];
+        }
+      }
+    }
+
+    /**
+     * Adds the row at add and takes away the row at remove, for count
+     * entries of plane c.
+     */
+    void slide(int c, int add, int remove, long[] sums, int count) {
+      if (wide[c] != null) {
+        long[] p = wide[c];
+        for (int x = 0; x < count; x++) {
+          sums[x] += p[add + x] - p[remove + x];
+        }
+      } else {
+        int[] p = narrow[c];
+        for (int x = 0; x < count; x++) {
+          sums[x] += (long) p[add + x] - p[remove + x];
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package jImage;
+
+/**
+ * Point operations on runs of packed 0xRRGGBB pixels. This class does them
+ * one pixel at a time. When the JVM runs with
+ * --add-modules jdk.incubator.vector and jImage was built with the vector
+ * profile, get() returns VectorChannelKernels instead, which does the same
+ * operations several pixels at a time with SIMD instructions and gives the
+ * same results.
+ *
+ * Scales are fixed point with 8 fraction bits, so both versions round the
+ * same way.
+ *
+ * @author Cy
+ *
+ */
+class ChannelKernels {
+  private static final ChannelKernels KERNELS = load();
+
+  /**
+   * Returns the fastest kernels this JVM can run.
+   */
+  static ChannelKernels get() {
+    return KERNELS;
+  }
+
+  /**
+   * Loads the vector kernels by name, so nothing breaks on JVMs without the
+   * Vector API or builds without them. Setting the system property
+   * jImage.vector to false keeps the scalar ones.
+   */
+  private static ChannelKernels load() {
+    if (!"false".equals(System.getProperty("jImage.vector"))) {
+      try {
+        return (ChannelKernels) Class.forName("jImage.VectorChannelKernels")
+            .getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) {
+        // no Vector API, use the scalar kernels
+      }
+    }
+    return new ChannelKernels();
+  }
+
+  /**
+   * Returns whether the kernels use SIMD instructions.
+   */
+  boolean isVectorized() {
+    return false;
+  }
+
+  /**
+   * Sets one channel to value, keeping the other channels.
+   *
+   * @param shift 16 for red, 8 for green or 0 for blue
+   * @param value new channel value, 0-255
+   */
+  void setChannel(int[] pixels, int start, int end, int shift, int value) {
+    int keep = 0xFFFFFF & ~(0xFF << shift);
+    int add = value << shift;
+    for (int i = start; i < end; i++) {
+      pixels[i] = ((pixels[i] & keep) + add) & 0xFFFFFF;
+    }
+  }
+
+  /**
+   * Replaces every channel value v with 255 - v.
+   */
+  void invert(int[] pixels, int start, int end) {
+    for (int i = start; i < end; i++) {
+      pixels[i] = ~pixels[i] & 0xFFFFFF;
+    }
+  }
+
+  /**
+   * Multiplies each channel by its scale, in 256ths, rounding and clamping
+   * to 255.
+   */
+  void scale(int[] pixels, int start, int end, int red, int green,
+      int blue) {
+    for (int i = start; i < end; i++) {
+      int p = pixels[i];
+      int r = Math.min((((p >> 16) & 0xFF) * red + 128) >> 8, 255);
+      int g = Math.min((((p >> 8) & 0xFF) * green + 128) >> 8, 255);
+      int b = Math.min(((p & 0xFF) * blue + 128) >> 8, 255);
+      pixels[i] = r << 16 | g << 8 | b;
+    }
+  }
+
+  /**
+   * Stretches each channel about 128 by contrast, in 256ths, then adds
+   * brightness, clamping to 0 to 255.
+   */
+  void brightnessContrast(int[] pixels, int start, int end, int brightness,
+      int contrast) {
+    int offset = (128 + brightness) * 256 + 128;
+    for (int i = start; i < end; i++) {
+      int p = pixels[i];
+      int r = clamp(((((p >> 16) & 0xFF) - 128) * contrast + offset) >> 8);
+      int g = clamp(((((p >> 8) & 0xFF) - 128) * contrast + offset) >> 8);
+      int b = clamp((((p & 0xFF) - 128) * contrast + offset) >> 8);
+      pixels[i] = r << 16 | g << 8 | b;
+    }
+  }
+
+  /**
+   * Copies each pixel of over that is not key onto pixels. Both runs start
+   * at the same index.
+   */
+  void impose(int[] pixels, int[] over, int start, int end, int key) {
+    for (int i = start; i < end; i++) {
+      int o = over[i];
+      if (o != key) {
+        pixels[i] = o;
+      }
+    }
+  }
+
+  static int clamp(int v) {
+    return v < 0 ? 0 : v > 255 ? 255 : v;
+  }
+}
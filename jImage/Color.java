@@ -5,10 +5,29 @@ import java.util.function.UnaryOperator;
 /**
  * Color class to hold the RGB values of a color.
  * 
+ * Colors can also be kept as packed 0xRRGGBB ints, the same form getRGB() and
+ * setRGB() use on images. The static pack(), red(), green() and blue()
+ * methods work on packed ints directly so loops over pixels need no Color
+ * objects, and ofRGB() returns a shared Color for a packed int. Channels
+ * outside 0-255 are clamped whenever a color is packed, by pack(), the
+ * withRed() style methods, toRGB() and so every image method taking a Color.
+ * 
  * @author Cy
  *
  */
 public final class Color {
+  /**
+   * Number of slots in the cache used by ofRGB(). Must be a power of two.
+   */
+  private static final int CACHE_SIZE = 1 << 12;
+
+  /**
+   * Recently used colors, each in the slot picked by its packed value. Slots
+   * are read and written without locking, which is safe as Colors are
+   * immutable; a lost write only costs a later allocation.
+   */
+  private static final Color[] cache = new Color[CACHE_SIZE];
+
   private final int r;
   private final int g;
   private final int b;
@@ -40,6 +59,129 @@ public final class Color {
     b = color[2];
   }
 
+  /**
+   * Returns the Color for a packed 0xRRGGBB int. Colors that are used often
+   * are shared instead of being created again.
+   * 
+   * @param rgb packed RGB value, the top 8 bits are ignored
+   * @return Color with the channels of rgb
+   */
+  public static Color ofRGB(int rgb) {
+    rgb &= 0xFFFFFF;
+    int slot = ((rgb * 0x9E3779B1) >>> 20) & (CACHE_SIZE - 1);
+    Color c = cache[slot];
+    if (c == null || c.toRGB() != rgb) {
+      c = new Color(red(rgb), green(rgb), blue(rgb));
+      cache[slot] = c;
+    }
+    return c;
+  }
+
+  /**
+   * Returns the Color for three channel values. Values within 0-255 give a
+   * shared Color as ofRGB() does, others a new Color.
+   * 
+   * @param red int describing red channel
+   * @param green int describing green channel
+   * @param blue int describing blue channel
+   * @return Color with the given channels
+   */
+  public static Color of(int red, int green, int blue) {
+    if (((red | green | blue) & ~0xFF) != 0) {
+      return new Color(red, green, blue);
+    }
+    return ofRGB(red << 16 | green << 8 | blue);
+  }
+
+  /**
+   * Packs three channels into a 0xRRGGBB int, clamping each to 0-255.
+   * 
+   * @param red int describing red channel
+   * @param green int describing green channel
+   * @param blue int describing blue channel
+   * @return packed RGB value
+   */
+  public static int pack(int red, int green, int blue) {
+    return clamp(red) << 16 | clamp(green) << 8 | clamp(blue);
+  }
+
+  /**
+   * Returns the red channel of a packed 0xRRGGBB int.
+   * 
+   * @param rgb packed RGB value
+   * @return the int value for red
+   */
+  public static int red(int rgb) {
+    return (rgb >> 16) & 0xFF;
+  }
+
+  /**
+   * Returns the green channel of a packed 0xRRGGBB int.
+   * 
+   * @param rgb packed RGB value
+   * @return the int value for green
+   */
+  public static int green(int rgb) {
+    return (rgb >> 8) & 0xFF;
+  }
+
+  /**
+   * Returns the blue channel of a packed 0xRRGGBB int.
+   * 
+   * @param rgb packed RGB value
+   * @return the int value for blue
+   */
+  public static int blue(int rgb) {
+    return rgb & 0xFF;
+  }
+
+  /**
+   * Replaces the red channel of a packed 0xRRGGBB int, clamping it to 0-255.
+   * 
+   * @param rgb packed RGB value
+   * @param red int to define red channel
+   * @return new packed RGB value
+   */
+  public static int withRed(int rgb, int red) {
+    return (rgb & 0x00FFFF) | clamp(red) << 16;
+  }
+
+  /**
+   * Replaces the green channel of a packed 0xRRGGBB int, clamping it to 0-255.
+   * 
+   * @param rgb packed RGB value
+   * @param green int to define green channel
+   * @return new packed RGB value
+   */
+  public static int withGreen(int rgb, int green) {
+    return (rgb & 0xFF00FF) | clamp(green) << 8;
+  }
+
+  /**
+   * Replaces the blue channel of a packed 0xRRGGBB int, clamping it to 0-255.
+   * 
+   * @param rgb packed RGB value
+   * @param blue int to define blue channel
+   * @return new packed RGB value
+   */
+  public static int withBlue(int rgb, int blue) {
+    return (rgb & 0xFFFF00) | clamp(blue);
+  }
+
+  private static int clamp(int c) {
+    return c < 0 ? 0 : (c > 255 ? 255 : c);
+  }
+
+  /**
+   * Returns the color as a packed 0xRRGGBB int, as stored in an image.
+   * Channels outside 0-255 are clamped, as they are by pack().
+   * 
+   * @return packed RGB value
+   */
+  public int toRGB() {
+    return pack(r, g, b);
+  }
+
   /**
    * Sets a color based on a UnaryOperator.
    * 
@@ -47,8 +189,8 @@ public final class Color {
    * @return new color after the change
    */
   public Color setColor(UnaryOperator<Color> operator) {
-    int[] data = operator.apply(this).getArray();
-    return new Color(data);
+    Color c = operator.apply(this);
+    return of(c.r, c.g, c.b);
   }
 
   /**
@@ -58,7 +200,7 @@ public final class Color {
    * @return new color after the change
    */
   public Color setAllColor(UnaryOperator<Integer> operator) {
-    return new Color(operator.apply(r), operator.apply(g), operator.apply(b));
+    return of(operator.apply(r), operator.apply(g), operator.apply(b));
   }
 
   /**
@@ -68,7 +210,7 @@ public final class Color {
    * @return new color after the change
    */
   public Color setRed(int color) {
-    return new Color(color, g, b);
+    return of(color, g, b);
   }
 
   /**
@@ -78,7 +220,7 @@ public final class Color {
    * @return new color after the change
    */
   public Color setRed(UnaryOperator<Integer> operator) {
-    return new Color(operator.apply(r),g,b);
+    return of(operator.apply(r), g, b);
   }
 
   /**
@@ -88,7 +230,7 @@ public final class Color {
    * @return new color after the change
    */
   public Color setGreen(int color) {
-    return new Color(r, color, b);
+    return of(r, color, b);
   }
 
   /**
@@ -98,7 +240,7 @@ public final class Color {
    * @return new color after the change
    */
   public Color setGreen(UnaryOperator<Integer> operator) {
-    return new Color(r,operator.apply(g),b);
+    return of(r, operator.apply(g), b);
   }
 
   /**
@@ -108,7 +250,7 @@ public final class Color {
    * @return new color after the change
    */
   public Color setBlue(int color) {
-    return new Color(r, g, color);
+    return of(r, g, color);
   }
 
   /**
@@ -118,7 +260,7 @@ public final class Color {
    * @return new color after the change
    */
   public Color setBlue(UnaryOperator<Integer> operator) {
-    return new Color(r,g,operator.apply(b));
+    return of(r, g, operator.apply(b));
   }
 
   /**
@@ -171,13 +313,37 @@ public final class Color {
     return false;
   }
 
+  /**
+   * Tests if two colors are equivalent.
+   * 
+   * @param o Object being tested.
+   * @return boolean telling of equivalent
+   */
+  public boolean equals(Object o) {
+    return o instanceof Color && equals((Color) o);
+  }
+
+  /**
+   * Returns a hash matching equals(), which is the packed RGB value for
+   * colors with every channel within 0-255.
+   * 
+   * @return int hash of the color
+   */
+  public int hashCode() {
+    return (r * 256 + g) * 256 + b;
+  }
+
+  public String toString() {
+    return "Color[" + r + ", " + g + ", " + b + "]";
+  }
+
   /**
    * Exception for colors.
    * 
    * @author cy
    */
   @SuppressWarnings("serial")
-  public class ColorException extends RuntimeException {
+  public static class ColorException extends RuntimeException {
     public ColorException(String e) {
       super(e);
     }
@@ -0,0 +1,228 @@
+package jImage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares and hashes the packed pixels of whole images. Work is split into
+ * row bands or tiles and run in parallel.
+ *
+ * @author Cy
+ *
+ */
+final class Compare {
+  private static final long PRIME = 0x9E3779B97F4A7C15L;
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Compare() {}
+
+  /**
+   * Tests whether two images of the same size hold the same pixels. Neither
+   * image is locked.
+   *
+   * @param a first image
+   * @param b second image
+   * @return boolean representing equality
+   */
+  static boolean equal(BaseImage a, BaseImage b) {
+    int[] da = a.getPixelData();
+    int[] db = b.getPixelData();
+    if (da != null && db != null) {
+      if (Arrays.equals(da, db)) {
+        return true;
+      }
+      for (int i = 0; i < da.length; i++) {
+        if (((da[i] ^ db[i]) & 0xFFFFFF) != 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+    int w = a.width();
+    int h = a.height();
+    int rows = Math.max(1, BaseImage.BAND_PIXELS / Math.max(w, 1));
+    int[] ra = new int[Math.min(rows, h) * w];
+    int[] rb = new int[ra.length];
+    for (int y = 0; y < h; y += rows) {
+      int n = Math.min(rows, h - y);
+      a.readRGB(0, y, w, n, ra, 0, w);
+      b.readRGB(0, y, w, n, rb, 0, w);
+      if (!Arrays.equals(ra, rb)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Hashes the size and pixels of an image into 64 bits. Every row is hashed
+   * in parallel and the row hashes are combined in order, so the result does
+   * not depend on how the work was split. The image is not locked.
+   *
+   * @param image image to hash
+   * @param executor TileExecutor to split the rows across
+   * @return 64 bit content hash
+   */
+  static long hash(BaseImage image, TileExecutor executor) {
+    int w = image.width();
+    int h = image.height();
+    int[] data = image.getPixelData();
+    long[] rowHashes = new long[h];
+    executor.forEachBand(w, h, (start, end) -> {
+      int[] row = data == null ? new int[w] : null;
+      for (int y = start; y < end; y++) {
+        if (data == null) {
+          image.readRGB(0, y, w, 1, row, 0, w);
+          rowHashes[y] = hashRow(row, 0, w);
+        } else {
+          rowHashes[y] = hashRow(data, y * w, w);
+        }
+      }
+    });
+    long hash = mix(((long) w << 32) | h);
+    for (long r : rowHashes) {
+      hash = mix(hash * PRIME + r);
+    }
+    return hash;
+  }
+
+  /**
+   * Hashes n pixels starting at offset, with four independent lanes so the
+   * multiplies can overlap.
+   */
+  private static long hashRow(int[] pixels, int offset, int n) {
+    long h0 = 1;
+    long h1 = 2;
+    long h2 = 3;
+    long h3 = 4;
+    int end = offset + n;
+    int i = offset;
+    for (; i + 3 < end; i += 4) {
+      h0 = (h0 ^ (pixels[i] & 0xFFFFFF)) * PRIME;
+      h1 = (h1 ^ (pixels[i + 1] & 0xFFFFFF)) * PRIME;
+      h2 = (h2 ^ (pixels[i + 2] & 0xFFFFFF)) * PRIME;
+      h3 = (h3 ^ (pixels[i + 3] & 0xFFFFFF)) * PRIME;
+    }
+    for (; i < end; i++) {
+      h0 = (h0 ^ (pixels[i] & 0xFFFFFF)) * PRIME;
+    }
+    return mix(h0) ^ Long.rotateLeft(mix(h1), 16)
+        ^ Long.rotateLeft(mix(h2), 32) ^ Long.rotateLeft(mix(h3), 48);
+  }
+
+  /**
+   * Spreads every bit of h across the result.
+   */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    return h ^ (h >>> 33);
+  }
+
+  /**
+   * Finds the pixels that differ between two images of the same size. Each
+   * tile is compared in parallel and records its own counts, which are added
+   * up once every tile is done. Neither image is locked.
+   *
+   * @param a first image
+   * @param b second image
+   * @param tileSize Width and height of each tile.
+   * @param executor TileExecutor to split the tiles across
+   * @return ImageDiff describing the change
+   */
+  static ImageDiff diff(BaseImage a, BaseImage b, int tileSize,
+      TileExecutor executor) {
+    int w = a.width();
+    int h = a.height();
+    int across = (w + tileSize - 1) / tileSize;
+    int down = (h + tileSize - 1) / tileSize;
+    int tiles = across * down;
+    long[] changed = new long[tiles];
+    long[] squared = new long[tiles];
+    int[] delta = new int[tiles];
+    int[] bounds = new int[tiles * 4];
+    int[] da = a.getPixelData();
+    int[] db = b.getPixelData();
+    executor.forEachTile(w, h, tileSize, tileSize, (x, y, tw, th) -> {
+      int t = (y / tileSize) * across + x / tileSize;
+      int[] pa = da;
+      int[] pb = db;
+      int offset = y * w + x;
+      int scan = w;
+      if (da == null || db == null) {
+        pa = new int[tw * th];
+        pb = new int[tw * th];
+        a.readRGB(x, y, tw, th, pa, 0, tw);
+        b.readRGB(x, y, tw, th, pb, 0, tw);
+        offset = 0;
+        scan = tw;
+      }
+      long count = 0;
+      long sum = 0;
+      int max = 0;
+      int minX = Integer.MAX_VALUE;
+      int minY = Integer.MAX_VALUE;
+      int maxX = -1;
+      int maxY = -1;
+      for (int j = 0; j < th; j++) {
+        int row = offset + j * scan;
+        for (int i = 0; i < tw; i++) {
+          int p = pa[row + i];
+          int q = pb[row + i];
+          if (((p ^ q) & 0xFFFFFF) == 0) {
+            continue;
+          }
+          int dr = Math.abs(((p >> 16) & 0xFF) - ((q >> 16) & 0xFF));
+          int dg = Math.abs(((p >> 8) & 0xFF) - ((q >> 8) & 0xFF));
+          int bl = Math.abs((p & 0xFF) - (q & 0xFF));
+          sum += dr * dr + dg * dg + bl * bl;
+          max = Math.max(max, Math.max(dr, Math.max(dg, bl)));
+          count++;
+          minX = Math.min(minX, i);
+          maxX = Math.max(maxX, i);
+          minY = Math.min(minY, j);
+          maxY = j;
+        }
+      }
+      changed[t] = count;
+      squared[t] = sum;
+      delta[t] = max;
+      bounds[t * 4] = x + minX;
+      bounds[t * 4 + 1] = y + minY;
+      bounds[t * 4 + 2] = x + maxX;
+      bounds[t * 4 + 3] = y + maxY;
+    });
+    long count = 0;
+    long sum = 0;
+    int max = 0;
+    int minX = Integer.MAX_VALUE;
+    int minY = Integer.MAX_VALUE;
+    int maxX = -1;
+    int maxY = -1;
+    List<Region> list = new ArrayList<Region>();
+    for (int t = 0; t < tiles; t++) {
+      if (changed[t] == 0) {
+        continue;
+      }
+      count += changed[t];
+      sum += squared[t];
+      max = Math.max(max, delta[t]);
+      minX = Math.min(minX, bounds[t * 4]);
+      minY = Math.min(minY, bounds[t * 4 + 1]);
+      maxX = Math.max(maxX, bounds[t * 4 + 2]);
+      maxY = Math.max(maxY, bounds[t * 4 + 3]);
+      int x = (t % across) * tileSize;
+      int y = (t / across) * tileSize;
+      list.add(new Region(x, y, Math.min(tileSize, w - x),
+          Math.min(tileSize, h - y)));
+    }
+    Region box = count == 0 ? null : new Region(minX, minY, maxX - minX + 1,
+        maxY - minY + 1);
+    return new ImageDiff(w, h, count, max, sum, box, list);
+  }
+}
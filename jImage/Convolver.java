@@ -0,0 +1,356 @@
+package jImage;
+
+/**
+ * Convolves packed 0xRRGGBB pixel buffers with a Kernel. The image is cut
+ * into tiles that run in parallel. Each tile copies the pixels it needs,
+ * including a halo as wide as the kernel reaches past it, into channel
+ * planes, so the inner loops never check for edges. Separable kernels run
+ * as a pass along the rows of the halo and a pass down the columns.
+ *
+ * @author Cy
+ *
+ */
+final class Convolver {
+  /**
+   * Width and height of a tile.
+   */
+  private static final int TILE = 128;
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Convolver() {}
+
+  /**
+   * Convolves src with kernel into dst, adding the kernel's bias and
+   * clamping each channel to 0 to 255.
+   *
+   * @param src packed pixels, width * height long, not changed
+   * @param dst packed pixels written, width * height long
+   * @param width Width of the image.
+   * @param height Height of the image.
+   * @param kernel Kernel to convolve with
+   * @param edge how pixels outside the image are read
+   * @param executor TileExecutor to split the work across
+   */
+  static void convolve(int[] src, int[] dst, int width, int height,
+      Kernel kernel, EdgeMode edge, TileExecutor executor) {
+    Halo halo = new Halo(width, height, kernel, edge);
+    int bias = kernel.getBias();
+    executor.forEachTile(width, height, TILE, TILE, (x, y, tw, th) -> {
+      int[][] in = halo.gather(src, x, y, tw, th);
+      int[][] out = new int[3][tw * th];
+      filter(in, out, tw, th, kernel);
+      pack(out, bias, dst, y * width + x, width, tw, th);
+    });
+  }
+
+  /**
+   * Convolves between images without backing arrays, such as memory-mapped
+   * ones. Each tile reads the rows of its halo from source and writes its
+   * result to target, so neither image is held whole.
+   *
+   * @param source image to convolve, not changed
+   * @param target image of the same size the result is written to
+   * @param kernel Kernel to convolve with
+   * @param edge how pixels outside the image are read
+   * @param executor TileExecutor to split the work across
+   */
+  static void convolve(BaseImage source, BaseImage target, Kernel kernel,
+      EdgeMode edge, TileExecutor executor) {
+    int width = source.width();
+    int height = source.height();
+    Halo halo = new Halo(width, height, kernel, edge);
+    int bias = kernel.getBias();
+    executor.forEachTile(width, height, TILE, TILE, (x, y, tw, th) -> {
+      int[][] out = new int[3][tw * th];
+      filter(halo.gather(source, x, y, tw, th), out, tw, th, kernel);
+      int[] tile = new int[tw * th];
+      pack(out, bias, tile, 0, tw, tw, th);
+      target.writeRGB(x, y, tw, th, tile, 0, tw);
+    });
+  }
+
+  /**
+   * Adds bias to a tile of filtered channels, clamps them and packs them
+   * into dst starting at offset, with rows scan apart.
+   */
+  private static void pack(int[][] out, int bias, int[] dst, int offset,
+      int scan, int tw, int th) {
+    for (int r = 0; r < th; r++) {
+      int o = offset + r * scan;
+      for (int c = 0; c < tw; c++) {
+        int i = r * tw + c;
+        dst[o + c] = clamp(out[0][i] + bias) << 16
+            | clamp(out[1][i] + bias) << 8 | clamp(out[2][i] + bias);
+      }
+    }
+  }
+
+  /**
+   * Writes the gradient magnitude of src into dst: for each channel, the
+   * root of the sum of the squares of the results of kernel and its
+   * transpose.
+   *
+   * @param src packed pixels, width * height long, not changed
+   * @param dst packed pixels written, width * height long
+   * @param width Width of the image.
+   * @param height Height of the image.
+   * @param kernel Kernel for one direction, such as Kernel.sobel()
+   * @param edge how pixels outside the image are read
+   * @param executor TileExecutor to split the work across
+   */
+  static void gradient(int[] src, int[] dst, int width, int height,
+      Kernel kernel, EdgeMode edge, TileExecutor executor) {
+    Kernel other = kernel.transpose();
+    Halo halo = new Halo(width, height, kernel, edge);
+    Halo otherHalo = new Halo(width, height, other, edge);
+    executor.forEachTile(width, height, TILE, TILE, (x, y, tw, th) -> {
+      int[][] gx = new int[3][tw * th];
+      int[][] gy = new int[3][tw * th];
+      filter(halo.gather(src, x, y, tw, th), gx, tw, th, kernel);
+      filter(otherHalo.gather(src, x, y, tw, th), gy, tw, th, other);
+      packMagnitude(gx, gy, dst, y * width + x, width, tw, th);
+    });
+  }
+
+  /**
+   * Writes the gradient magnitude between images without backing arrays,
+   * tile by tile, like convolve(BaseImage, ...).
+   *
+   * @param source image to take the gradient of, not changed
+   * @param target image of the same size the result is written to
+   * @param kernel Kernel for one direction, such as Kernel.sobel()
+   * @param edge how pixels outside the image are read
+   * @param executor TileExecutor to split the work across
+   */
+  static void gradient(BaseImage source, BaseImage target, Kernel kernel,
+      EdgeMode edge, TileExecutor executor) {
+    int width = source.width();
+    int height = source.height();
+    Kernel other = kernel.transpose();
+    Halo halo = new Halo(width, height, kernel, edge);
+    Halo otherHalo = new Halo(width, height, other, edge);
+    executor.forEachTile(width, height, TILE, TILE, (x, y, tw, th) -> {
+      int[][] gx = new int[3][tw * th];
+      int[][] gy = new int[3][tw * th];
+      filter(halo.gather(source, x, y, tw, th), gx, tw, th, kernel);
+      filter(otherHalo.gather(source, x, y, tw, th), gy, tw, th, other);
+      int[] tile = new int[tw * th];
+      packMagnitude(gx, gy, tile, 0, tw, tw, th);
+      target.writeRGB(x, y, tw, th, tile, 0, tw);
+    });
+  }
+
+  /**
+   * Packs the magnitudes of two tiles of filtered channels into dst
+   * starting at offset, with rows scan apart.
+   */
+  private static void packMagnitude(int[][] gx, int[][] gy, int[] dst,
+      int offset, int scan, int tw, int th) {
+    for (int r = 0; r < th; r++) {
+      int o = offset + r * scan;
+      for (int c = 0; c < tw; c++) {
+        int i = r * tw + c;
+        dst[o + c] = magnitude(gx[0][i], gy[0][i]) << 16
+            | magnitude(gx[1][i], gy[1][i]) << 8
+            | magnitude(gx[2][i], gy[2][i]);
+      }
+    }
+  }
+
+  private static int magnitude(int a, int b) {
+    return clamp((int) Math.round(Math.sqrt((double) a * a + (double) b * b)));
+  }
+
+  private static int clamp(int v) {
+    return v < 0 ? 0 : v > 255 ? 255 : v;
+  }
+
+  /**
+   * Convolves the channel planes of a halo into tw by th outputs, rounded
+   * but not biased or clamped.
+   */
+  private static void filter(int[][] in, int[][] out, int tw, int th,
+      Kernel kernel) {
+    int kw = kernel.getWidth();
+    int kh = kernel.getHeight();
+    int hw = tw + kw - 1;
+    int hh = th + kh - 1;
+    int divisor = kernel.divisor();
+    int half = divisor >> 1;
+    for (int ch = 0; ch < 3; ch++) {
+      int[] p = in[ch];
+      int[] q = out[ch];
+      if (kernel.columnI() != null) {
+        int[] row = kernel.rowI();
+        int[] column = kernel.columnI();
+        int[] pass = new int[tw * hh];
+        for (int r = 0; r < hh; r++) {
+          for (int c = 0; c < tw; c++) {
+            int base = r * hw + c;
+            int sum = 0;
+            for (int i = 0; i < kw; i++) {
+              sum += row[i] * p[base + i];
+            }
+            pass[r * tw + c] = sum;
+          }
+        }
+        for (int r = 0; r < th; r++) {
+          for (int c = 0; c < tw; c++) {
+            int sum = 0;
+            for (int j = 0; j < kh; j++) {
+              sum += column[j] * pass[(r + j) * tw + c];
+            }
+            q[r * tw + c] = Math.floorDiv(sum + half, divisor);
+          }
+        }
+      } else if (kernel.columnF() != null) {
+        float[] row = kernel.rowF();
+        float[] column = kernel.columnF();
+        float[] pass = new float[tw * hh];
+        for (int r = 0; r < hh; r++) {
+          for (int c = 0; c < tw; c++) {
+            int base = r * hw + c;
+            float sum = 0;
+            for (int i = 0; i < kw; i++) {
+              sum += row[i] * p[base + i];
+            }
+            pass[r * tw + c] = sum;
+          }
+        }
+        for (int r = 0; r < th; r++) {
+          for (int c = 0; c < tw; c++) {
+            float sum = 0;
+            for (int j = 0; j < kh; j++) {
+              sum += column[j] * pass[(r + j) * tw + c];
+            }
+            q[r * tw + c] = Math.round(sum);
+          }
+        }
+      } else if (kernel.fixedWeights() != null) {
+        int[] w = kernel.fixedWeights();
+        for (int r = 0; r < th; r++) {
+          for (int c = 0; c < tw; c++) {
+            int sum = 0;
+            for (int j = 0, k = 0; j < kh; j++) {
+              int base = (r + j) * hw + c;
+              for (int i = 0; i < kw; i++) {
+                sum += w[k++] * p[base + i];
+              }
+            }
+            q[r * tw + c] = Math.floorDiv(sum + half, divisor);
+          }
+        }
+      } else {
+        float[] w = kernel.weights();
+        for (int r = 0; r < th; r++) {
+          for (int c = 0; c < tw; c++) {
+            float sum = 0;
+            for (int j = 0, k = 0; j < kh; j++) {
+              int base = (r + j) * hw + c;
+              for (int i = 0; i < kw; i++) {
+                sum += w[k++] * p[base + i];
+              }
+            }
+            q[r * tw + c] = Math.round(sum);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Knows which source pixel each halo position reads, for one kernel size
+   * and EdgeMode.
+   */
+  private static final class Halo {
+    private final int width;
+    private final int height;
+    private final int kw;
+    private final int kh;
+
+    /**
+     * Source column for halo column i of the tile at x is columns[x + i],
+     * and likewise for rows. width or height stands for the constant.
+     */
+    private final int[] columns;
+    private final int[] rows;
+
+    Halo(int width, int height, Kernel kernel, EdgeMode edge) {
+      this.width = width;
+      this.height = height;
+      kw = kernel.getWidth();
+      kh = kernel.getHeight();
+      columns = new int[width + kw - 1];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = edge.map(i - kw / 2, width);
+      }
+      rows = new int[height + kh - 1];
+      for (int i = 0; i < rows.length; i++) {
+        rows[i] = edge.map(i - kh / 2, height);
+      }
+    }
+
+    /**
+     * Copies the tile at (x, y) and its halo into three channel planes.
+     */
+    int[][] gather(int[] src, int x, int y, int tw, int th) {
+      int hw = tw + kw - 1;
+      int hh = th + kh - 1;
+      int[][] planes = new int[3][hw * hh];
+      for (int r = 0; r < hh; r++) {
+        int sy = rows[y + r];
+        if (sy == height) {
+          continue;
+        }
+        int o = sy * width;
+        int b = r * hw;
+        for (int c = 0; c < hw; c++) {
+          int sx = columns[x + c];
+          if (sx == width) {
+            continue;
+          }
+          int p = src[o + sx];
+          planes[0][b + c] = (p >> 16) & 0xFF;
+          planes[1][b + c] = (p >> 8) & 0xFF;
+          planes[2][b + c] = p & 0xFF;
+        }
+      }
+      return planes;
+    }
+
+    /**
+     * Copies the tile at (x, y) and its halo out of an image without a
+     * backing array. The columns of the halo inside the image are read a
+     * row at a time, and any others, past the edges, a pixel at a time.
+     */
+    int[][] gather(BaseImage src, int x, int y, int tw, int th) {
+      int hw = tw + kw - 1;
+      int hh = th + kh - 1;
+      int[][] planes = new int[3][hw * hh];
+      int lo = Math.max(x - kw / 2, 0);
+      int hi = Math.min(x - kw / 2 + hw, width);
+      int[] line = new int[hi - lo];
+      for (int r = 0; r < hh; r++) {
+        int sy = rows[y + r];
+        if (sy == height) {
+          continue;
+        }
+        src.readRGB(lo, sy, hi - lo, 1, line, 0, hi - lo);
+        int b = r * hw;
+        for (int c = 0; c < hw; c++) {
+          int sx = columns[x + c];
+          if (sx == width) {
+            continue;
+          }
+          int p = sx >= lo && sx < hi ? line[sx - lo] : src.readRGB(sx, sy);
+          planes[0][b + c] = (p >> 16) & 0xFF;
+          planes[1][b + c] = (p >> 8) & 0xFF;
+          planes[2][b + c] = p & 0xFF;
+        }
+      }
+      return planes;
+    }
+  }
+}
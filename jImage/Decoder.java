@@ -0,0 +1,111 @@
+package jImage;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads image files through an ImageReader, so that only part of the file or
+ * a subsampled copy of it has to be decoded.
+ *
+ * @author Cy
+ *
+ */
+final class Decoder {
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Decoder() {}
+
+  /**
+   * Decodes an image file.
+   *
+   * @param source Source location of the image file.
+   * @param region Area of the file to decode, or null for all of it.
+   * @param subsampleX Keep every subsampleX'th column.
+   * @param subsampleY Keep every subsampleY'th row.
+   * @return the decoded BufferedImage
+   */
+  static BufferedImage read(String source, Region region, int subsampleX,
+      int subsampleY) {
+    if (subsampleX < 1 || subsampleY < 1) {
+      throw new IllegalArgumentException("Subsampling must be at least 1.");
+    }
+    File file = new File(source);
+    if (!file.canRead()) {
+      throw new RuntimeException("Can Not Find Source File: " + source);
+    }
+    Metrics.Probe probe = Metrics.start("decode");
+    try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+      ImageReader reader = reader(in, source);
+      try {
+        reader.setInput(in, true, true);
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (region != null) {
+          param.setSourceRegion(new Rectangle(region.getX(), region.getY(),
+              region.getWidth(), region.getHeight()));
+        }
+        if (subsampleX > 1 || subsampleY > 1) {
+          param.setSourceSubsampling(subsampleX, subsampleY, 0, 0);
+        }
+        BufferedImage image = reader.read(0, param);
+        Metrics.end(probe, (long) image.getWidth() * image.getHeight());
+        return image;
+      } catch (IllegalArgumentException e) {
+        throw new RuntimeException("Region Is Not Within Source File: "
+            + source);
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Can Not Read Source File: " + source);
+    }
+  }
+
+  /**
+   * Reads the size and format of an image file from its header.
+   *
+   * @param source Source location of the image file.
+   * @return ImageInfo describing the file
+   */
+  static ImageInfo probe(String source) {
+    File file = new File(source);
+    if (!file.canRead()) {
+      throw new RuntimeException("Can Not Find Source File: " + source);
+    }
+    try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+      ImageReader reader = reader(in, source);
+      try {
+        reader.setInput(in, true, true);
+        return new ImageInfo(reader.getWidth(0), reader.getHeight(0),
+            reader.getFormatName());
+      } finally {
+        reader.dispose();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Can Not Read Source File: " + source);
+    }
+  }
+
+  /**
+   * Returns the first ImageReader that understands the stream.
+   */
+  private static ImageReader reader(ImageInputStream in, String source) {
+    if (in == null) {
+      throw new RuntimeException("Can Not Find Source File: " + source);
+    }
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+    if (!readers.hasNext()) {
+      throw new RuntimeException("Can Not Read Image Format: " + source);
+    }
+    return readers.next();
+  }
+}
@@ -0,0 +1,359 @@
+package jImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches images made by applying a Recipe to a source file, such as
+ * thumbnails. Results are keyed by the source's path, length and last
+ * modified time together with the Recipe's description, so editing the
+ * source or the recipe gives a new entry.
+ *
+ * There are two tiers. The memory tier keeps the most recently used images
+ * up to a total number of pixel bytes, counted as four per pixel. The disk
+ * tier keeps PNG files in a directory up to a total file size, dropping the
+ * least recently used first, and survives restarts. Threads asking for the
+ * same entry at once share one computation.
+ *
+ * <pre>
+ * DerivativeCache cache = new DerivativeCache(256L &lt;&lt; 20, "cache", 4L &lt;&lt; 30);
+ * Image thumb = cache.get("masters/a.jpg", Recipe.create()
+ *     .resize(320, 240, Image.SCALE_AREA_AVERAGE));
+ * </pre>
+ *
+ * @author Cy
+ *
+ */
+public final class DerivativeCache {
+  private final long memoryLimit;
+  private final File directory;
+  private final long diskLimit;
+
+  /**
+   * Memory tier in least recently used order, and its size in bytes.
+   */
+  private final LinkedHashMap<String, Image> memory =
+      new LinkedHashMap<String, Image>(16, 0.75f, true);
+  private long memoryBytes = 0;
+
+  /**
+   * Sizes of the files in the disk tier in least recently used order, and
+   * their total.
+   */
+  private final LinkedHashMap<String, Long> disk =
+      new LinkedHashMap<String, Long>(16, 0.75f, true);
+  private long diskBytes = 0;
+
+  /**
+   * Entries being made, so later requests wait for them instead.
+   */
+  private final ConcurrentHashMap<String, CompletableFuture<Image>> pending =
+      new ConcurrentHashMap<String, CompletableFuture<Image>>();
+
+  private final AtomicLong memoryHits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache with only a memory tier.
+   *
+   * @param memoryBytes largest total pixel bytes kept in memory
+   */
+  public DerivativeCache(long memoryBytes) {
+    this(memoryBytes, null, 0);
+  }
+
+  /**
+   * Creates a cache with a memory tier and a disk tier. Files already in the
+   * directory from an earlier run are used, oldest first to be dropped.
+   *
+   * @param memoryBytes largest total pixel bytes kept in memory
+   * @param directory directory for the disk tier, or null for none
+   * @param diskBytes largest total size of the files in directory
+   */
+  public DerivativeCache(long memoryBytes, String directory, long diskBytes) {
+    if (memoryBytes < 0 || diskBytes < 0) {
+      throw new IllegalArgumentException("Cache sizes can not be negative.");
+    }
+    this.memoryLimit = memoryBytes;
+    this.diskLimit = diskBytes;
+    this.directory = directory == null ? null : new File(directory);
+    if (this.directory != null) {
+      if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+        throw new RuntimeException("Can Not Make Directory: " + directory);
+      }
+      File[] files = this.directory.listFiles((d, n) -> n.endsWith(".png"));
+      if (files == null) {
+        files = new File[0];
+      }
+      Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+      synchronized (disk) {
+        for (File f : files) {
+          if (f.getName().contains(".tmp")) {
+            f.delete();
+            continue;
+          }
+          disk.put(f.getName(), f.length());
+          this.diskBytes += f.length();
+        }
+        trimDisk();
+      }
+    }
+  }
+
+  /**
+   * Returns the source file with recipe applied, from the cache if it is
+   * there, or made and added to the cache if not. The Image returned is the
+   * caller's own copy.
+   *
+   * @param source Source location of the image file.
+   * @param recipe edits to make to the source
+   * @return the edited Image
+   */
+  public Image get(String source, Recipe recipe) {
+    File file = new File(source);
+    if (!file.isFile()) {
+      throw new RuntimeException("Can Not Find Source File: " + source);
+    }
+    String key = file.getAbsolutePath() + "|" + file.length() + "|"
+        + file.lastModified() + "|" + recipe;
+    Image image = memory(key);
+    if (image != null) {
+      memoryHits.incrementAndGet();
+      return image.clone();
+    }
+    CompletableFuture<Image> mine = new CompletableFuture<Image>();
+    CompletableFuture<Image> theirs = pending.putIfAbsent(key, mine);
+    if (theirs != null) {
+      try {
+        image = theirs.join();
+        memoryHits.incrementAndGet();
+        return image.clone();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException
+            ? (RuntimeException) e.getCause() : e;
+      }
+    }
+    try {
+      image = memory(key);
+      if (image != null) {
+        memoryHits.incrementAndGet();
+      } else {
+        image = load(key, source, recipe);
+        store(key, image);
+      }
+      mine.complete(image);
+      return image.clone();
+    } catch (RuntimeException e) {
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      pending.remove(key, mine);
+    }
+  }
+
+  /**
+   * Reads an entry from the disk tier, or makes it from the source and adds
+   * it to the disk tier.
+   */
+  private Image load(String key, String source, Recipe recipe) {
+    String name = Recipe.sha256(key, 20) + ".png";
+    if (directory != null) {
+      boolean known;
+      synchronized (disk) {
+        known = disk.get(name) != null;
+      }
+      File f = new File(directory, name);
+      if (known) {
+        try {
+          Image image = new Image(f.getPath());
+          f.setLastModified(System.currentTimeMillis());
+          diskHits.incrementAndGet();
+          return image;
+        } catch (RuntimeException e) {
+          forget(name);
+        }
+      }
+    }
+    misses.incrementAndGet();
+    Image image = recipe.apply(new Image(source));
+    if (directory != null) {
+      write(name, image);
+    }
+    return image;
+  }
+
+  /**
+   * Saves an entry to a temporary file and moves it into place, so a file in
+   * the directory is always complete.
+   */
+  private void write(String name, Image image) {
+    File f = new File(directory, name);
+    File tmp = new File(directory, name.substring(0, name.length() - 4)
+        + "." + Thread.currentThread().getId() + ".tmp.png");
+    try {
+      image.save(tmp.getPath());
+      Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      tmp.delete();
+      return;
+    }
+    synchronized (disk) {
+      Long old = disk.put(name, f.length());
+      diskBytes += f.length() - (old == null ? 0 : old);
+      trimDisk();
+    }
+  }
+
+  private void forget(String name) {
+    synchronized (disk) {
+      Long old = disk.remove(name);
+      if (old != null) {
+        diskBytes -= old;
+      }
+    }
+    new File(directory, name).delete();
+  }
+
+  /**
+   * Deletes the least recently used files until the disk tier fits.
+   */
+  private void trimDisk() {
+    Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+    while (diskBytes > diskLimit && it.hasNext()) {
+      Map.Entry<String, Long> e = it.next();
+      diskBytes -= e.getValue();
+      it.remove();
+      new File(directory, e.getKey()).delete();
+    }
+  }
+
+  private Image memory(String key) {
+    synchronized (memory) {
+      return memory.get(key);
+    }
+  }
+
+  /**
+   * Adds a copy of an entry to the memory tier and drops the least recently
+   * used entries until it fits. Entries larger than the whole tier are not
+   * kept.
+   */
+  private void store(String key, Image image) {
+    long bytes = bytes(image);
+    if (bytes > memoryLimit) {
+      return;
+    }
+    Image copy = image.clone();
+    synchronized (memory) {
+      Image old = memory.put(key, copy);
+      memoryBytes += bytes - (old == null ? 0 : bytes(old));
+      Iterator<Image> it = memory.values().iterator();
+      while (memoryBytes > memoryLimit && it.hasNext()) {
+        memoryBytes -= bytes(it.next());
+        it.remove();
+      }
+    }
+  }
+
+  private static long bytes(Image image) {
+    return 4L * image.width() * image.height();
+  }
+
+  /**
+   * Empties the memory tier. The disk tier is kept.
+   */
+  public void clearMemory() {
+    synchronized (memory) {
+      memory.clear();
+      memoryBytes = 0;
+    }
+  }
+
+  /**
+   * Deletes every file of the disk tier.
+   */
+  public void clearDisk() {
+    if (directory == null) {
+      return;
+    }
+    List<String> names;
+    synchronized (disk) {
+      names = new ArrayList<String>(disk.keySet());
+    }
+    for (String name : names) {
+      forget(name);
+    }
+  }
+
+  /**
+   * Returns the pixel bytes held in memory.
+   *
+   * @return long bytes
+   */
+  public long getMemoryBytes() {
+    synchronized (memory) {
+      return memoryBytes;
+    }
+  }
+
+  /**
+   * Returns the size of the files in the disk tier.
+   *
+   * @return long bytes
+   */
+  public long getDiskBytes() {
+    synchronized (disk) {
+      return diskBytes;
+    }
+  }
+
+  /**
+   * Returns the number of requests answered from memory, including ones that
+   * waited for another thread making the same entry.
+   *
+   * @return long count of hits
+   */
+  public long getMemoryHits() {
+    return memoryHits.get();
+  }
+
+  /**
+   * Returns the number of requests answered from the disk tier.
+   *
+   * @return long count of hits
+   */
+  public long getDiskHits() {
+    return diskHits.get();
+  }
+
+  /**
+   * Returns the number of requests that had to decode and edit the source.
+   *
+   * @return long count of misses
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public String toString() {
+    return "DerivativeCache[" + getMemoryBytes() + " bytes in memory, "
+        + getDiskBytes() + " bytes on disk, " + getMemoryHits() + "/"
+        + getDiskHits() + "/" + getMisses() + " memory/disk/miss]";
+  }
+}
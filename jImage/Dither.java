@@ -0,0 +1,26 @@
+package jImage;
+
+/**
+ * How colors that are not in a Palette are spread over the colors that are.
+ *
+ * @author Cy
+ *
+ */
+public enum Dither {
+  /**
+   * Each pixel takes the nearest palette color.
+   */
+  NONE,
+  /**
+   * Adds a fixed 8 by 8 threshold pattern before taking the nearest color.
+   * Every pixel is independent, so it runs in parallel and gives the same
+   * pattern from frame to frame.
+   */
+  ORDERED,
+  /**
+   * Carries the error of each pixel on to its neighbours. Gives the smoothest
+   * gradients, but each pixel depends on the ones before it so it runs on one
+   * thread.
+   */
+  FLOYD_STEINBERG
+}
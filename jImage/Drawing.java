@@ -47,7 +47,8 @@ public class Drawing extends Image {
    * module.
    */
   public void updateDrawing() {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       synchronized (strokeLock) {
         graph.dispose();
         BasicStroke s = (BasicStroke) graph.getStroke();
@@ -61,6 +62,8 @@ public class Drawing extends Image {
         graph.setRenderingHints(hints);
         graph.setFont(f);
       }
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -71,7 +74,7 @@ public class Drawing extends Image {
    */
   public void setStrokeColor(Color color) {
     synchronized (strokeLock) {
-      graph.setColor(new java.awt.Color(color.getRed(), color.getGreen(), color.getBlue()));
+      graph.setColor(new java.awt.Color(color.toRGB()));
     }
   }
 
@@ -163,10 +166,13 @@ public class Drawing extends Image {
    * 
    * @param scale Scale of the new Image.
    */
-  public synchronized void scale(double scale) {
-    synchronized (im) {
+  public void scale(double scale) {
+    lock.writeAll();
+    try {
       super.scale(scale);
       updateDrawing();
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -176,10 +182,13 @@ public class Drawing extends Image {
    * @param scale Scale of the new Image.
    * @param hint Hint as to what type of scaling to use.
    */
-  public synchronized void scale(double scale, int hint) {
-    synchronized (im) {
+  public void scale(double scale, int hint) {
+    lock.writeAll();
+    try {
       super.scale(scale, hint);
       updateDrawing();
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -190,10 +199,13 @@ public class Drawing extends Image {
    * @param width Width of the new Image.
    * @param height Height of the new Image.
    */
-  public synchronized void resize(int width, int height) {
-    synchronized (im) {
+  public void resize(int width, int height) {
+    lock.writeAll();
+    try {
       super.resize(width, height);
       updateDrawing();
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -205,10 +217,13 @@ public class Drawing extends Image {
    * @param height Height of the new Image.
    * @param hint Hint as to what type of scaling to use.
    */
-  public synchronized void resize(int width, int height, int hint) {
-    synchronized (im) {
+  public void resize(int width, int height, int hint) {
+    lock.writeAll();
+    try {
       super.resize(width, height, hint);
       updateDrawing();
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -220,8 +235,11 @@ public class Drawing extends Image {
    * @param y y position of string
    */
   public void drawString(String str, int x, int y) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.drawString(str, x, y);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -234,8 +252,11 @@ public class Drawing extends Image {
    * @param y2 y coordinate of the second point
    */
   public void drawLine(int x1, int y1, int x2, int y2) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.drawLine(x1, y1, x2, y2);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -248,8 +269,11 @@ public class Drawing extends Image {
    * @param height height of ellipse
    */
   public void drawEllipse(int x, int y, int width, int height) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.drawOval(x, y, width, height);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -262,8 +286,11 @@ public class Drawing extends Image {
    * @param height height of ellipse
    */
   public void fillEllipse(int x, int y, int width, int height) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.fillOval(x, y, width, height);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -276,8 +303,11 @@ public class Drawing extends Image {
    * @param height height of rectangle
    */
   public void drawRect(int x, int y, int width, int height) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.drawRect(x, y, width, height);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -290,8 +320,11 @@ public class Drawing extends Image {
    * @param height height of rectangle
    */
   public void fillRect(int x, int y, int width, int height) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.fillRect(x, y, width, height);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -303,8 +336,11 @@ public class Drawing extends Image {
    * @param yPoints array of y coordinates
    */
   public void drawPolygon(int[] xPoints, int[] yPoints) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.drawPolygon(xPoints, yPoints, Math.min(xPoints.length, yPoints.length));
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -316,8 +352,11 @@ public class Drawing extends Image {
    * @param yPoints array of y coordinates
    */
   public void fillPolygon(int[] xPoints, int[] yPoints) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.fillPolygon(xPoints, yPoints, Math.min(xPoints.length, yPoints.length));
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -332,8 +371,11 @@ public class Drawing extends Image {
    * @param endAngle angle in degrees to stop drawing at
    */
   public void drawArc(int x, int y, int width, int height, int startAngle, int endAngle) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.drawArc(x, y, width, height, startAngle, endAngle - startAngle);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -349,8 +391,11 @@ public class Drawing extends Image {
    * @param endAngle angle in degrees to stop drawing at
    */
   public void fillArc(int x, int y, int width, int height, int startAngle, int endAngle) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.fillArc(x, y, width, height, startAngle, endAngle - startAngle);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -365,8 +410,11 @@ public class Drawing extends Image {
    * @param arcHeight angle in degrees to stop cutting at
    */
   public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.drawRoundRect(x, y, width, height, arcWidth, arcHeight);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -381,8 +429,11 @@ public class Drawing extends Image {
    * @param arcHeight angle in degrees to stop cutting at
    */
   public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
-    synchronized (im) {
+    lock.writeAll();
+    try {
       graph.fillRoundRect(x, y, width, height, arcWidth, arcHeight);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 }
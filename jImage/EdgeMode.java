@@ -0,0 +1,89 @@
+package jImage;
+
+/**
+ * How neighbourhood operations read pixels that fall outside the image.
+ *
+ * @author Cy
+ *
+ */
+public enum EdgeMode {
+  /**
+   * Repeats the closest edge pixel.
+   */
+  CLAMP,
+  /**
+   * Reflects the image at its edges, repeating the edge pixel.
+   */
+  MIRROR,
+  /**
+   * Continues from the opposite side of the image.
+   */
+  WRAP,
+  /**
+   * Reads black past the edges.
+   */
+  CONSTANT,
+  /**
+   * Leaves out pixels past the edges, so blurs average only the pixels
+   * inside the image, as Image.blur(int) always has. Only blurs take it.
+   */
+  SKIP;
+
+  /**
+   * Maps position onto a valid index of a line n pixels long. For CONSTANT
+   * and SKIP, positions outside the line map to n, which callers read as
+   * zero.
+   *
+   * @param position index that may be outside the line
+   * @param n length of the line
+   * @return index within 0 and n - 1, or n for the constant
+   */
+  int map(int position, int n) {
+    switch (this) {
+    case CONSTANT:
+    case SKIP:
+      return position < 0 || position >= n ? n : position;
+    case MIRROR:
+      int period = 2 * n;
+      int p = ((position % period) + period) % period;
+      return p < n ? p : period - 1 - p;
+    case WRAP:
+      return ((position % n) + n) % n;
+    default:
+      return Math.min(Math.max(position, 0), n - 1);
+    }
+  }
+
+  /**
+   * Builds a table of n + 2 * radius indexes, where entry i is the index read
+   * for position i - radius.
+   *
+   * @param n length of the line
+   * @param radius number of positions needed past each end
+   * @return table of indexes within 0 and n - 1, or n for the constant
+   */
+  int[] table(int n, int radius) {
+    int[] t = new int[n + 2 * radius];
+    for (int i = 0; i < t.length; i++) {
+      t[i] = map(i - radius, n);
+    }
+    return t;
+  }
+
+  /**
+   * Returns, for each position of a line n pixels long, how many of the
+   * 2 * radius + 1 positions around it are inside the line.
+   *
+   * @param n length of the line
+   * @param radius distance from the center to each end of the window
+   * @return int[] of n counts
+   */
+  static int[] inside(int n, int radius) {
+    int[] counts = new int[n];
+    for (int i = 0; i < n; i++) {
+      counts[i] = (int) (Math.min((long) i + radius, n - 1)
+          - Math.max((long) i - radius, 0) + 1);
+    }
+    return counts;
+  }
+}
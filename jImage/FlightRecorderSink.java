@@ -0,0 +1,112 @@
+package jImage;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Commits a "jImage.Operation" Flight Recorder event for every record. The
+ * event type is made at runtime with jdk.jfr.EventFactory, found by
+ * reflection, so jImage still builds and runs on JVMs without Flight
+ * Recorder. The event holds the operation, pixels, elapsed time and bytes
+ * allocated; its own start time is when the operation ended.
+ *
+ * @author Cy
+ *
+ */
+final class FlightRecorderSink implements MetricsSink {
+  private final Object factory;
+  private final MethodHandle newEvent;
+  private final MethodHandle set;
+  private final MethodHandle commit;
+
+  FlightRecorderSink() {
+    try {
+      Class<?> element = Class.forName("jdk.jfr.AnnotationElement");
+      Class<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor");
+      Class<?> factoryType = Class.forName("jdk.jfr.EventFactory");
+      Class<?> event = Class.forName("jdk.jfr.Event");
+      List<Object> annotations = new ArrayList<Object>();
+      annotations.add(annotation(element, "Name", "jImage.Operation"));
+      annotations.add(annotation(element, "Label", "Image Operation"));
+      annotations.add(annotation(element, "Category",
+          new String[] { "jImage" }));
+      annotations.add(annotation(element, "Description",
+          "An operation on a jImage Image."));
+      List<Object> fields = new ArrayList<Object>();
+      fields.add(field(descriptor, element, String.class, "operation",
+          "Operation", null, null));
+      fields.add(field(descriptor, element, long.class, "pixels", "Pixels",
+          null, null));
+      fields.add(field(descriptor, element, long.class, "elapsed", "Elapsed",
+          "Timespan", "NANOSECONDS"));
+      fields.add(field(descriptor, element, long.class, "allocated",
+          "Allocated", "DataAmount", "BYTES"));
+      factory = factoryType.getMethod("create", List.class, List.class)
+          .invoke(null, annotations, fields);
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      newEvent = lookup.findVirtual(factoryType, "newEvent",
+          MethodType.methodType(event)).asType(MethodType.methodType(
+              Object.class, Object.class));
+      set = lookup.findVirtual(event, "set", MethodType.methodType(
+          void.class, int.class, Object.class)).asType(MethodType.methodType(
+              void.class, Object.class, int.class, Object.class));
+      commit = lookup.findVirtual(event, "commit", MethodType.methodType(
+          void.class)).asType(MethodType.methodType(void.class,
+              Object.class));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      throw new UnsupportedOperationException(
+          "Flight Recorder is not available.", e);
+    }
+  }
+
+  /**
+   * Makes an AnnotationElement for one of the jdk.jfr annotations.
+   */
+  @SuppressWarnings("unchecked")
+  private static Object annotation(Class<?> element, String name,
+      Object value) throws ReflectiveOperationException {
+    Class<? extends Annotation> type = (Class<? extends Annotation>) Class
+        .forName("jdk.jfr." + name);
+    return element.getConstructor(Class.class, Object.class).newInstance(
+        type, value);
+  }
+
+  /**
+   * Makes a ValueDescriptor with a label and, if unit is not null, a unit
+   * annotation.
+   */
+  private static Object field(Class<?> descriptor, Class<?> element,
+      Class<?> type, String name, String label, String unit, String value)
+      throws ReflectiveOperationException {
+    List<Object> annotations = new ArrayList<Object>(Arrays.asList(
+        annotation(element, "Label", label)));
+    if (unit != null) {
+      annotations.add(annotation(element, unit, value));
+    }
+    return descriptor.getConstructor(Class.class, String.class, List.class)
+        .newInstance(type, name, Collections.unmodifiableList(annotations));
+  }
+
+  @Override
+  public void record(String operation, long pixels, long nanos,
+      long allocatedBytes) {
+    try {
+      Object e = newEvent.invokeExact(factory);
+      set.invokeExact(e, 0, (Object) operation);
+      set.invokeExact(e, 1, (Object) pixels);
+      set.invokeExact(e, 2, (Object) nanos);
+      set.invokeExact(e, 3, (Object) allocatedBytes);
+      commit.invokeExact(e);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
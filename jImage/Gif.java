@@ -1,24 +1,24 @@
 package jImage;
 
-import java.awt.image.RenderedImage;
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-
-import javax.imageio.IIOException;
-import javax.imageio.IIOImage;
-import javax.imageio.ImageIO;
-import javax.imageio.ImageTypeSpecifier;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.metadata.IIOMetadata;
-import javax.imageio.metadata.IIOMetadataNode;
-import javax.imageio.stream.FileImageOutputStream;
-import javax.imageio.stream.ImageOutputStream;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Static class for creating gifs.
+ * Static class for creating and reading gifs.
  * 
  * @author Cy
  *
@@ -38,18 +38,16 @@ public final class Gif {
    * @param fileName The name of the output file.
    */
   public static void makeGif(BaseImage[] images, int frameTime, String fileName) {
-    try {
-      ImageOutputStream output = new FileImageOutputStream(new File(fileName));
-      GifWriter g = new GifWriter(output, images[0].getBI().getType(),
-          frameTime, true);
+    Metrics.Probe probe = Metrics.start("makeGif");
+    long pixels = 0;
+    try (GifWriter g = new GifWriter(fileName)) {
+      g.setDelay(frameTime);
       for (int i = 0; i < images.length; i++) {
-        g.writeToSequence(images[i].getBI());
+        g.writeFrame(images[i]);
+        pixels += (long) images[i].width() * images[i].height();
       }
-      g.close();
-      output.close();
-    } catch (IOException e) {
-      throw new RuntimeException("Can Not Make Gif.");
     }
+    Metrics.end(probe, pixels);
   }
 
   /**
@@ -65,130 +63,879 @@ public final class Gif {
   }
 
   /**
-   * Inner class that handles all of the gif stuff.
+   * Opens a gif for reading its frames one at a time.
    * 
-   * @author Created by Elliot Kroo on 2009-04-25.
+   * <pre>
+   * try (Gif.GifReader gif = Gif.read("in.gif")) {
+   *   for (Gif.Frame frame : gif) {
+   *     frame.getImage().save("frame" + frame.getIndex() + ".png");
+   *   }
+   * }
+   * </pre>
+   * 
+   * @param fileName The name of the gif file.
+   * @return GifReader over the frames of the file
+   */
+  public static GifReader read(String fileName) {
+    return new GifReader(fileName);
+  }
+
+  /**
+   * One frame of a gif, drawn over the frames before it.
+   */
+  public static final class Frame {
+    private final Image image;
+    private final int index;
+    private final int delay;
+    private final Disposal disposal;
+
+    Frame(Image image, int index, int delay, Disposal disposal) {
+      this.image = image;
+      this.index = index;
+      this.delay = delay;
+      this.disposal = disposal;
+    }
+
+    /**
+     * Returns the whole gif as it looks while this frame is shown. The Image
+     * is new for each call to the reader and belongs to the caller.
+     * 
+     * @return Image the size of the gif
+     */
+    public Image getImage() {
+      return image;
+    }
+
+    /**
+     * Returns the position of the frame in the gif, starting at 0.
+     * 
+     * @return int index of the frame
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * Returns how long the frame is shown for.
+     * 
+     * @return int delay in milliseconds
+     */
+    public int getDelay() {
+      return delay;
+    }
+
+    /**
+     * Returns what happens to the frame once it has been shown.
+     * 
+     * @return Disposal of the frame
+     */
+    public Disposal getDisposal() {
+      return disposal;
+    }
+  }
+
+  /**
+   * Reads the frames of a gif lazily. Only the canvas the frames are drawn
+   * on is kept, so memory use does not grow with the number of frames. Frames
+   * are drawn over each other following their disposal, with pixels cleared
+   * to the background taking the background color of the global color table.
+   * 
+   * Where each frame starts is remembered the first time it is passed, so
+   * getFrame() can go back to any frame. It redraws from the last frame
+   * before it that covers the whole gif without transparency, or from the
+   * start if there is none.
+   * 
+   * A GifReader is used by one thread at a time, and its iterators share its
+   * position.
+   * 
+   * @author Cy
    *
    */
-  private static class GifWriter {
-    protected ImageWriter gifWriter;
-    protected ImageWriteParam imageWriteParam;
-    protected IIOMetadata imageMetaData;
+  public static final class GifReader implements Iterable<Frame>,
+      AutoCloseable {
+    private final String fileName;
+    private final GifDecoder decoder;
+    private final List<GifDecoder.Entry> frames =
+        new ArrayList<GifDecoder.Entry>();
 
     /**
-     * Creates a new GifSequenceWriter
+     * Indices of frames that cover the whole gif with no transparency, in
+     * order. Frames restored to the previous frame are left out, since what
+     * follows them depends on the frames before.
+     */
+    private final List<Integer> keyFrames = new ArrayList<Integer>();
+    private boolean complete = false;
+
+    private final int[] canvas;
+
+    /**
+     * Pixels under the last frame drawn, kept when its disposal restores
+     * them.
+     */
+    private int[] saved = null;
+
+    /**
+     * Index of the last frame drawn on canvas, or -1.
+     */
+    private int drawn = -1;
+
+    GifReader(String fileName) {
+      this.fileName = fileName;
+      try {
+        decoder = new GifDecoder(fileName);
+      } catch (IOException e) {
+        throw new RuntimeException("Can Not Read Gif: " + fileName);
+      }
+      canvas = new int[decoder.width * decoder.height];
+      Arrays.fill(canvas, decoder.background);
+      find(0);
+    }
+
+    /**
+     * Returns the width of the gif.
      * 
-     * @param outputStream the ImageOutputStream to be written to
-     * @param imageType one of the imageTypes specified in BufferedImage
-     * @param timeBetweenFramesMS the time between frames in miliseconds
-     * @param loopContinuously wether the gif should loop repeatedly
-     * @throws IIOException if no gif ImageWriters are found
-     *
-     * @author Elliot Kroo (elliot[at]kroo[dot]net)
+     * @return int width in pixels
      */
-    public GifWriter(ImageOutputStream outputStream, int imageType,
-        int timeBetweenFramesMS, boolean loopContinuously) throws IIOException,
-        IOException {
-      // my method to create a writer
-      gifWriter = getWriter();
-      imageWriteParam = gifWriter.getDefaultWriteParam();
-      ImageTypeSpecifier imageTypeSpecifier = ImageTypeSpecifier
-          .createFromBufferedImageType(imageType);
+    public int getWidth() {
+      return decoder.width;
+    }
 
-      imageMetaData = gifWriter.getDefaultImageMetadata(imageTypeSpecifier,
-          imageWriteParam);
+    /**
+     * Returns the height of the gif.
+     * 
+     * @return int height in pixels
+     */
+    public int getHeight() {
+      return decoder.height;
+    }
+
+    /**
+     * Returns how many times the animation repeats, 0 for forever, or -1 if
+     * the gif does not say.
+     * 
+     * @return int loop count
+     */
+    public int getLoopCount() {
+      return decoder.loops;
+    }
+
+    /**
+     * Returns the number of frames. The first call reads the rest of the
+     * file, skipping over the pixel data.
+     * 
+     * @return int number of frames
+     */
+    public int getFrameCount() {
+      find(Integer.MAX_VALUE);
+      return frames.size();
+    }
 
-      String metaFormatName = imageMetaData.getNativeMetadataFormatName();
+    /**
+     * Finds frames up to index, and returns whether it exists.
+     */
+    private boolean find(int index) {
+      try {
+        while (!complete && frames.size() <= index) {
+          GifDecoder.Entry e = decoder.nextFrame();
+          if (e == null) {
+            complete = true;
+          } else {
+            if (e.x == 0 && e.y == 0 && e.w >= decoder.width
+                && e.h >= decoder.height && e.transparent < 0
+                && e.disposal != Disposal.RESTORE_TO_PREVIOUS.code) {
+              keyFrames.add(frames.size());
+            }
+            frames.add(e);
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Can Not Read Gif: " + fileName);
+      }
+      return index < frames.size();
+    }
+
+    /**
+     * Returns a frame, drawn over the frames before it.
+     * 
+     * @param index position of the frame, starting at 0
+     * @return Frame at index
+     */
+    public Frame getFrame(int index) {
+      if (index < 0 || !find(index)) {
+        throw new IndexOutOfBoundsException("No frame " + index + ".");
+      }
+      int from = drawn + 1;
+      if (drawn >= index) {
+        from = 0;
+      }
+      for (int k = keyFrames.size() - 1; k >= 0; k--) {
+        int key = keyFrames.get(k);
+        if (key <= index) {
+          from = Math.max(from, key);
+          break;
+        }
+      }
+      if (from != drawn + 1) {
+        Arrays.fill(canvas, decoder.background);
+        drawn = -1;
+        saved = null;
+      }
+      try {
+        for (int i = from; i <= index; i++) {
+          draw(i);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Can Not Read Gif: " + fileName);
+      }
+      GifDecoder.Entry e = frames.get(index);
+      Image image = new Image(decoder.width, decoder.height);
+      image.writeRGB(0, 0, decoder.width, decoder.height, canvas, 0,
+          decoder.width);
+      Disposal[] d = Disposal.values();
+      return new Frame(image, index, e.delay,
+          e.disposal < d.length ? d[e.disposal] : Disposal.UNSPECIFIED);
+    }
+
+    /**
+     * Disposes of the last frame drawn and draws frame i over it.
+     */
+    private void draw(int i) throws IOException {
+      int w = decoder.width;
+      if (drawn >= 0) {
+        GifDecoder.Entry last = frames.get(drawn);
+        int x0 = Math.min(last.x, w);
+        int x1 = Math.min(last.x + last.w, w);
+        int y1 = Math.min(last.y + last.h, decoder.height);
+        if (last.disposal == 2) {
+          for (int y = last.y; y < y1; y++) {
+            Arrays.fill(canvas, y * w + x0, y * w + x1, decoder.background);
+          }
+        } else if (last.disposal == 3 && saved != null) {
+          System.arraycopy(saved, 0, canvas, 0, canvas.length);
+        }
+      }
+      GifDecoder.Entry e = frames.get(i);
+      if (e.disposal == 3) {
+        if (saved == null) {
+          saved = new int[canvas.length];
+        }
+        System.arraycopy(canvas, 0, saved, 0, canvas.length);
+      }
+      byte[] pixels = decoder.pixels(e);
+      int[] colors = e.colors;
+      for (int y = 0; y < e.h && e.y + y < decoder.height; y++) {
+        int row = (e.y + y) * w;
+        for (int x = 0; x < e.w && e.x + x < w; x++) {
+          int p = pixels[y * e.w + x] & 0xFF;
+          if (p != e.transparent && colors != null && p < colors.length) {
+            canvas[row + e.x + x] = colors[p];
+          }
+        }
+      }
+      drawn = i;
+    }
+
+    /**
+     * Returns an iterator over the frames from the first. Frames are only
+     * read as next() is called.
+     * 
+     * @return Iterator of Frames
+     */
+    @Override
+    public Iterator<Frame> iterator() {
+      return new Iterator<Frame>() {
+        private int next = 0;
+
+        @Override
+        public boolean hasNext() {
+          return find(next);
+        }
+
+        @Override
+        public Frame next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return getFrame(next++);
+        }
+      };
+    }
+
+    /**
+     * Returns a sequential Stream of the frames from the first. Closing the
+     * stream closes the reader.
+     * 
+     * @return Stream of Frames
+     */
+    public Stream<Frame> stream() {
+      return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+          iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false)
+          .onClose(this::close);
+    }
+
+    /**
+     * Closes the file.
+     */
+    @Override
+    public void close() {
+      try {
+        decoder.close();
+      } catch (IOException e) {
+        throw new RuntimeException("Can Not Read Gif: " + fileName);
+      }
+    }
+  }
+
+  /**
+   * What happens to a frame once its delay is over and the next frame is
+   * drawn.
+   */
+  public enum Disposal {
+    /**
+     * Not specified, viewers leave the frame in place.
+     */
+    UNSPECIFIED(0),
+    /**
+     * The frame is left in place and the next frame is drawn over it.
+     */
+    DO_NOT_DISPOSE(1),
+    /**
+     * The area of the frame is cleared to the background.
+     */
+    RESTORE_TO_BACKGROUND(2),
+    /**
+     * The area of the frame is restored to what was there before it.
+     */
+    RESTORE_TO_PREVIOUS(3);
+
+    /**
+     * Value stored in the graphic control extension.
+     */
+    final int code;
+
+    Disposal(int code) {
+      this.code = code;
+    }
+  }
+
+  /**
+   * Writes a gif one frame at a time. The first frame sets the size of the
+   * gif, and later frames must not be larger. Frames are stored as indexed
+   * colors, reduced with a Palette when they have too many.
+   * 
+   * Picking colors and finding what changed happens in writeFrame(), but the
+   * LZW compression of each frame is handed to the frame's executor, and
+   * finished frames are written to the file in order. At most
+   * setInFlightFrames() frames are waiting to be written, so memory use does
+   * not grow with the number of frames.
+   * 
+   * By default each frame is compared with the one before it and only the
+   * rectangle that changed is written, with unchanged pixels inside it left
+   * transparent, as long as the frames are the same size and the previous
+   * frame was not disposed.
+   * 
+   * <pre>
+   * try (Gif.GifWriter gif = new Gif.GifWriter("out.gif")) {
+   *   gif.setLoopCount(0);
+   *   for (Image frame : frames) {
+   *     gif.writeFrame(frame, 40, Gif.Disposal.DO_NOT_DISPOSE);
+   *   }
+   * }
+   * </pre>
+   * 
+   * @author Created by Elliot Kroo on 2009-04-25.
+   *
+   */
+  public static class GifWriter implements AutoCloseable {
+    private final OutputStream output;
+    private final boolean owned;
+    private int delay = 100;
+    private Disposal disposal = Disposal.UNSPECIFIED;
+    private int loops = 0;
+    private int frames = 0;
+    private boolean closed = false;
+    private boolean delta = true;
+    private Palette palette = null;
+    private int colors = 256;
+    private Dither dither = Dither.NONE;
+    private int window = 0;
 
-      IIOMetadataNode root = (IIOMetadataNode) imageMetaData
-          .getAsTree(metaFormatName);
+    /**
+     * Palette written as the global color table, set by the first frame.
+     */
+    private Palette global = null;
 
-      IIOMetadataNode graphicsControlExtensionNode = getNode(root,
-          "GraphicControlExtension");
+    /**
+     * Frames being compressed, oldest first.
+     */
+    private final ArrayDeque<CompletableFuture<byte[]>> pending =
+        new ArrayDeque<CompletableFuture<byte[]>>();
 
-      graphicsControlExtensionNode.setAttribute("disposalMethod", "none");
-      graphicsControlExtensionNode.setAttribute("userInputFlag", "FALSE");
-      graphicsControlExtensionNode
-          .setAttribute("transparentColorFlag", "FALSE");
-      graphicsControlExtensionNode.setAttribute("delayTime",
-          Integer.toString(timeBetweenFramesMS / 10));
-      graphicsControlExtensionNode.setAttribute("transparentColorIndex", "0");
+    /**
+     * Pixels of the last frame and of the one being written, swapped after
+     * each frame. previous is null when the next frame can not be a delta.
+     */
+    private int[] previous = null;
+    private int[] current = null;
+    private int width = -1;
+    private int height = -1;
 
-      IIOMetadataNode commentsNode = getNode(root, "CommentExtensions");
-      commentsNode.setAttribute("CommentExtension", "Created by MAH");
+    /**
+     * Starts a gif written to a file.
+     * 
+     * @param fileName The name of the output file.
+     */
+    public GifWriter(String fileName) {
+      this(open(fileName), true);
+    }
 
-      IIOMetadataNode appEntensionsNode = getNode(root, "ApplicationExtensions");
+    /**
+     * Starts a gif written to a stream. The stream is flushed but not closed
+     * by close().
+     * 
+     * @param outputStream OutputStream to write the gif to
+     */
+    public GifWriter(OutputStream outputStream) {
+      this(new BufferedOutputStream(outputStream, 1 << 16), false);
+    }
 
-      IIOMetadataNode child = new IIOMetadataNode("ApplicationExtension");
+    private GifWriter(OutputStream output, boolean owned) {
+      this.output = output;
+      this.owned = owned;
+    }
 
-      child.setAttribute("applicationID", "NETSCAPE");
-      child.setAttribute("authenticationCode", "2.0");
+    private static OutputStream open(String fileName) {
+      try {
+        return new BufferedOutputStream(new FileOutputStream(fileName),
+            1 << 16);
+      } catch (IOException e) {
+        throw new RuntimeException("Can Not Make Gif: " + fileName);
+      }
+    }
 
-      int loop = loopContinuously ? 0 : 1;
+    /**
+     * Sets the time frames are shown for when none is given to writeFrame().
+     * Gifs store times in hundredths of a second. Defaults to 100.
+     * 
+     * @param delay Time in milliseconds between frames.
+     */
+    public void setDelay(int delay) {
+      this.delay = delay;
+    }
 
-      child.setUserObject(new byte[] { 0x1, (byte) (loop & 0xFF),
-          (byte) ((loop >> 8) & 0xFF) });
-      appEntensionsNode.appendChild(child);
+    /**
+     * Sets the disposal used when none is given to writeFrame(). Defaults to
+     * UNSPECIFIED.
+     * 
+     * @param disposal Disposal for each frame
+     */
+    public void setDisposal(Disposal disposal) {
+      this.disposal = disposal;
+    }
 
-      imageMetaData.setFromTree(metaFormatName, root);
+    /**
+     * Sets how many times the animation repeats after it is first played: 0
+     * to repeat forever, which is the default, or -1 to play only once. Must
+     * be set before the first frame is written.
+     * 
+     * @param loops Number of repeats
+     */
+    public void setLoopCount(int loops) {
+      if (frames > 0) {
+        throw new IllegalStateException(
+            "Loop count must be set before the first frame.");
+      }
+      this.loops = loops;
+    }
 
-      gifWriter.setOutput(outputStream);
+    /**
+     * Turns writing only the changed part of each frame on or off. On by
+     * default.
+     * 
+     * @param delta true to write only what changed since the last frame
+     */
+    public void setDeltaFrames(boolean delta) {
+      this.delta = delta;
+      if (!delta) {
+        previous = null;
+      }
+    }
 
-      gifWriter.prepareWriteSequence(null);
+    /**
+     * Sets one palette for every frame after this, or null to pick a palette
+     * for each frame, which is the default. A shared palette keeps colors
+     * steady from frame to frame, and one set before the first frame is
+     * stored once as the global color table. Delta frames need a spare index
+     * for transparency, so a palette of 256 colors writes whole rectangles
+     * instead; Palette.medianCut(frames, 255) leaves room for it.
+     * 
+     * @param palette Palette shared by the frames, or null
+     */
+    public void setPalette(Palette palette) {
+      this.palette = palette;
     }
 
-    public void writeToSequence(RenderedImage img) throws IOException {
-      gifWriter.writeToSequence(new IIOImage(img, null, imageMetaData),
-          imageWriteParam);
+    /**
+     * Sets the most colors a frame's own palette may have, including the
+     * transparent index of a delta frame. Frames with no more colors than
+     * this keep their exact colors. Defaults to 256.
+     * 
+     * @param colors largest palette size, 2 to 256
+     */
+    public void setColors(int colors) {
+      if (colors < 2 || colors > 256) {
+        throw new IllegalArgumentException(
+            "Gif palettes must have between 2 and 256 colors.");
+      }
+      this.colors = colors;
     }
 
     /**
-     * Close this GifSequenceWriter object. This does not close the underlying
-     * stream, just finishes off the GIF.
+     * Sets how frames with more colors than their palette are dithered.
+     * Defaults to NONE.
+     * 
+     * @param dither Dither used when reducing colors
      */
-    public void close() throws IOException {
-      gifWriter.endWriteSequence();
+    public void setDither(Dither dither) {
+      this.dither = dither;
     }
 
     /**
-     * Returns the first available GIF ImageWriter using
-     * ImageIO.getImageWritersBySuffix("gif").
+     * Sets how many frames may be compressing or waiting to be written at
+     * once. Each one holds a byte per pixel of its rectangle until it is
+     * written. 1 compresses every frame on the calling thread before
+     * writeFrame() returns, and 0, the default, allows twice the parallelism
+     * of the frame's executor.
      * 
-     * @return a GIF ImageWriter object
-     * @throws IIOException if no GIF image writers are returned
+     * @param frames largest number of frames in flight, or 0
      */
-    private ImageWriter getWriter() throws IIOException {
-      Iterator<ImageWriter> iter = ImageIO.getImageWritersBySuffix("gif");
-      if (!iter.hasNext()) {
-        throw new IIOException("No GIF Image Writers Exist");
-      } else {
-        return iter.next();
+    public void setInFlightFrames(int frames) {
+      if (frames < 0) {
+        throw new IllegalArgumentException(
+            "Frames in flight can not be negative.");
       }
+      window = frames;
     }
 
     /**
-     * Returns an existing child node, or creates and returns a new child node
-     * (if the requested node does not exist).
+     * Writes the next frame with the default delay and disposal.
      * 
-     * @param rootNode the <tt>IIOMetadataNode</tt> to search for the child
-     *          node.
-     * @param nodeName the name of the child node.
+     * @param frame Image to add to the gif
+     */
+    public void writeFrame(BaseImage frame) {
+      writeFrame(frame, delay, disposal);
+    }
+
+    /**
+     * Writes the next frame with the default disposal.
+     * 
+     * @param frame Image to add to the gif
+     * @param delay Time in milliseconds the frame is shown for.
+     */
+    public void writeFrame(BaseImage frame, int delay) {
+      writeFrame(frame, delay, disposal);
+    }
+
+    /**
+     * Adds the next frame. The frame is copied before this returns and can be
+     * changed or reused straight away, but it may reach the file later.
      * 
-     * @return the child node, if found or a new node created with the given
-     *         name.
+     * @param frame Image to add to the gif
+     * @param delay Time in milliseconds the frame is shown for.
+     * @param disposal What happens to the frame after it is shown.
      */
-    private IIOMetadataNode getNode(IIOMetadataNode rootNode, String nodeName) {
-      int nNodes = rootNode.getLength();
-      for (int i = 0; i < nNodes; i++) {
-        if (rootNode.item(i).getNodeName().compareToIgnoreCase(nodeName) == 0) {
-          return ((IIOMetadataNode) rootNode.item(i));
+    public void writeFrame(BaseImage frame, int delay, Disposal disposal) {
+      if (closed) {
+        throw new IllegalStateException("GifWriter is closed.");
+      }
+      Metrics.Probe probe = Metrics.start("gif.frame");
+      int w;
+      int h;
+      TileExecutor executor;
+      frame.lock.readAll();
+      try {
+        w = frame.width();
+        h = frame.height();
+        if (current == null || current.length < w * h) {
+          current = new int[w * h];
+        }
+        frame.readRGB(0, 0, w, h, current, 0, w);
+        executor = frame.tileExecutor();
+      } finally {
+        frame.lock.unlockReadAll();
+      }
+      if (width < 0) {
+        width = w;
+        height = h;
+        global = palette;
+        write(GifEncoder.header(w, h, global == null ? null
+            : table(global, global.size() < 256), loops));
+      }
+      Region r = new Region(0, 0, w, h);
+      boolean transparent = false;
+      if (previous != null && w == width && h == height) {
+        r = changed(previous, current, w, h);
+        transparent = true;
+      }
+      Indexed f = crop(r, w, transparent, executor);
+      int rx = r.getX();
+      int ry = r.getY();
+      int rw = r.getWidth();
+      int rh = r.getHeight();
+      int code = disposal.code;
+      int limit = window > 0 ? window : 2 * executor.getParallelism();
+      if (limit <= 1) {
+        write(GifEncoder.frame(f.pixels, rx, ry, rw, rh, f.colors, f.size,
+            f.transparent, delay, code));
+      } else {
+        pending.add(executor.submit(() -> GifEncoder.frame(f.pixels, rx, ry,
+            rw, rh, f.colors, f.size, f.transparent, delay, code)));
+        while (pending.size() >= limit
+            || (!pending.isEmpty() && pending.peek().isDone())) {
+          write(pending.poll());
         }
       }
-      IIOMetadataNode node = new IIOMetadataNode(nodeName);
-      rootNode.appendChild(node);
-      return (node);
+      frames++;
+      boolean kept = disposal == Disposal.UNSPECIFIED
+          || disposal == Disposal.DO_NOT_DISPOSE;
+      if (delta && kept && w == width && h == height) {
+        int[] t = previous;
+        previous = current;
+        current = t;
+      } else {
+        previous = null;
+      }
+      Metrics.end(probe, (long) w * h);
+    }
+
+    /**
+     * Waits for a frame to be compressed and writes it.
+     */
+    private void write(CompletableFuture<byte[]> frame) {
+      try {
+        write(frame.join());
+      } catch (CompletionException e) {
+        throw new RuntimeException("Can Not Write Gif Frame.", e.getCause());
+      }
+    }
+
+    private void write(byte[] bytes) {
+      try {
+        output.write(bytes);
+      } catch (IOException e) {
+        throw new RuntimeException("Can Not Write Gif Frame.");
+      }
+    }
+
+    /**
+     * Returns the smallest rectangle holding every pixel that differs between
+     * the two frames, or a single pixel if none do.
+     */
+    private static Region changed(int[] before, int[] after, int w, int h) {
+      int top = -1;
+      int bottom = -1;
+      int left = w;
+      int right = -1;
+      for (int y = 0; y < h; y++) {
+        int row = y * w;
+        int x = 0;
+        while (x < w && ((before[row + x] ^ after[row + x]) & 0xFFFFFF) == 0) {
+          x++;
+        }
+        if (x == w) {
+          continue;
+        }
+        if (top < 0) {
+          top = y;
+        }
+        bottom = y;
+        left = Math.min(left, x);
+        int end = w - 1;
+        while (end > right
+            && ((before[row + end] ^ after[row + end]) & 0xFFFFFF) == 0) {
+          end--;
+        }
+        right = Math.max(right, end);
+      }
+      if (top < 0) {
+        return new Region(0, 0, 1, 1);
+      }
+      return new Region(left, top, right - left + 1, bottom - top + 1);
+    }
+
+    /**
+     * A frame reduced to palette indices. colors is null when the frame uses
+     * the global color table, and size is the number of entries in whichever
+     * table it uses.
+     */
+    private static final class Indexed {
+      final byte[] pixels;
+      final int[] colors;
+      final int size;
+      final int transparent;
+
+      Indexed(byte[] pixels, int[] colors, int size, int transparent) {
+        this.pixels = pixels;
+        this.colors = colors;
+        this.size = size;
+        this.transparent = transparent;
+      }
+    }
+
+    /**
+     * Copies region r of the current frame as palette indices. When
+     * transparent is set, pixels the same as in the previous frame use the
+     * transparent index. Without a shared palette a frame with few enough
+     * colors is stored exactly, and any other is reduced by median cut over
+     * the pixels being written.
+     */
+    private Indexed crop(Region r, int w, boolean transparent,
+        TileExecutor executor) {
+      int rx = r.getX();
+      int ry = r.getY();
+      int rw = r.getWidth();
+      int rh = r.getHeight();
+      if (palette == null) {
+        Indexed exact = exact(rx, ry, rw, rh, w, transparent);
+        if (exact != null) {
+          return exact;
+        }
+      }
+      Palette p = palette;
+      if (p == null) {
+        long[] histogram = new long[1 << 15];
+        Palette.histogram(histogram, current, transparent ? previous : null,
+            ry * w + rx, w, rw, rh, executor);
+        p = Palette.medianCut(histogram, transparent ? colors - 1 : colors);
+      } else if (p.size() == 256) {
+        transparent = false;
+      }
+      int n = p.size();
+      byte[] out = new byte[rw * rh];
+      p.map(current, transparent ? previous : null, ry * w + rx, w, rw, rh,
+          out, n, dither, executor);
+      if (p == global) {
+        return new Indexed(out, null, Math.min(n + 1, 256),
+            transparent ? n : -1);
+      }
+      int[] table = table(p, transparent);
+      return new Indexed(out, table, table.length, transparent ? n : -1);
     }
 
+    /**
+     * Returns the colors of p, with a black entry on the end for the
+     * transparent index if spare is set.
+     */
+    private static int[] table(Palette p, boolean spare) {
+      int[] table = new int[p.size() + (spare ? 1 : 0)];
+      for (int c = 0; c < p.size(); c++) {
+        table[c] = p.getRGB(c);
+      }
+      return table;
+    }
+
+    /**
+     * Stores region r with an exact palette if it has at most colors colors,
+     * counting the transparent index, or returns null if it has more.
+     */
+    private Indexed exact(int rx, int ry, int rw, int rh, int w,
+        boolean transparent) {
+      int[] keys = new int[1024];
+      Arrays.fill(keys, -1);
+      int[] found = new int[256];
+      int n = 0;
+      int limit = transparent ? colors - 1 : colors;
+      for (int y = ry; y < ry + rh; y++) {
+        for (int x = rx; x < rx + rw; x++) {
+          int i = y * w + x;
+          int p = current[i] & 0xFFFFFF;
+          if (transparent && ((previous[i] ^ p) & 0xFFFFFF) == 0) {
+            continue;
+          }
+          int slot = find(keys, p);
+          if (keys[slot] < 0) {
+            if (n == limit) {
+              return null;
+            }
+            keys[slot] = p;
+            found[n++] = p;
+          }
+        }
+      }
+      int[] table = Arrays.copyOf(found, Math.max(n + (transparent ? 1 : 0),
+          2));
+      int[] index = new int[keys.length];
+      for (int c = 0; c < n; c++) {
+        index[find(keys, found[c])] = c;
+      }
+      byte[] out = new byte[rw * rh];
+      int o = 0;
+      for (int y = ry; y < ry + rh; y++) {
+        for (int x = rx; x < rx + rw; x++) {
+          int i = y * w + x;
+          int p = current[i] & 0xFFFFFF;
+          if (transparent && ((previous[i] ^ p) & 0xFFFFFF) == 0) {
+            out[o++] = (byte) n;
+          } else {
+            out[o++] = (byte) index[find(keys, p)];
+          }
+        }
+      }
+      return new Indexed(out, table, table.length, transparent ? n : -1);
+    }
+
+    /**
+     * Finds the slot of color p in an open addressing table, or the empty
+     * slot where it belongs.
+     */
+    private static int find(int[] keys, int p) {
+      int mask = keys.length - 1;
+      int slot = (p * 0x9E3779B1) >>> 22 & mask;
+      while (keys[slot] >= 0 && keys[slot] != p) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    /**
+     * Returns the number of frames added so far.
+     * 
+     * @return int count of frames
+     */
+    public int getFrameCount() {
+      return frames;
+    }
+
+    /**
+     * Writes every frame still being compressed, finishes off the gif and
+     * closes the file, or flushes the stream it was given.
+     */
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        while (!pending.isEmpty()) {
+          write(pending.poll());
+        }
+        if (width < 0) {
+          write(GifEncoder.header(0, 0, null, -1));
+        }
+        output.write(GifEncoder.TRAILER);
+        output.flush();
+      } catch (IOException e) {
+        throw new RuntimeException("Can Not Make Gif.");
+      } finally {
+        if (owned) {
+          try {
+            output.close();
+          } catch (IOException e) {
+            throw new RuntimeException("Can Not Make Gif.");
+          }
+        }
+      }
+    }
   }
 
 }
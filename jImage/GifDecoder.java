@@ -0,0 +1,361 @@
+package jImage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the blocks of a gif file. The header and each frame's extensions and
+ * descriptor are read on their own, skipping the pixel data, so every frame
+ * can be found without decoding anything. A frame's pixels are decoded later
+ * by seeking back to where its data starts.
+ *
+ * @author Cy
+ *
+ */
+final class GifDecoder implements AutoCloseable {
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+  /**
+   * File position of the first byte in buffer.
+   */
+  private long start = 0;
+
+  final int width;
+  final int height;
+
+  /**
+   * Packed colors of the global color table, or null.
+   */
+  final int[] global;
+  final int background;
+
+  /**
+   * Loop count from the NETSCAPE extension, or -1 if there is none. Only
+   * known once the frame after it has been found.
+   */
+  int loops = -1;
+
+  /**
+   * Where the next unread block starts, or -1 once the trailer is reached.
+   */
+  private long next;
+
+  GifDecoder(String fileName) throws IOException {
+    channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+    buffer.limit(0);
+    try {
+      byte[] signature = new byte[6];
+      for (int i = 0; i < 6; i++) {
+        signature[i] = (byte) read();
+      }
+      String s = new String(signature, StandardCharsets.US_ASCII);
+      if (!s.equals("GIF87a") && !s.equals("GIF89a")) {
+        throw new IOException("Not a gif.");
+      }
+      width = short16();
+      height = short16();
+      int packed = read();
+      int index = read();
+      read();
+      global = (packed & 0x80) != 0 ? table(2 << (packed & 7)) : null;
+      background = global != null && index < global.length ? global[index]
+          : 0;
+      next = position();
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Everything needed to find and draw one frame.
+   */
+  static final class Entry {
+    int delay;
+    int disposal;
+    int transparent = -1;
+    int x;
+    int y;
+    int w;
+    int h;
+    boolean interlaced;
+    int[] colors;
+    long data;
+  }
+
+  /**
+   * Reads up to the next image descriptor and returns its frame, or null at
+   * the end of the file.
+   */
+  Entry nextFrame() throws IOException {
+    if (next < 0) {
+      return null;
+    }
+    seek(next);
+    Entry e = new Entry();
+    while (true) {
+      int b = read();
+      if (b == 0x21) {
+        extension(e);
+      } else if (b == 0x2C) {
+        e.x = short16();
+        e.y = short16();
+        e.w = short16();
+        e.h = short16();
+        int packed = read();
+        e.interlaced = (packed & 0x40) != 0;
+        e.colors = (packed & 0x80) != 0 ? table(2 << (packed & 7)) : global;
+        e.data = position();
+        read();
+        skipBlocks();
+        next = position();
+        return e;
+      } else {
+        next = -1;
+        return null;
+      }
+    }
+  }
+
+  private void extension(Entry e) throws IOException {
+    int label = read();
+    int size = read();
+    if (label == 0xF9 && size >= 4) {
+      int packed = read();
+      e.delay = short16() * 10;
+      int index = read();
+      e.disposal = (packed >> 2) & 7;
+      e.transparent = (packed & 1) != 0 ? index : -1;
+      skip(size - 4);
+    } else if (label == 0xFF && size == 11) {
+      byte[] id = new byte[11];
+      for (int i = 0; i < 11; i++) {
+        id[i] = (byte) read();
+      }
+      String s = new String(id, StandardCharsets.US_ASCII);
+      if (s.equals("NETSCAPE2.0") || s.equals("ANIMEXTS1.0")) {
+        int n = read();
+        if (n >= 3 && read() == 1) {
+          loops = short16();
+          skip(n - 3);
+        } else if (n > 0) {
+          skip(n - (n >= 3 ? 1 : 0));
+        }
+      }
+    } else {
+      skip(size);
+    }
+    skipBlocks();
+  }
+
+  /**
+   * Decodes the palette indices of a frame, in row order even when the frame
+   * is interlaced.
+   */
+  byte[] pixels(Entry e) throws IOException {
+    seek(e.data);
+    int n = e.w * e.h;
+    byte[] out = new byte[n];
+    int minCodeSize = read();
+    if (minCodeSize < 1 || minCodeSize > 11) {
+      throw new IOException("Bad LZW code size.");
+    }
+    Lzw lzw = new Lzw(this);
+    lzw.decode(out, minCodeSize);
+    lzw.finish();
+    return e.interlaced ? deinterlace(out, e.w, e.h) : out;
+  }
+
+  private static byte[] deinterlace(byte[] in, int w, int h) {
+    byte[] out = new byte[in.length];
+    int row = 0;
+    int[] first = { 0, 4, 2, 1 };
+    int[] step = { 8, 8, 4, 2 };
+    for (int pass = 0; pass < 4; pass++) {
+      for (int y = first[pass]; y < h; y += step[pass]) {
+        System.arraycopy(in, row++ * w, out, y * w, w);
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Reads codes from the data sub-blocks and expands them into palette
+   * indices.
+   */
+  private static final class Lzw {
+    private final GifDecoder in;
+    private int block = 0;
+    private int bits = 0;
+    private int count = 0;
+    private boolean ended = false;
+
+    Lzw(GifDecoder in) {
+      this.in = in;
+    }
+
+    private int code(int size) throws IOException {
+      while (count < size) {
+        if (block == 0) {
+          if (ended || (block = in.read()) <= 0) {
+            ended = true;
+            block = 0;
+            return -1;
+          }
+        }
+        int b = in.read();
+        if (b < 0) {
+          ended = true;
+          return -1;
+        }
+        block--;
+        bits |= b << count;
+        count += 8;
+      }
+      int code = bits & ((1 << size) - 1);
+      bits >>>= size;
+      count -= size;
+      return code;
+    }
+
+    void decode(byte[] out, int minCodeSize) throws IOException {
+      int clear = 1 << minCodeSize;
+      int end = clear + 1;
+      short[] prefix = new short[4096];
+      byte[] suffix = new byte[4096];
+      byte[] stack = new byte[4097];
+      for (int i = 0; i < clear; i++) {
+        suffix[i] = (byte) i;
+      }
+      int codeSize = minCodeSize + 1;
+      int next = clear + 2;
+      int old = -1;
+      int first = 0;
+      int o = 0;
+      while (o < out.length) {
+        int code = code(codeSize);
+        if (code < 0 || code == end) {
+          break;
+        }
+        if (code == clear) {
+          codeSize = minCodeSize + 1;
+          next = clear + 2;
+          old = -1;
+          continue;
+        }
+        if (old < 0) {
+          if (code >= clear) {
+            break;
+          }
+          first = code;
+          old = code;
+          out[o++] = (byte) code;
+          continue;
+        }
+        if (code > next) {
+          break;
+        }
+        int current = code;
+        int sp = 0;
+        if (code == next) {
+          stack[sp++] = (byte) first;
+          code = old;
+        }
+        while (code >= clear) {
+          stack[sp++] = suffix[code];
+          code = prefix[code];
+        }
+        first = suffix[code] & 0xFF;
+        stack[sp++] = (byte) first;
+        if (next < 4096) {
+          prefix[next] = (short) old;
+          suffix[next] = (byte) first;
+          next++;
+          if (next == (1 << codeSize) && codeSize < 12) {
+            codeSize++;
+          }
+        }
+        old = current;
+        while (sp > 0 && o < out.length) {
+          out[o++] = stack[--sp];
+        }
+      }
+    }
+
+    /**
+     * Skips whatever is left of the data after the last code.
+     */
+    void finish() throws IOException {
+      if (ended) {
+        return;
+      }
+      in.skip(block);
+      in.skipBlocks();
+    }
+  }
+
+  private int[] table(int size) throws IOException {
+    int[] colors = new int[size];
+    for (int i = 0; i < size; i++) {
+      colors[i] = read() << 16 | read() << 8 | read();
+    }
+    return colors;
+  }
+
+  /**
+   * Skips sub-blocks up to and including the empty one that ends them.
+   */
+  private void skipBlocks() throws IOException {
+    int n;
+    while ((n = read()) > 0) {
+      skip(n);
+    }
+  }
+
+  private int short16() throws IOException {
+    return read() | read() << 8;
+  }
+
+  /**
+   * Returns the next byte, or -1 at the end of the file.
+   */
+  int read() throws IOException {
+    if (!buffer.hasRemaining()) {
+      start += buffer.limit();
+      buffer.clear();
+      if (channel.read(buffer, start) <= 0) {
+        buffer.limit(0);
+        return -1;
+      }
+      buffer.flip();
+    }
+    return buffer.get() & 0xFF;
+  }
+
+  private long position() {
+    return start + buffer.position();
+  }
+
+  private void seek(long position) {
+    if (position >= start && position <= start + buffer.limit()) {
+      buffer.position((int) (position - start));
+    } else {
+      start = position;
+      buffer.limit(0);
+    }
+  }
+
+  private void skip(int n) {
+    seek(position() + n);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,284 @@
+package jImage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Builds the bytes of a gif. The header and each frame are made as separate
+ * chunks that only depend on their own arguments, so frames can be
+ * compressed on any thread and written out in order afterwards.
+ *
+ * @author Cy
+ *
+ */
+final class GifEncoder {
+  /**
+   * Byte that ends a gif.
+   */
+  static final int TRAILER = 0x3B;
+
+  /**
+   * Largest number of codes in an LZW table.
+   */
+  private static final int MAX_CODES = 4096;
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private GifEncoder() {}
+
+  /**
+   * Returns the header of a gif: the signature, the screen size, the global
+   * color table if there is one and the loop count if it is not negative.
+   *
+   * @param width Width of the gif.
+   * @param height Height of the gif.
+   * @param colors packed colors of the global color table, or null
+   * @param loops number of repeats, 0 forever, or -1 to leave it out
+   * @return bytes of the header
+   */
+  static byte[] header(int width, int height, int[] colors, int loops) {
+    Bytes out = new Bytes(32 + (colors == null ? 0 : 768));
+    out.ascii("GIF89a");
+    out.short16(width);
+    out.short16(height);
+    if (colors == null) {
+      out.add(0x70);
+    } else {
+      int bits = bits(colors.length);
+      out.add(0xF0 | (bits - 1));
+    }
+    out.add(0);
+    out.add(0);
+    if (colors != null) {
+      table(out, colors);
+    }
+    if (loops >= 0) {
+      out.add(0x21);
+      out.add(0xFF);
+      out.add(11);
+      out.ascii("NETSCAPE2.0");
+      out.add(3);
+      out.add(1);
+      out.short16(loops);
+      out.add(0);
+    }
+    return out.toArray();
+  }
+
+  /**
+   * Returns one frame: its graphic control extension, image descriptor,
+   * local color table and LZW compressed pixels.
+   *
+   * @param pixels palette index of each pixel, w by h
+   * @param x left edge of the frame in the gif
+   * @param y top edge of the frame in the gif
+   * @param w Width of the frame.
+   * @param h Height of the frame.
+   * @param colors packed colors of the local color table, or null to use the
+   *          global one
+   * @param tableSize number of entries in the color table used
+   * @param transparent transparent index, or -1 for none
+   * @param delay Time in milliseconds the frame is shown for.
+   * @param disposal code of the disposal method
+   * @return bytes of the frame
+   */
+  static byte[] frame(byte[] pixels, int x, int y, int w, int h, int[] colors,
+      int tableSize, int transparent, int delay, int disposal) {
+    Bytes out = new Bytes(w * h / 2 + 1024);
+    out.add(0x21);
+    out.add(0xF9);
+    out.add(4);
+    out.add(disposal << 2 | (transparent >= 0 ? 1 : 0));
+    out.short16(delay / 10);
+    out.add(Math.max(transparent, 0));
+    out.add(0);
+    out.add(0x2C);
+    out.short16(x);
+    out.short16(y);
+    out.short16(w);
+    out.short16(h);
+    int bits = bits(tableSize);
+    if (colors == null) {
+      out.add(0);
+    } else {
+      out.add(0x80 | (bits - 1));
+      table(out, colors);
+    }
+    compress(pixels, w * h, Math.max(bits, 2), out);
+    return out.toArray();
+  }
+
+  /**
+   * Returns the number of bits needed to index n colors, at least 1.
+   */
+  static int bits(int n) {
+    int bits = 1;
+    while ((1 << bits) < n) {
+      bits++;
+    }
+    return bits;
+  }
+
+  /**
+   * Writes colors as a color table padded with black to a power of two.
+   */
+  private static void table(Bytes out, int[] colors) {
+    int size = 1 << bits(colors.length);
+    for (int i = 0; i < size; i++) {
+      int c = i < colors.length ? colors[i] : 0;
+      out.add(c >> 16);
+      out.add(c >> 8);
+      out.add(c);
+    }
+  }
+
+  /**
+   * LZW compresses n pixels into sub-blocks of at most 255 bytes. Strings
+   * are found in an open addressing table keyed on prefix code and next
+   * pixel. When the table is full a clear code starts it again.
+   */
+  private static void compress(byte[] pixels, int n, int minCodeSize,
+      Bytes out) {
+    out.add(minCodeSize);
+    int clear = 1 << minCodeSize;
+    int end = clear + 1;
+    int[] keys = new int[MAX_CODES * 2];
+    short[] codes = new short[MAX_CODES * 2];
+    int mask = keys.length - 1;
+    Arrays.fill(keys, -1);
+    Bits bits = new Bits(out);
+    int codeSize = minCodeSize + 1;
+    int next = clear + 2;
+    bits.write(clear, codeSize);
+    if (n == 0) {
+      bits.write(end, codeSize);
+      bits.finish();
+      return;
+    }
+    int prefix = pixels[0] & 0xFF;
+    for (int i = 1; i < n; i++) {
+      int k = pixels[i] & 0xFF;
+      int key = prefix << 8 | k;
+      int slot = (key * 0x9E3779B1) >>> 19 & mask;
+      while (keys[slot] >= 0 && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      if (keys[slot] == key) {
+        prefix = codes[slot];
+        continue;
+      }
+      bits.write(prefix, codeSize);
+      if (next < MAX_CODES) {
+        keys[slot] = key;
+        codes[slot] = (short) next++;
+        if (next > (1 << codeSize) && codeSize < 12) {
+          codeSize++;
+        }
+      } else {
+        bits.write(clear, codeSize);
+        Arrays.fill(keys, -1);
+        codeSize = minCodeSize + 1;
+        next = clear + 2;
+      }
+      prefix = k;
+    }
+    bits.write(prefix, codeSize);
+    if (next == (1 << codeSize) && codeSize < 12) {
+      codeSize++;
+    }
+    bits.write(end, codeSize);
+    bits.finish();
+  }
+
+  /**
+   * Packs codes least significant bit first into sub-blocks of Bytes.
+   */
+  private static final class Bits {
+    private final Bytes out;
+    private final byte[] block = new byte[255];
+    private int length = 0;
+    private int buffer = 0;
+    private int count = 0;
+
+    Bits(Bytes out) {
+      this.out = out;
+    }
+
+    void write(int code, int size) {
+      buffer |= code << count;
+      count += size;
+      while (count >= 8) {
+        block[length++] = (byte) buffer;
+        buffer >>>= 8;
+        count -= 8;
+        if (length == block.length) {
+          flush();
+        }
+      }
+    }
+
+    private void flush() {
+      out.add(length);
+      out.add(block, length);
+      length = 0;
+    }
+
+    /**
+     * Writes any bits left over, the last sub-block and the empty block that
+     * ends the data.
+     */
+    void finish() {
+      if (count > 0) {
+        block[length++] = (byte) buffer;
+        buffer = 0;
+        count = 0;
+      }
+      if (length > 0) {
+        flush();
+      }
+      out.add(0);
+    }
+  }
+
+  /**
+   * A growable array of bytes.
+   */
+  private static final class Bytes {
+    private byte[] data;
+    private int size = 0;
+
+    Bytes(int capacity) {
+      data = new byte[Math.max(capacity, 16)];
+    }
+
+    void add(int b) {
+      if (size == data.length) {
+        data = Arrays.copyOf(data, data.length * 2);
+      }
+      data[size++] = (byte) b;
+    }
+
+    void add(byte[] b, int n) {
+      if (size + n > data.length) {
+        data = Arrays.copyOf(data, Math.max(data.length * 2, size + n));
+      }
+      System.arraycopy(b, 0, data, size, n);
+      size += n;
+    }
+
+    void short16(int v) {
+      add(v);
+      add(v >> 8);
+    }
+
+    void ascii(String s) {
+      byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+      add(b, b.length);
+    }
+
+    byte[] toArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+}
@@ -1,16 +1,36 @@
 package jImage;
 
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntUnaryOperator;
 import java.util.function.UnaryOperator;
 
 /**
  * Image editing class with more meathods.
  * 
+ * Operators given to setChannels(), setChannelsAtPixel() and the other
+ * channel methods are run in parallel bands while the calling thread holds
+ * the image. They may read the image they are changing, through getPixel()
+ * or getRGB(), and see pixels of other bands either before or after the
+ * change, but must not resize it.
+ * 
  * @author Cy
  *
  */
 public class Image extends BaseImage {
   public static int SCALE_NEAREST = 0;
   public static int SCALE_BILENEAR = 1;
+  public static int SCALE_AREA_AVERAGE = 2;
+  public static int SCALE_LANCZOS = 3;
+  public static int SCALE_MITCHELL = 4;
+
+  /**
+   * Names of the scaling hints, as used in Metrics.
+   */
+  private static final String[] HINTS = { "nearest", "bilinear",
+      "area_average", "lanczos", "mitchell" };
+
+  private TileExecutor executor;
 
   /**
    * Opens an image from a file source.
@@ -31,105 +51,236 @@ public class Image extends BaseImage {
     super(width, height);
   }
 
+  /**
+   * Creates an image from a BufferedImage in the java.awt.image library.
+   * 
+   * @param bufferedImage Raw BufferedImage to create Image from.
+   */
+  protected Image(BufferedImage bufferedImage) {
+    super(bufferedImage);
+  }
+
+  /**
+   * Creates an image whose pixels are kept in a MappedBuffer.
+   * 
+   * @param buffer Mapped pixels to create the Image from.
+   */
+  Image(MappedBuffer buffer) {
+    super(buffer);
+  }
+
+  /**
+   * Creates a black image whose pixels are kept in a memory-mapped file
+   * instead of on the heap, so it can be larger than the heap allows, and
+   * larger than the 2^31 pixels a BufferedImage can hold. The file holds one
+   * 4 byte little-endian 0x00RRGGBB int per pixel, row by row, and pixels
+   * already in the file are kept. Per-pixel operations, blurs, resizes and
+   * convolutions stream through the file a band of rows at a time, writing
+   * into temporary mapped files where they need a second copy. quantize()
+   * still copies the image to the heap, and meanFilter() and
+   * adaptiveThreshold() build tables as large as the image there, so they
+   * and getBI() only take images under 2^31 pixels.
+   * 
+   * @param width Width of the image.
+   * @param height Height of the image.
+   * @param fileName File to keep the pixels in.
+   * @return Image backed by the file
+   */
+  public static Image createMapped(int width, int height, String fileName) {
+    return new Image(MappedBuffer.create(width, height, fileName));
+  }
+
+  /**
+   * Creates a black image whose pixels are kept in a temporary memory-mapped
+   * file instead of on the heap.
+   * 
+   * @param width Width of the image.
+   * @param height Height of the image.
+   * @return Image backed by a temporary file
+   */
+  public static Image createMapped(int width, int height) {
+    return new Image(MappedBuffer.create(width, height, null));
+  }
+
+  /**
+   * Opens part of an image file, keeping only every subsampleX'th column and
+   * subsampleY'th row. Only the pixels that are kept are ever held in memory,
+   * which makes crops and thumbnails of very large files cheap.
+   * 
+   * @param source Source location of the image file.
+   * @param region Area of the file to open, or null for all of it.
+   * @param subsampleX Step between kept columns, 1 for every column.
+   * @param subsampleY Step between kept rows, 1 for every row.
+   * @return Image holding the decoded pixels
+   */
+  public static Image load(String source, Region region, int subsampleX,
+      int subsampleY) {
+    return new Image(Decoder.read(source, region, subsampleX, subsampleY));
+  }
+
   /**
    * Clones the Image to a new Image object with the same data.
    */
   public Image clone() {
-    synchronized(im) {
-      Image i = new Image(width(), height());
-      i.setSection(0, 0, this);
+    lock.readAll();
+    try {
+      Image i = mapped != null
+          ? new Image(MappedBuffer.create(width(), height(), null))
+          : new Image(width(), height());
+      copyTo(i);
+      i.executor = executor;
       return i;
+    } finally {
+      lock.unlockReadAll();
     }
   }
 
   /**
-   * Sets the entire red channel to the given color.
+   * Sets the TileExecutor that per-pixel operations on this Image are split
+   * across. Operators passed to this Image are called from several threads at
+   * once and should not edit this Image themselves.
+   * 
+   * @param executor TileExecutor to use, or null for the default
+   */
+  public void setExecutor(TileExecutor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Returns the TileExecutor that per-pixel operations on this Image use.
+   * 
+   * @return the TileExecutor for this Image
+   */
+  public TileExecutor getExecutor() {
+    TileExecutor e = executor;
+    return e == null ? TileExecutor.getDefault() : e;
+  }
+
+  TileExecutor tileExecutor() {
+    return getExecutor();
+  }
+
+  /**
+   * Sets the entire red channel to the given color, clamped to 0-255.
    * 
    * @param color Int to set all the red channel to.
    */
   public void setRedChannel(int color) {
-    synchronized(im) {
-      for (int i = 0; i < width(); i++) {
-        for (int j = 0; j < height(); j++) {
-          setPixel(i, j, getPixel(i, j).setRed(color));
-        }
-      }
-    }
+    setChannel(16, color);
   }
 
   /**
-   * Uses a lambda expression to set the chanel.
+   * Uses a lambda expression to set the chanel. The operator is called for
+   * every pixel, and results are clamped to 0-255. For operators that only
+   * depend on the channel value, applyLut(Lut.red(operator)) calls it once
+   * per value instead.
    * 
    * @param operator The UnaryOperator to set the entire channel.
    */
   public void setRedChannel(UnaryOperator<Integer> operator) {
-    synchronized(im) {
-      for (int i = 0; i < width(); i++) {
-        for (int j = 0; j < height(); j++) {
-          setPixel(i, j, getPixel(i, j).setRed(operator));
-        }
-      }
-    }
+    mapRGB(n -> Color.withRed(n, operator.apply(Color.red(n))));
   }
 
   /**
-   * Sets the entire green channel to the given color.
+   * Sets the entire green channel to the given color, clamped to 0-255.
    * 
    * @param color Int to set all the green channel to.
    */
   public void setGreenChannel(int color) {
-    synchronized(im) {
-      for (int i = 0; i < width(); i++) {
-        for (int j = 0; j < height(); j++) {
-          setPixel(i, j, getPixel(i, j).setGreen(color));
-        }
-      }
-    }
+    setChannel(8, color);
   }
 
   /**
-   * Uses a lambda expression to set the chanel.
+   * Uses a lambda expression to set the chanel. The operator is called for
+   * every pixel, and results are clamped to 0-255. For operators that only
+   * depend on the channel value, applyLut(Lut.green(operator)) calls it once
+   * per value instead.
    * 
    * @param operator The UnaryOperator to set the entire channel.
    */
   public void setGreenChannel(UnaryOperator<Integer> operator) {
-    synchronized(im) {
-      for (int i = 0; i < width(); i++) {
-        for (int j = 0; j < height(); j++) {
-          setPixel(i, j, getPixel(i, j).setGreen(operator));
-        }
-      }
-    }
+    mapRGB(n -> Color.withGreen(n, operator.apply(Color.green(n))));
   }
 
   /**
-   * Sets the entire blue channel to the given color.
+   * Sets the entire blue channel to the given color, clamped to 0-255.
    * 
    * @param color Int to set all the blue channel to.
    */
   public void setBlueChannel(int color) {
-    synchronized(im) {
-      for (int i = 0; i < width(); i++) {
-        for (int j = 0; j < height(); j++) {
-          setPixel(i, j, getPixel(i, j).setBlue(color));
-        }
-      }
-    }
+    setChannel(0, color);
   }
 
   /**
-   * Uses a lambda expression to set the chanel.
+   * Uses a lambda expression to set the chanel. The operator is called for
+   * every pixel, and results are clamped to 0-255. For operators that only
+   * depend on the channel value, applyLut(Lut.blue(operator)) calls it once
+   * per value instead.
    * 
    * @param operator The UnaryOperator to set the entire channel.
    */
   public void setBlueChannel(UnaryOperator<Integer> operator) {
-    synchronized(im) {
-      for (int i = 0; i < width(); i++) {
-        for (int j = 0; j < height(); j++) {
-          setPixel(i, j, getPixel(i, j).setBlue(operator));
-        }
-      }
+    mapRGB(n -> Color.withBlue(n, operator.apply(Color.blue(n))));
+  }
+
+  private void setChannel(int shift, int color) {
+    ChannelKernels k = ChannelKernels.get();
+    int value = ChannelKernels.clamp(color);
+    mapRows((pixels, start, end) -> k.setChannel(pixels, start, end, shift,
+        value));
+  }
+
+  /**
+   * Inverts every channel, so each value v becomes 255 - v.
+   */
+  public void invert() {
+    ChannelKernels k = ChannelKernels.get();
+    mapRows(k::invert);
+  }
+
+  /**
+   * Multiplies each channel by a factor, clamping at 255. Factors are
+   * rounded to 256ths.
+   * 
+   * @param red Factor for the red channel, 0 or more.
+   * @param green Factor for the green channel, 0 or more.
+   * @param blue Factor for the blue channel, 0 or more.
+   */
+  public void scaleChannels(double red, double green, double blue) {
+    int r = fixed(red);
+    int g = fixed(green);
+    int b = fixed(blue);
+    ChannelKernels k = ChannelKernels.get();
+    mapRows((pixels, start, end) -> k.scale(pixels, start, end, r, g, b));
+  }
+
+  /**
+   * Stretches every channel away from the middle gray by contrast, then adds
+   * brightness, clamping to 0 to 255. A contrast of 1 and brightness of 0
+   * leave the image as it is. Contrast is rounded to 256ths.
+   * 
+   * @param brightness Amount added to each channel, from -255 to 255.
+   * @param contrast Factor to stretch by, 0 or more.
+   */
+  public void brightnessContrast(int brightness, double contrast) {
+    if (brightness < -255 || brightness > 255) {
+      throw new IllegalArgumentException(
+          "Brightness must be from -255 to 255.");
     }
+    int c = fixed(contrast);
+    ChannelKernels k = ChannelKernels.get();
+    mapRows((pixels, start, end) -> k.brightnessContrast(pixels, start, end,
+        brightness, c));
+  }
+
+  /**
+   * Converts a factor to 256ths, small enough that no channel overflows.
+   */
+  private static int fixed(double factor) {
+    if (!(factor >= 0 && factor <= 256)) {
+      throw new IllegalArgumentException("Factor must be from 0 to 256.");
+    }
+    return (int) Math.round(factor * 256);
   }
 
   /**
@@ -138,13 +289,7 @@ public class Image extends BaseImage {
    * @param operator The UnaryOperator to set all of the channels.
    */
   public void setChannels(UnaryOperator<Color> operator) {
-    synchronized(im) {
-      for (int i = 0; i < width(); i++) {
-        for (int j = 0; j < height(); j++) {
-          setPixel(i, j, getPixel(i, j).setColor(operator));
-        }
-      }
-    }
+    mapRGB(n -> operator.apply(Color.ofRGB(n)).toRGB());
   }
 
   /**
@@ -155,30 +300,39 @@ public class Image extends BaseImage {
    *          the image.
    */
   public void setChannelsAtPixel(UnaryOperator<int[]> operator) {
-    synchronized(im) {
-      for (int i = 0; i < width(); i++) {
-        for (int j = 0; j < height(); j++) {
-          final int x = i;
-          final int y = j;
-          setPixel(i, j, new Color(operator.apply(new int[] { x, y })));
+    lock.writeAll();
+    try {
+      Metrics.Probe probe = Metrics.start("channels");
+      int w = width();
+      getExecutor().forEachBand(w, height(), lock.lend((start, end) -> {
+        int[] row = new int[w];
+        for (int y = start; y < end; y++) {
+          for (int x = 0; x < w; x++) {
+            int[] c = operator.apply(new int[] { x, y });
+            if (c.length != 3) {
+              throw new Color.ColorException(
+                  "Color array must contatain exactly 3 elements.");
+            }
+            row[x] = Color.pack(c[0], c[1], c[2]);
+          }
+          writeRGB(0, y, w, 1, row, 0, w);
         }
-      }
+      }));
+      Metrics.end(probe, (long) w * height());
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
   /**
-   * Uses a lambda expression to set all channels.
+   * Uses a lambda expression to set all channels. Like setRedChannel(), the
+   * operator is called for every pixel and results are clamped to 0-255.
    * 
    * @param operator The UnaryOperator to set all of the channels.
    */
   public void setAllChannels(UnaryOperator<Integer> operator) {
-    synchronized(im) {
-      for (int i = 0; i < width(); i++) {
-        for (int j = 0; j < height(); j++) {
-          setPixel(i, j, getPixel(i, j).setAllColor(operator));
-        }
-      }
-    }
+    mapRGB(n -> Color.pack(operator.apply(Color.red(n)),
+        operator.apply(Color.green(n)), operator.apply(Color.blue(n))));
   }
 
   /**
@@ -190,20 +344,325 @@ public class Image extends BaseImage {
    */
 
   public void impose(BaseImage image, Color colorKey) {
-    synchronized(im) {
-      if (image.width() != width() || image.height() != height()) {
+    lock.lockWith(image.lock, true);
+    try {
+      int w = width();
+      if (image.width() != w || image.height() != height()) {
         return;
       }
-      for (int x = 0; x < image.width(); x++) {
-        for (int y = 0; y < image.width(); y++) {
-          if (!(image.getPixel(x, y).equals(colorKey))) {
-            setPixel(x, y, image.getPixel(x, y));
+      Metrics.Probe probe = Metrics.start("impose");
+      int key = colorKey.toRGB();
+      ChannelKernels k = ChannelKernels.get();
+      int[] data = getPixelData();
+      int[] from = image.getPixelData();
+      getExecutor().forEachBand(w, height(), (start, end) -> {
+        if (data != null && from != null) {
+          k.impose(data, from, start * w, end * w, key);
+          return;
+        }
+        int[] row = new int[w];
+        int[] over = new int[w];
+        for (int y = start; y < end; y++) {
+          image.readRGB(0, y, w, 1, over, 0, w);
+          readRGB(0, y, w, 1, row, 0, w);
+          k.impose(row, over, 0, w, key);
+          writeRGB(0, y, w, 1, row, 0, w);
+        }
+      });
+      Metrics.end(probe, (long) w * height());
+    } finally {
+      lock.unlockWith(image.lock, true);
+    }
+  }
+
+  /**
+   * Convolves the image with a kernel, such as Kernel.sharpen(). Each
+   * channel becomes the weighted sum of the pixels under the kernel plus its
+   * bias, clamped to 0 to 255. Separable kernels run as two 1-D passes.
+   *
+   * @param kernel Kernel to convolve with.
+   * @param edge How pixels past the border of the image are read. Any mode
+   *          but SKIP.
+   */
+  public void convolve(Kernel kernel, EdgeMode edge) {
+    lock.writeAll();
+    try {
+      Metrics.Probe probe = Metrics.start("convolve");
+      filter(kernel, edge, false);
+      Metrics.end(probe, (long) width() * height());
+    } finally {
+      lock.unlockWriteAll();
+    }
+  }
+
+  /**
+   * Replaces each channel with the strength of its edges: the root of the
+   * sum of the squares of the kernel's result and its transpose's, such as
+   * Kernel.sobel() or Kernel.scharr() for horizontal and vertical change.
+   *
+   * @param kernel Kernel for horizontal change.
+   * @param edge How pixels past the border of the image are read. Any mode
+   *          but SKIP.
+   */
+  public void edges(Kernel kernel, EdgeMode edge) {
+    lock.writeAll();
+    try {
+      Metrics.Probe probe = Metrics.start("edges");
+      filter(kernel, edge, true);
+      Metrics.end(probe, (long) width() * height());
+    } finally {
+      lock.unlockWriteAll();
+    }
+  }
+
+  /**
+   * Runs the Convolver from a copy of the pixels back into the image. Mapped
+   * images are copied into a temporary mapped file and convolved tile by
+   * tile from it.
+   */
+  private void filter(Kernel kernel, EdgeMode edge, boolean gradient) {
+    if (edge == EdgeMode.SKIP) {
+      throw new IllegalArgumentException("Kernels can not skip edges.");
+    }
+    int w = width();
+    int h = height();
+    if (mapped != null) {
+      BaseImage source = blank(w, h);
+      copyTo(source);
+      if (gradient) {
+        Convolver.gradient(source, this, kernel, edge, getExecutor());
+      } else {
+        Convolver.convolve(source, this, kernel, edge, getExecutor());
+      }
+      return;
+    }
+    int[] src = new int[w * h];
+    readRGB(0, 0, w, h, src, 0, w);
+    int[] data = getPixelData();
+    int[] dst = data != null ? data : new int[w * h];
+    if (gradient) {
+      Convolver.gradient(src, dst, w, h, kernel, edge, getExecutor());
+    } else {
+      Convolver.convolve(src, dst, w, h, kernel, edge, getExecutor());
+    }
+    if (data == null) {
+      writeRGB(0, 0, w, h, dst, 0, w);
+    }
+  }
+
+  /**
+   * Replaces each pixel with the mean of the square around it. Only pixels
+   * inside the image are counted, so edges are not darkened or repeated.
+   * Takes the same time for any radius.
+   *
+   * @param radius Distance from the center pixel to the edge of the square.
+   */
+  public void meanFilter(int radius) {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Radius can not be negative.");
+    }
+    lock.writeAll();
+    try {
+      Metrics.Probe probe = Metrics.start("meanFilter");
+      IntegralImage table = new IntegralImage(this);
+      int w = width();
+      int h = height();
+      getExecutor().forEachBand(w, h, (start, end) -> {
+        int[] row = new int[w];
+        for (int y = start; y < end; y++) {
+          int y0 = Math.max(y - radius, 0);
+          int y1 = Math.min(y + radius + 1, h);
+          for (int x = 0; x < w; x++) {
+            int x0 = Math.max(x - radius, 0);
+            int x1 = Math.min(x + radius + 1, w);
+            long n = (long) (x1 - x0) * (y1 - y0);
+            long r = table.sum(IntegralImage.RED, x0, y0, x1, y1);
+            long g = table.sum(IntegralImage.GREEN, x0, y0, x1, y1);
+            long b = table.sum(IntegralImage.BLUE, x0, y0, x1, y1);
+            row[x] = Color.pack((int) ((r + n / 2) / n),
+                (int) ((g + n / 2) / n), (int) ((b + n / 2) / n));
           }
+          writeRGB(0, y, w, 1, row, 0, w);
         }
+      });
+      Metrics.end(probe, (long) w * h);
+    } finally {
+      lock.unlockWriteAll();
+    }
+  }
+
+  /**
+   * Turns the image black and white by comparing each pixel's brightness
+   * with the mean brightness of the square around it, so uneven lighting
+   * does not matter. Pixels brighter than the local mean less offset become
+   * white and the rest black.
+   *
+   * @param radius Distance from the center pixel to the edge of the square.
+   * @param offset how far below the local mean a pixel can be and still be
+   *          white, from 0 to 255
+   */
+  public void adaptiveThreshold(int radius, double offset) {
+    if (radius < 0) {
+      throw new IllegalArgumentException("Radius can not be negative.");
+    }
+    lock.writeAll();
+    try {
+      Metrics.Probe probe = Metrics.start("adaptiveThreshold");
+      IntegralImage table = new IntegralImage(this);
+      int w = width();
+      int h = height();
+      getExecutor().forEachBand(w, h, (start, end) -> {
+        int[] row = new int[w];
+        for (int y = start; y < end; y++) {
+          readRGB(0, y, w, 1, row, 0, w);
+          int y0 = Math.max(y - radius, 0);
+          int y1 = Math.min(y + radius + 1, h);
+          for (int x = 0; x < w; x++) {
+            int x0 = Math.max(x - radius, 0);
+            int x1 = Math.min(x + radius + 1, w);
+            long n = (long) (x1 - x0) * (y1 - y0);
+            double mean = (0.299 * table.sum(IntegralImage.RED, x0, y0, x1,
+                y1) + 0.587 * table.sum(IntegralImage.GREEN, x0, y0, x1, y1)
+                + 0.114 * table.sum(IntegralImage.BLUE, x0, y0, x1, y1)) / n;
+            int p = row[x];
+            double luma = 0.299 * Color.red(p) + 0.587 * Color.green(p)
+                + 0.114 * Color.blue(p);
+            row[x] = luma > mean - offset ? 0xFFFFFF : 0;
+          }
+          writeRGB(0, y, w, 1, row, 0, w);
+        }
+      });
+      Metrics.end(probe, (long) w * h);
+    } finally {
+      lock.unlockWriteAll();
+    }
+  }
+
+  /**
+   * Starts a Pipeline that records edits to this Image and runs them
+   * together when execute() is called.
+   * 
+   * @return a new, empty Pipeline for this Image
+   */
+  public Pipeline pipeline() {
+    return new Pipeline(this);
+  }
+
+  /**
+   * Applies a Lut to every pixel of the image. Faster than the channel
+   * methods for any operator that only depends on the channel value, such as
+   * curves and levels.
+   * 
+   * @param lut Lut to apply.
+   */
+  public void applyLut(Lut lut) {
+    mapRows(lut::apply);
+  }
+
+  /**
+   * Reduces the image to at most colors colors, picked by median cut.
+   *
+   * @param colors largest number of colors, 1 to 256
+   * @param dither how to spread the colors that are lost
+   */
+  public void quantize(int colors, Dither dither) {
+    quantize(Palette.medianCut(this, colors), dither);
+  }
+
+  /**
+   * Replaces every pixel with a color from palette.
+   *
+   * @param palette Palette to take colors from
+   * @param dither how to spread the colors that are not in the palette
+   * @throws UnsupportedOperationException if the image is memory mapped and
+   *           has 2^31 pixels or more
+   */
+  public void quantize(Palette palette, Dither dither) {
+    lock.writeAll();
+    try {
+      int w = width();
+      int h = height();
+      if ((long) w * h >= Integer.MAX_VALUE) {
+        throw new UnsupportedOperationException(
+            "Image is too large to quantize.");
+      }
+      Metrics.Probe probe = Metrics.start("quantize");
+      int[] data = getPixelData();
+      int[] pixels = data;
+      if (pixels == null) {
+        pixels = new int[w * h];
+        readRGB(0, 0, w, h, pixels, 0, w);
+      }
+      byte[] index = new byte[w * h];
+      palette.map(pixels, null, 0, w, w, h, index, 0, dither, getExecutor());
+      for (int i = 0; i < index.length; i++) {
+        pixels[i] = palette.getRGB(index[i] & 0xFF);
+      }
+      if (data == null) {
+        writeRGB(0, 0, w, h, pixels, 0, w);
       }
+      Metrics.end(probe, (long) w * h);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
+  /**
+   * Applies operator to every packed 0xRRGGBB pixel of the image. Rows are
+   * split into bands which are run in parallel by the executor.
+   * 
+   * @param operator function from the old packed pixel to the new one
+   */
+  protected void mapRGB(IntUnaryOperator operator) {
+    mapRows((pixels, start, end) -> {
+      for (int i = start; i < end; i++) {
+        pixels[i] = operator.applyAsInt(pixels[i] & 0xFFFFFF) & 0xFFFFFF;
+      }
+    });
+  }
+
+  /**
+   * Hands every pixel of the image to operator as runs of packed 0xRRGGBB
+   * pixels, either straight from the backing array or from a row buffer that
+   * is written back afterwards. Runs are handed out in parallel by the
+   * executor, with the image's lock lent to them, so operator can read the
+   * image without waiting on the thread that is waiting for it.
+   * 
+   * @param operator work to do on each run of pixels
+   */
+  protected void mapRows(PixelRun operator) {
+    lock.writeAll();
+    try {
+      Metrics.Probe probe = Metrics.start("channels");
+      int w = width();
+      int[] data = getPixelData();
+      getExecutor().forEachBand(w, height(), lock.lend((start, end) -> {
+        if (data != null) {
+          operator.apply(data, start * w, end * w);
+          return;
+        }
+        int[] row = new int[w];
+        for (int y = start; y < end; y++) {
+          readRGB(0, y, w, 1, row, 0, w);
+          operator.apply(row, 0, w);
+          writeRGB(0, y, w, 1, row, 0, w);
+        }
+      }));
+      Metrics.end(probe, (long) w * height());
+    } finally {
+      lock.unlockWriteAll();
+    }
+  }
+
+  /**
+   * Work done on a run of packed pixels from start up to but not including
+   * end. Pixels must be left as 0xRRGGBB values.
+   */
+  @FunctionalInterface
+  protected interface PixelRun {
+    void apply(int[] pixels, int start, int end);
+  }
+
   /**
    * Resizes Image based on a new Width and Height.
    * 
@@ -212,6 +671,8 @@ public class Image extends BaseImage {
    * @param hint Hint as to what type of scaling to use.
    */
   public void resize(int width, int height, int hint) {
+    Metrics.Probe probe = hint >= 0 && hint < HINTS.length
+        ? Metrics.start("resize.", HINTS[hint]) : null;
     switch (hint) {
     case (0):
       scaleNearest(width, height);
@@ -219,7 +680,17 @@ public class Image extends BaseImage {
     case (1):
       scaleBilinear(width, height);
       break;
+    case (2):
+      scaleFiltered(width, height, Resampler.Filter.AREA_AVERAGE);
+      break;
+    case (3):
+      scaleFiltered(width, height, Resampler.Filter.LANCZOS3);
+      break;
+    case (4):
+      scaleFiltered(width, height, Resampler.Filter.MITCHELL);
+      break;
     }
+    Metrics.end(probe, (long) width * height);
   }
 
   /**
@@ -239,7 +710,9 @@ public class Image extends BaseImage {
    * @param height Height of the new Image.
    */
   public void resize(int width, int height) {
+    Metrics.Probe probe = Metrics.start("resize.", HINTS[0]);
     scaleNearest(width, height);
+    Metrics.end(probe, (long) width * height);
   }
 
   /**
@@ -248,7 +721,7 @@ public class Image extends BaseImage {
    * @param scale Scale of the new Image.
    */
   public void scale(double scale) {
-    scale((int) (width() * scale), (int) (height() * scale));
+    resize((int) (width() * scale), (int) (height() * scale));
   }
 
   /**
@@ -259,22 +732,19 @@ public class Image extends BaseImage {
    * @param height Height of the new Image.
    * 
    */
-  protected synchronized void scaleNearest(int width, int height) {
-    synchronized(im) {
-      Image P2 = new Image(width, height);
-      for (int i = 0; i < width; i++) {
-        for (int j = 0; j < height; j++) {
-          int[] c = new int[3];
-          for (int k = 0; k < c.length; k++) {
-            double I = (double) width() * i / width, J = (double) height() * j
-                / height;
-            c[k] = getPixel((int) Math.min((int) (I), width() - 1),
-                (int) Math.min((int) (J), height() - 1)).getArray()[k];
-          }
-          P2.setPixel(i, j, new Color(c));
-        }
+  protected void scaleNearest(int width, int height) {
+    lock.writeAll();
+    try {
+      BaseImage P2 = blank(width, height);
+      if (mapped != null) {
+        Resampler.nearest(this, P2, getExecutor());
+      } else {
+        Resampler.nearest(pixelArray(), width(), height(), P2.getPixelData(),
+            width, height, getExecutor());
       }
       setImage(P2);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
@@ -287,78 +757,124 @@ public class Image extends BaseImage {
    * 
    * @author Andrew
    */
-  protected synchronized void scaleBilinear(int width, int height) {
-    synchronized(im) {
-      Image P2 = new Image(width, height);
-      for (int i = 0; i < width; i++) {
-        for (int j = 0; j < height; j++) {
-          int[] c = new int[3];
-          for (int k = 0; k < c.length; k++) {
-            double I = (double) width() * i / width, J = (double) height() * j
-                / height;
-            c[k] = (int) (((1 - I % 1) * (1 - J % 1))
-                * getPixel((int) I, (int) J).getArray()[k]
-                + ((I % 1) * (J % 1))
-                * getPixel(Math.min((int) I + 1, width() - 1),
-                    Math.min((int) J + 1, height() - 1)).getArray()[k]
-                + ((1 - I % 1) * (J % 1))
-                * getPixel((int) I, Math.min((int) J + 1, height() - 1))
-                    .getArray()[k] + ((I % 1) * (1 - J % 1))
-                * getPixel(Math.min((int) I + 1, width() - 1), (int) J)
-                    .getArray()[k]);
-          }
-          P2.setPixel(i, j, new Color(c));
-        }
+  protected void scaleBilinear(int width, int height) {
+    lock.writeAll();
+    try {
+      BaseImage P2 = blank(width, height);
+      if (mapped != null) {
+        Resampler.bilinear(this, P2, getExecutor());
+      } else {
+        Resampler.bilinear(pixelArray(), width(), height(), P2.getPixelData(),
+            width, height, getExecutor());
+      }
+      setImage(P2);
+    } finally {
+      lock.unlockWriteAll();
+    }
+  }
+
+  /**
+   * Scaling with a separable filter, for the area average, lanczos and
+   * mitchell hints. The weight tables are cached and shared by every Image
+   * scaled between the same sizes.
+   * 
+   * @param width Width of the new Image.
+   * @param height Height of the new Image.
+   * @param filter Filter to weight source pixels with.
+   */
+  protected void scaleFiltered(int width, int height,
+      Resampler.Filter filter) {
+    lock.writeAll();
+    try {
+      BaseImage P2 = blank(width, height);
+      if (mapped != null) {
+        Resampler.filtered(this, P2, filter, getExecutor());
+      } else {
+        Resampler.filtered(pixelArray(), width(), height(),
+            P2.getPixelData(), width, height, filter, getExecutor());
       }
       setImage(P2);
+    } finally {
+      lock.unlockWriteAll();
     }
   }
 
   /**
-   * Blurs an image based on a radius
+   * Blurs an image based on a radius. Each pixel becomes the root mean square
+   * of the part of the square around it that is inside the image.
    * 
    * @param radius Width of the square area used to blur.
    * 
    */
   public void blur(int radius) {
-    synchronized(im) {
-      for (int x = 0; x < width(); x++) {
-        for (int y = 0; y < height(); y++) {
-          long[] colorDat = new long[3];
-          int count = 0;
-          for (int i = -radius; i <= radius; i++) {
-            for (int j = -radius; j <= radius; j++) {
-              try {
-                colorDat[0] += Math.pow(getPixel(x + i, y + j).getRed(), 2);
-                colorDat[1] += Math.pow(getPixel(x + i, y + j).getGreen(), 2);
-                colorDat[2] += Math.pow(getPixel(x + i, y + j).getBlue(), 2);
-                count++;
-              } catch (IndexOutOfBoundsException e) {
-  
-              }
-            }
-          }
-          setPixel(
-              x,
-              y,
-              new Color((int) Math.sqrt(colorDat[0] / count), (int) Math
-                  .sqrt(colorDat[1] / count), (int) Math
-                  .sqrt(colorDat[2] / count)));
-        }
+    blur(radius, EdgeMode.SKIP, true);
+  }
+
+  /**
+   * Blurs an image based on a radius. Takes the same time for any radius.
+   * 
+   * @param radius Width of the square area used to blur.
+   * @param edge How pixels past the border of the image are read.
+   * @param rootMeanSquare true to average the squares of each channel, as
+   *          blur(int) does, or false for a plain average.
+   */
+  public void blur(int radius, EdgeMode edge, boolean rootMeanSquare) {
+    Metrics.Probe probe = Metrics.start("blur");
+    blur(new int[] { radius }, edge, rootMeanSquare);
+    Metrics.end(probe, (long) width() * height());
+  }
+
+  /**
+   * Approximates a gaussian blur with three box blurs. Takes the same time for
+   * any sigma.
+   * 
+   * @param sigma Standard deviation of the gaussian, in pixels.
+   * @param edge How pixels past the border of the image are read.
+   */
+  public void gaussianBlur(double sigma, EdgeMode edge) {
+    Metrics.Probe probe = Metrics.start("gaussianBlur");
+    blur(Blur.gaussianRadii(sigma, 3), edge, false);
+    Metrics.end(probe, (long) width() * height());
+  }
+
+  /**
+   * Runs one box blur pass per radius into a scratch buffer, then writes the
+   * result back. Mapped images are blurred a row at a time instead.
+   */
+  private void blur(int[] radii, EdgeMode edge, boolean rootMeanSquare) {
+    lock.writeAll();
+    try {
+      if (mapped != null) {
+        Blur.blur(this, radii, edge, rootMeanSquare, getExecutor());
+        return;
       }
+      int w = width();
+      int h = height();
+      int[] data = getPixelData();
+      int[] pixels = data != null ? data : new int[w * h];
+      if (data == null) {
+        readRGB(0, 0, w, h, pixels, 0, w);
+      }
+      Blur.blur(pixels, w, h, radii, edge, rootMeanSquare, getExecutor());
+      if (data == null) {
+        writeRGB(0, 0, w, h, pixels, 0, w);
+      }
+    } finally {
+      lock.unlockWriteAll();
     }
   }
   
   /**
    * Saves the Image using threads.
    * This is used to save large files and not take up as much processing time.
+   * A copy of the Image is queued, so it can be changed right away.
    * 
    * @param fileName Name of the file to save. Must contain extension.
+   * @return future completed once the file is written, or exceptionally if
+   *         it could not be saved
    */
-  public synchronized void concurrentSave(String fileName) {
-    synchronized(im) {
-      SavePipe s = SavePipe.getPipe();
-      s.save(this.clone(), fileName);
-    }
+  public CompletableFuture<Void> concurrentSave(String fileName) {
+    SavePipe s = SavePipe.getPipe();
+    return s.save(this.clone(), fileName);
   } 
 }
@@ -0,0 +1,108 @@
+package jImage;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Differences between two images of the same size, made by BaseImage.diff().
+ * Holds the area that changed, both as one bounding box and as the list of
+ * tiles with any change, and how large the change was. ImageDiffs are
+ * immutable.
+ *
+ * @author Cy
+ *
+ */
+public final class ImageDiff {
+  private final int width;
+  private final int height;
+  private final long changedPixels;
+  private final int maxDelta;
+  private final long squaredError;
+  private final Region bounds;
+  private final List<Region> tiles;
+
+  ImageDiff(int width, int height, long changedPixels, int maxDelta,
+      long squaredError, Region bounds, List<Region> tiles) {
+    this.width = width;
+    this.height = height;
+    this.changedPixels = changedPixels;
+    this.maxDelta = maxDelta;
+    this.squaredError = squaredError;
+    this.bounds = bounds;
+    this.tiles = Collections.unmodifiableList(tiles);
+  }
+
+  /**
+   * Returns true if no pixel changed.
+   *
+   * @return boolean representing equality
+   */
+  public boolean isIdentical() {
+    return changedPixels == 0;
+  }
+
+  /**
+   * Returns the number of pixels where any channel changed.
+   *
+   * @return long count of changed pixels
+   */
+  public long getChangedPixels() {
+    return changedPixels;
+  }
+
+  /**
+   * Returns the largest change of a single channel of a single pixel, 0-255.
+   *
+   * @return int describing the largest change
+   */
+  public int getMaxDelta() {
+    return maxDelta;
+  }
+
+  /**
+   * Returns the mean squared error over every channel of every pixel.
+   *
+   * @return double describing the mean squared error
+   */
+  public double getMeanSquaredError() {
+    long samples = 3L * width * height;
+    return samples == 0 ? 0 : (double) squaredError / samples;
+  }
+
+  /**
+   * Returns the peak signal to noise ratio in decibels, or positive infinity
+   * if the images are the same.
+   *
+   * @return double describing the PSNR
+   */
+  public double getPSNR() {
+    double mse = getMeanSquaredError();
+    return mse == 0 ? Double.POSITIVE_INFINITY
+        : 10 * Math.log10(255.0 * 255.0 / mse);
+  }
+
+  /**
+   * Returns the smallest region holding every changed pixel, or null if no
+   * pixel changed.
+   *
+   * @return Region of the change, or null
+   */
+  public Region getBounds() {
+    return bounds;
+  }
+
+  /**
+   * Returns the tiles with at least one changed pixel, in rows from the top
+   * left. Tiles on the right and bottom edges may be smaller than the rest.
+   *
+   * @return unmodifiable List of changed tiles
+   */
+  public List<Region> getChangedTiles() {
+    return tiles;
+  }
+
+  public String toString() {
+    return changedPixels + " changed pixels, max delta " + maxDelta
+        + ", PSNR " + getPSNR() + " dB";
+  }
+}
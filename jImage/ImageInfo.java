@@ -0,0 +1,51 @@
+package jImage;
+
+/**
+ * Size and format of an image file, read from its header without decoding
+ * the pixels.
+ *
+ * @author Cy
+ *
+ */
+public final class ImageInfo {
+  private final int width;
+  private final int height;
+  private final String format;
+
+  ImageInfo(int width, int height, String format) {
+    this.width = width;
+    this.height = height;
+    this.format = format;
+  }
+
+  /**
+   * Returns the width of the image.
+   *
+   * @return int defining the image width
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the image.
+   *
+   * @return int defining the image height
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the name of the file format, such as "png" or "JPEG".
+   *
+   * @return String naming the format
+   */
+  public String getFormat() {
+    return format;
+  }
+
+  public String toString() {
+    return format + " " + width + "x" + height;
+  }
+}
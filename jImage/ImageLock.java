@@ -0,0 +1,231 @@
+package jImage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Locks guarding one image. Rows are split into stripes, each with its own
+ * read/write lock, so writers of rows in different stripes run at the same
+ * time and readers never block each other. Work on the whole image, such as a
+ * resize, takes every stripe. A StampedLock guards the BufferedImage itself
+ * being replaced, so the size can be read optimistically without waiting for
+ * anything else.
+ *
+ * Stripes are always taken in ascending order, and are reentrant, except
+ * that a read lock can not be turned into a write lock. In thread-confined
+ * mode nothing is locked.
+ *
+ * Work that reads a second image locks both with lockWith(), which takes
+ * every pair of locks in the order they were made, so two threads locking
+ * the same two images can not each hold one and wait for the other.
+ *
+ * A thread holding the whole image that hands bands of work to a pool lends
+ * its lock to them with lend(). While a lent band runs, its thread does not
+ * lock this image at all, since only the waiting holder could let it in.
+ *
+ * @author Cy
+ *
+ */
+final class ImageLock {
+  /**
+   * Number of stripe locks. Rows are given to stripes in blocks of
+   * STRIPE_ROWS, wrapping round, so images of any height share the same locks.
+   */
+  private static final int STRIPES = 16;
+  private static final int STRIPE_ROWS = 64;
+
+  private final ReentrantReadWriteLock[] stripes =
+      new ReentrantReadWriteLock[STRIPES];
+  final StampedLock shape = new StampedLock();
+  private volatile boolean confined = false;
+
+  /**
+   * Lock each thread is running a lent band of, and how many bands of this
+   * lock are running, so threads only look up LENT while there are some.
+   */
+  private static final ThreadLocal<ImageLock> LENT =
+      new ThreadLocal<ImageLock>();
+  private final AtomicInteger lent = new AtomicInteger();
+
+  /**
+   * Order locks are taken in when two are needed at once.
+   */
+  private static final AtomicLong MADE = new AtomicLong();
+  private final long order = MADE.getAndIncrement();
+
+  ImageLock() {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new ReentrantReadWriteLock();
+    }
+  }
+
+  /**
+   * Turns locking off or back on. Must only be called while no other thread
+   * is using the image.
+   */
+  void setConfined(boolean confined) {
+    this.confined = confined;
+  }
+
+  boolean isConfined() {
+    return confined;
+  }
+
+  /**
+   * Wraps operation so it runs with this lock lent to it. Must only be
+   * called by a thread holding the whole image, and the result only run
+   * while that thread waits for it.
+   */
+  TileExecutor.BandOperation lend(TileExecutor.BandOperation operation) {
+    return (startY, endY) -> {
+      ImageLock previous = LENT.get();
+      LENT.set(this);
+      lent.incrementAndGet();
+      try {
+        operation.apply(startY, endY);
+      } finally {
+        lent.decrementAndGet();
+        LENT.set(previous);
+      }
+    };
+  }
+
+  /**
+   * Returns whether nothing needs locking on this thread.
+   */
+  private boolean free() {
+    return confined || (lent.get() > 0 && LENT.get() == this);
+  }
+
+  /**
+   * Locks rows startY up to but not including endY for reading.
+   */
+  void read(int startY, int endY) {
+    if (free()) {
+      return;
+    }
+    stripes(startY, endY, false, true);
+  }
+
+  void unlockRead(int startY, int endY) {
+    if (free()) {
+      return;
+    }
+    stripes(startY, endY, false, false);
+  }
+
+  /**
+   * Locks rows startY up to but not including endY for writing.
+   */
+  void write(int startY, int endY) {
+    if (free()) {
+      return;
+    }
+    stripes(startY, endY, true, true);
+  }
+
+  void unlockWrite(int startY, int endY) {
+    if (free()) {
+      return;
+    }
+    stripes(startY, endY, true, false);
+  }
+
+  void readAll() {
+    read(0, Integer.MAX_VALUE);
+  }
+
+  void unlockReadAll() {
+    unlockRead(0, Integer.MAX_VALUE);
+  }
+
+  void writeAll() {
+    write(0, Integer.MAX_VALUE);
+  }
+
+  void unlockWriteAll() {
+    unlockWrite(0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Takes the whole of this lock, for writing if write is set or else for
+   * reading, and the whole of other for reading. The older lock is always
+   * taken first.
+   */
+  void lockWith(ImageLock other, boolean write) {
+    if (other == this) {
+      all(write, true);
+    } else if (order < other.order) {
+      all(write, true);
+      other.readAll();
+    } else {
+      other.readAll();
+      all(write, true);
+    }
+  }
+
+  void unlockWith(ImageLock other, boolean write) {
+    all(write, false);
+    if (other != this) {
+      other.unlockReadAll();
+    }
+  }
+
+  private void all(boolean write, boolean lock) {
+    if (write) {
+      if (lock) {
+        writeAll();
+      } else {
+        unlockWriteAll();
+      }
+    } else if (lock) {
+      readAll();
+    } else {
+      unlockReadAll();
+    }
+  }
+
+  /**
+   * Locks or unlocks the stripes holding rows startY up to endY, in
+   * ascending order.
+   */
+  private void stripes(int startY, int endY, boolean write, boolean lock) {
+    startY = Math.max(startY, 0);
+    if (endY <= startY) {
+      return;
+    }
+    int first = startY / STRIPE_ROWS;
+    int last = (endY - 1) / STRIPE_ROWS;
+    if (last - first + 1 >= STRIPES) {
+      range(0, STRIPES - 1, write, lock);
+      return;
+    }
+    first %= STRIPES;
+    last %= STRIPES;
+    if (first <= last) {
+      range(first, last, write, lock);
+    } else {
+      range(0, last, write, lock);
+      range(first, STRIPES - 1, write, lock);
+    }
+  }
+
+  private void range(int first, int last, boolean write, boolean lock) {
+    for (int i = first; i <= last; i++) {
+      ReentrantReadWriteLock s = stripes[i];
+      if (write) {
+        if (lock) {
+          s.writeLock().lock();
+        } else {
+          s.writeLock().unlock();
+        }
+      } else if (lock) {
+        s.readLock().lock();
+      } else {
+        s.readLock().unlock();
+      }
+    }
+  }
+}
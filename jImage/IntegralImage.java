@@ -0,0 +1,359 @@
+package jImage;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A summed-area table of an Image. Entry (x, y) of each channel holds the sum
+ * of that channel over every pixel above and to the left of it, so the sum,
+ * mean or variance of any rectangle takes four lookups however large it is.
+ *
+ * Sums are kept in ints when the image is small enough that they can not
+ * overflow, and in longs otherwise. Squared sums, needed for variance, are
+ * only kept when asked for. The table is a copy, so later edits to the Image
+ * do not change it.
+ *
+ * <pre>
+ * IntegralImage table = new IntegralImage(image, true);
+ * double mean = table.getMean(IntegralImage.RED, 10, 10, 64, 64);
+ * double variance = table.getVariance(IntegralImage.RED, 10, 10, 64, 64);
+ * </pre>
+ *
+ * @author Cy
+ *
+ */
+public final class IntegralImage {
+  public static final int RED = 0;
+  public static final int GREEN = 1;
+  public static final int BLUE = 2;
+
+  private final int width;
+  private final int height;
+
+  /**
+   * Row length of every table, one more than the width for the column of
+   * zeros on the left.
+   */
+  private final int scan;
+
+  /**
+   * Sums of red, green and blue, then the sums of their squares if kept.
+   */
+  private final Table[] tables;
+
+  /**
+   * Builds the table of an Image without squared sums.
+   *
+   * @param image Image to sum
+   */
+  public IntegralImage(BaseImage image) {
+    this(image, false);
+  }
+
+  /**
+   * Builds the table of an Image in one parallel pass over its pixels.
+   *
+   * @param image Image to sum
+   * @param squares also keep squared sums, so getVariance() can be used
+   */
+  public IntegralImage(BaseImage image, boolean squares) {
+    image.lock.readAll();
+    try {
+      width = image.width();
+      height = image.height();
+      scan = width + 1;
+      long size = (long) scan * (height + 1);
+      if (size > Integer.MAX_VALUE - 8) {
+        throw new IllegalArgumentException(
+            "Image is too large for an IntegralImage.");
+      }
+      long pixels = (long) width * height;
+      tables = new Table[squares ? 6 : 3];
+      for (int t = 0; t < tables.length; t++) {
+        long largest = t < 3 ? 255 : 255 * 255;
+        tables[t] = new Table((int) size,
+            pixels * largest <= Integer.MAX_VALUE);
+      }
+      build(image, image.tileExecutor());
+    } finally {
+      image.lock.unlockReadAll();
+    }
+  }
+
+  /**
+   * Each band sums its own rows as if it were the top of the image and
+   * keeps its last row. Once every band is done, the last rows of the bands
+   * above are added to each band, which only touches the tables.
+   */
+  private void build(BaseImage image, TileExecutor executor) {
+    TreeMap<Integer, long[][]> carries = new TreeMap<Integer, long[][]>();
+    executor.forEachBand(width, height, (start, end) -> {
+      int[] row = new int[width];
+      int[][] channels = new int[3][width];
+      for (int y = start; y < end; y++) {
+        image.readRGB(0, y, width, 1, row, 0, width);
+        for (int x = 0; x < width; x++) {
+          int p = row[x];
+          channels[0][x] = (p >> 16) & 0xFF;
+          channels[1][x] = (p >> 8) & 0xFF;
+          channels[2][x] = p & 0xFF;
+        }
+        int o = (y + 1) * scan + 1;
+        int above = y == start ? -1 : y * scan + 1;
+        for (int t = 0; t < tables.length; t++) {
+          tables[t].row(channels[t % 3], t >= 3, o, above, width);
+        }
+      }
+      long[][] last = new long[tables.length][];
+      for (int t = 0; t < tables.length; t++) {
+        last[t] = tables[t].copy(end * scan + 1, width);
+      }
+      synchronized (carries) {
+        carries.put(start, last);
+      }
+    });
+    if (carries.size() <= 1) {
+      return;
+    }
+    TreeMap<Integer, long[][]> offsets = new TreeMap<Integer, long[][]>();
+    long[][] carry = new long[tables.length][width];
+    for (Map.Entry<Integer, long[][]> e : carries.entrySet()) {
+      long[][] copy = new long[tables.length][];
+      for (int t = 0; t < tables.length; t++) {
+        copy[t] = carry[t].clone();
+        long[] last = e.getValue()[t];
+        for (int x = 0; x < width; x++) {
+          carry[t][x] += last[x];
+        }
+      }
+      offsets.put(e.getKey(), copy);
+    }
+    executor.forEachBand(width, height, (start, end) -> {
+      for (int y = start; y < end; y++) {
+        Map.Entry<Integer, long[][]> e = offsets.floorEntry(y);
+        if (e.getKey() == 0) {
+          continue;
+        }
+        for (int t = 0; t < tables.length; t++) {
+          tables[t].add((y + 1) * scan + 1, e.getValue()[t], width);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the width of the Image the table was built from.
+   *
+   * @return int width
+   */
+  public int width() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the Image the table was built from.
+   *
+   * @return int height
+   */
+  public int height() {
+    return height;
+  }
+
+  /**
+   * Returns whether squared sums were kept.
+   *
+   * @return true if getVariance() can be used
+   */
+  public boolean hasSquares() {
+    return tables.length == 6;
+  }
+
+  /**
+   * Returns the number of pixels of a rectangle that are inside the image.
+   * Every other query is over the same part of the rectangle.
+   *
+   * @param x left edge of the rectangle
+   * @param y top edge of the rectangle
+   * @param width Width of the rectangle.
+   * @param height Height of the rectangle.
+   * @return long count of pixels
+   */
+  public long getCount(int x, int y, int width, int height) {
+    int x0 = clip(x, this.width);
+    int y0 = clip(y, this.height);
+    int x1 = clip((long) x + Math.max(width, 0), this.width);
+    int y1 = clip((long) y + Math.max(height, 0), this.height);
+    return (long) (x1 - x0) * (y1 - y0);
+  }
+
+  /**
+   * Returns the sum of one channel over a rectangle. Parts of the rectangle
+   * outside the image are left out.
+   *
+   * @param channel RED, GREEN or BLUE
+   * @param x left edge of the rectangle
+   * @param y top edge of the rectangle
+   * @param width Width of the rectangle.
+   * @param height Height of the rectangle.
+   * @return long sum of the channel
+   */
+  public long getSum(int channel, int x, int y, int width, int height) {
+    return sum(tables[channel(channel)], x, y, width, height);
+  }
+
+  /**
+   * Returns the mean of one channel over a rectangle, or 0 if no part of it
+   * is inside the image.
+   *
+   * @param channel RED, GREEN or BLUE
+   * @param x left edge of the rectangle
+   * @param y top edge of the rectangle
+   * @param width Width of the rectangle.
+   * @param height Height of the rectangle.
+   * @return double mean from 0 to 255
+   */
+  public double getMean(int channel, int x, int y, int width, int height) {
+    long n = getCount(x, y, width, height);
+    return n == 0 ? 0 : (double) getSum(channel, x, y, width, height) / n;
+  }
+
+  /**
+   * Returns the mean color of a rectangle, rounded to the nearest color.
+   *
+   * @param x left edge of the rectangle
+   * @param y top edge of the rectangle
+   * @param width Width of the rectangle.
+   * @param height Height of the rectangle.
+   * @return Color of the mean
+   */
+  public Color getMean(int x, int y, int width, int height) {
+    return new Color((int) Math.round(getMean(RED, x, y, width, height)),
+        (int) Math.round(getMean(GREEN, x, y, width, height)),
+        (int) Math.round(getMean(BLUE, x, y, width, height)));
+  }
+
+  /**
+   * Returns the variance of one channel over a rectangle, or 0 if no part of
+   * it is inside the image. Needs the table to be built with squares.
+   *
+   * @param channel RED, GREEN or BLUE
+   * @param x left edge of the rectangle
+   * @param y top edge of the rectangle
+   * @param width Width of the rectangle.
+   * @param height Height of the rectangle.
+   * @return double variance
+   */
+  public double getVariance(int channel, int x, int y, int width,
+      int height) {
+    if (!hasSquares()) {
+      throw new IllegalStateException(
+          "IntegralImage was built without squared sums.");
+    }
+    long n = getCount(x, y, width, height);
+    if (n == 0) {
+      return 0;
+    }
+    int c = channel(channel);
+    double mean = (double) sum(tables[c], x, y, width, height) / n;
+    double squares = (double) sum(tables[c + 3], x, y, width, height) / n;
+    return Math.max(squares - mean * mean, 0);
+  }
+
+  /**
+   * Returns the sum of a channel from (x0, y0) up to but not including
+   * (x1, y1), which must already be inside the image.
+   */
+  long sum(int channel, int x0, int y0, int x1, int y1) {
+    Table t = tables[channel];
+    return t.get(y1 * scan + x1) - t.get(y0 * scan + x1)
+        - t.get(y1 * scan + x0) + t.get(y0 * scan + x0);
+  }
+
+  private long sum(Table t, int x, int y, int width, int height) {
+    int x0 = clip(x, this.width);
+    int y0 = clip(y, this.height);
+    int x1 = clip((long) x + Math.max(width, 0), this.width);
+    int y1 = clip((long) y + Math.max(height, 0), this.height);
+    if (x1 <= x0 || y1 <= y0) {
+      return 0;
+    }
+    return t.get(y1 * scan + x1) - t.get(y0 * scan + x1)
+        - t.get(y1 * scan + x0) + t.get(y0 * scan + x0);
+  }
+
+  private static int clip(long v, int n) {
+    return (int) Math.min(Math.max(v, 0), n);
+  }
+
+  private static int channel(int channel) {
+    if (channel < RED || channel > BLUE) {
+      throw new IllegalArgumentException(
+          "Channel must be RED, GREEN or BLUE.");
+    }
+    return channel;
+  }
+
+  /**
+   * One table of sums, held as ints or longs.
+   */
+  private static final class Table {
+    private final int[] ints;
+    private final long[] longs;
+
+    Table(int size, boolean small) {
+      ints = small ? new int[size] : null;
+      longs = small ? null : new long[size];
+    }
+
+    long get(int i) {
+      return ints != null ? ints[i] : longs[i];
+    }
+
+    /**
+     * Writes the running sum of values, or of their squares, plus the row
+     * starting at above, or nothing if above is negative, from offset o.
+     */
+    void row(int[] values, boolean square, int o, int above, int n) {
+      long run = 0;
+      if (ints != null) {
+        for (int x = 0; x < n; x++) {
+          int v = values[x];
+          run += square ? v * v : v;
+          ints[o + x] = (int) run + (above < 0 ? 0 : ints[above + x]);
+        }
+      } else {
+        for (int x = 0; x < n; x++) {
+          int v = values[x];
+          run += square ? v * v : v;
+          longs[o + x] = run + (above < 0 ? 0 : longs[above + x]);
+        }
+      }
+    }
+
+    long[] copy(int o, int n) {
+      long[] c = new long[n];
+      for (int x = 0; x < n; x++) {
+        c[x] = get(o + x);
+      }
+      return c;
+    }
+
+    void add(int o, long[] values, int n) {
+      if (ints != null) {
+        for (int x = 0; x < n; x++) {
+          ints[o + x] += (int) values[x];
+        }
+      } else {
+        for (int x = 0; x < n; x++) {
+          longs[o + x] += values[x];
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "IntegralImage[" + width + "x" + height
+        + (hasSquares() ? ", with squares]" : "]");
+  }
+}
@@ -0,0 +1,424 @@
+package jImage;
+
+import java.util.Arrays;
+
+/**
+ * A convolution kernel for Image.convolve(). Weights are laid over the image
+ * as given, row by row, with the center at (width / 2, height / 2). Kernels
+ * are immutable.
+ *
+ * A kernel is either floating point, or fixed point: integer weights and a
+ * divisor, which run in integer arithmetic and give exact results. Kernels
+ * that are the product of a column and a row, such as Sobel, Scharr and
+ * gaussian kernels, are found when they are made and run as two 1-D passes.
+ *
+ * <pre>
+ * image.convolve(Kernel.sharpen(), EdgeMode.CLAMP);
+ * image.convolve(Kernel.fixed(3, 3, 16, 1, 2, 1, 2, 4, 2, 1, 2, 1),
+ *     EdgeMode.MIRROR);
+ * </pre>
+ *
+ * @author Cy
+ *
+ */
+public final class Kernel {
+  private final int width;
+  private final int height;
+  private final float[] weights;
+  private final int[] fixed;
+  private final int divisor;
+  private final int bias;
+
+  /**
+   * Column and row the kernel is the product of, or null if it is not
+   * separable. Only one pair is set, matching the kind of kernel.
+   */
+  private final float[] columnF;
+  private final float[] rowF;
+  private final int[] columnI;
+  private final int[] rowI;
+
+  private Kernel(int width, int height, float[] weights, int[] fixed,
+      int divisor, int bias) {
+    if (width < 1 || height < 1 || weights.length != width * height) {
+      throw new IllegalArgumentException(
+          "Kernel needs width * height weights.");
+    }
+    this.width = width;
+    this.height = height;
+    this.weights = weights;
+    this.fixed = fixed;
+    this.divisor = divisor;
+    this.bias = bias;
+    float[][] f = null;
+    int[][] i = null;
+    if (width > 1 && height > 1) {
+      if (fixed != null) {
+        i = factor(fixed, width, height);
+      } else {
+        f = factor(weights, width, height);
+      }
+    }
+    columnF = f == null ? null : f[0];
+    rowF = f == null ? null : f[1];
+    columnI = i == null ? null : i[0];
+    rowI = i == null ? null : i[1];
+  }
+
+  /**
+   * Makes a floating point kernel.
+   *
+   * @param width Width of the kernel.
+   * @param height Height of the kernel.
+   * @param weights width * height weights, row by row
+   * @return the Kernel
+   */
+  public static Kernel of(int width, int height, float... weights) {
+    return new Kernel(width, height, weights.clone(), null, 1, 0);
+  }
+
+  /**
+   * Makes a fixed point kernel. Each output is the sum of weights times
+   * pixels divided by divisor, rounded.
+   *
+   * @param width Width of the kernel.
+   * @param height Height of the kernel.
+   * @param divisor positive number the weighted sum is divided by
+   * @param weights width * height weights, row by row
+   * @return the Kernel
+   */
+  public static Kernel fixed(int width, int height, int divisor,
+      int... weights) {
+    if (divisor < 1) {
+      throw new IllegalArgumentException("Divisor must be positive.");
+    }
+    long total = 0;
+    float[] w = new float[weights.length];
+    for (int k = 0; k < weights.length; k++) {
+      total += Math.abs((long) weights[k]);
+      w[k] = (float) weights[k] / divisor;
+    }
+    if (total * 255 > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Kernel weights are too large.");
+    }
+    return new Kernel(width, height, w, weights.clone(), divisor, 0);
+  }
+
+  /**
+   * Sharpens by subtracting the four neighbours from five times the center.
+   *
+   * @return fixed point 3 by 3 Kernel
+   */
+  public static Kernel sharpen() {
+    return fixed(3, 3, 1, 0, -1, 0, -1, 5, -1, 0, -1, 0);
+  }
+
+  /**
+   * Sharpens by amount, where 0 leaves the image as it is and 1 is the same
+   * as sharpen().
+   *
+   * @param amount strength of the sharpening
+   * @return floating point 3 by 3 Kernel
+   */
+  public static Kernel sharpen(double amount) {
+    float a = (float) amount;
+    return of(3, 3, 0, -a, 0, -a, 1 + 4 * a, -a, 0, -a, 0);
+  }
+
+  /**
+   * Embosses, lit from the top left, on a gray background.
+   *
+   * @return fixed point 3 by 3 Kernel
+   */
+  public static Kernel emboss() {
+    return fixed(3, 3, 1, -1, -1, 0, -1, 0, 1, 0, 1, 1).withBias(128);
+  }
+
+  /**
+   * Sobel kernel for horizontal change, which finds vertical edges. Use
+   * Image.edges() for the edges in both directions.
+   *
+   * @return fixed point 3 by 3 Kernel
+   */
+  public static Kernel sobel() {
+    return fixed(3, 3, 1, -1, 0, 1, -2, 0, 2, -1, 0, 1);
+  }
+
+  /**
+   * Scharr kernel for horizontal change, which finds vertical edges with
+   * better rotational symmetry than sobel(). Use Image.edges() for the edges
+   * in both directions.
+   *
+   * @return fixed point 3 by 3 Kernel
+   */
+  public static Kernel scharr() {
+    return fixed(3, 3, 1, -3, 0, 3, -10, 0, 10, -3, 0, 3);
+  }
+
+  /**
+   * Gaussian blur kernel reaching three standard deviations each way.
+   *
+   * @param sigma Standard deviation of the gaussian, in pixels.
+   * @return floating point, separable Kernel
+   */
+  public static Kernel gaussian(double sigma) {
+    if (sigma <= 0) {
+      throw new IllegalArgumentException("Sigma must be positive.");
+    }
+    int radius = (int) Math.ceil(3 * sigma);
+    int n = 2 * radius + 1;
+    double[] g = new double[n];
+    double total = 0;
+    for (int k = 0; k < n; k++) {
+      g[k] = Math.exp(-(k - radius) * (k - radius) / (2 * sigma * sigma));
+      total += g[k];
+    }
+    float[] w = new float[n * n];
+    for (int y = 0; y < n; y++) {
+      for (int x = 0; x < n; x++) {
+        w[y * n + x] = (float) (g[y] * g[x] / (total * total));
+      }
+    }
+    return of(n, n, w);
+  }
+
+  /**
+   * Returns this kernel with bias added to every output, such as 128 to
+   * show negative results as darker than gray.
+   *
+   * @param bias amount added after dividing
+   * @return the new Kernel
+   */
+  public Kernel withBias(int bias) {
+    return new Kernel(width, height, weights, fixed, divisor, bias);
+  }
+
+  /**
+   * Returns this kernel flipped over its diagonal, so a kernel for
+   * horizontal change becomes one for vertical change.
+   *
+   * @return the new Kernel
+   */
+  public Kernel transpose() {
+    float[] w = new float[weights.length];
+    int[] f = fixed == null ? null : new int[fixed.length];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        w[x * height + y] = weights[y * width + x];
+        if (f != null) {
+          f[x * height + y] = fixed[y * width + x];
+        }
+      }
+    }
+    return new Kernel(height, width, w, f, divisor, bias);
+  }
+
+  /**
+   * Splits integer weights into an integer column and row whose product
+   * they are, or returns null if there are none. A kernel of zeros is the
+   * product of zeros.
+   */
+  private static int[][] factor(int[] w, int width, int height) {
+    int pivot = pivot(w);
+    if (w[pivot] == 0) {
+      return new int[][] { new int[height], new int[width] };
+    }
+    int pr = pivot / width;
+    int pc = pivot % width;
+    int[] column = new int[height];
+    int g = 0;
+    for (int y = 0; y < height; y++) {
+      column[y] = w[y * width + pc];
+      g = gcd(g, Math.abs(column[y]));
+    }
+    int[] row = new int[width];
+    for (int y = 0; y < height; y++) {
+      column[y] /= g;
+    }
+    for (int x = 0; x < width; x++) {
+      if (w[pr * width + x] % column[pr] != 0) {
+        return null;
+      }
+      row[x] = w[pr * width + x] / column[pr];
+    }
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        if ((long) column[y] * row[x] != w[y * width + x]) {
+          return null;
+        }
+      }
+    }
+    return new int[][] { column, row };
+  }
+
+  /**
+   * Splits weights into a column and row whose product they are, to within
+   * rounding, or returns null if there are none.
+   */
+  private static float[][] factor(float[] w, int width, int height) {
+    int pivot = pivot(w);
+    if (w[pivot] == 0) {
+      return new float[][] { new float[height], new float[width] };
+    }
+    int pr = pivot / width;
+    int pc = pivot % width;
+    float[] column = new float[height];
+    float[] row = new float[width];
+    for (int y = 0; y < height; y++) {
+      column[y] = w[y * width + pc];
+    }
+    for (int x = 0; x < width; x++) {
+      row[x] = w[pr * width + x] / w[pivot];
+    }
+    float tolerance = 1e-6f * Math.abs(w[pivot]);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        if (Math.abs(column[y] * row[x] - w[y * width + x]) > tolerance) {
+          return null;
+        }
+      }
+    }
+    return new float[][] { column, row };
+  }
+
+  private static int pivot(int[] w) {
+    int p = 0;
+    for (int k = 1; k < w.length; k++) {
+      if (Math.abs(w[k]) > Math.abs(w[p])) {
+        p = k;
+      }
+    }
+    return p;
+  }
+
+  private static int pivot(float[] w) {
+    int p = 0;
+    for (int k = 1; k < w.length; k++) {
+      if (Math.abs(w[k]) > Math.abs(w[p])) {
+        p = k;
+      }
+    }
+    return p;
+  }
+
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  /**
+   * Returns the width of the kernel.
+   *
+   * @return int width
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the kernel.
+   *
+   * @return int height
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the weight at (x, y), after dividing for fixed point kernels.
+   *
+   * @param x column of the weight
+   * @param y row of the weight
+   * @return float weight
+   */
+  public float getWeight(int x, int y) {
+    if (x < 0 || y < 0 || x >= width || y >= height) {
+      throw new IllegalArgumentException("Weight is outside the kernel.");
+    }
+    return weights[y * width + x];
+  }
+
+  /**
+   * Returns the amount added to every output.
+   *
+   * @return int bias
+   */
+  public int getBias() {
+    return bias;
+  }
+
+  /**
+   * Returns whether the kernel runs in integer arithmetic.
+   *
+   * @return true for fixed point kernels
+   */
+  public boolean isFixedPoint() {
+    return fixed != null;
+  }
+
+  /**
+   * Returns whether the kernel runs as two 1-D passes.
+   *
+   * @return true if the kernel is a column times a row
+   */
+  public boolean isSeparable() {
+    return columnF != null || columnI != null;
+  }
+
+  float[] weights() {
+    return weights;
+  }
+
+  int[] fixedWeights() {
+    return fixed;
+  }
+
+  int divisor() {
+    return divisor;
+  }
+
+  float[] columnF() {
+    return columnF;
+  }
+
+  float[] rowF() {
+    return rowF;
+  }
+
+  int[] columnI() {
+    return columnI;
+  }
+
+  int[] rowI() {
+    return rowI;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof Kernel)) {
+      return false;
+    }
+    Kernel k = (Kernel) obj;
+    return width == k.width && height == k.height && divisor == k.divisor
+        && bias == k.bias && Arrays.equals(weights, k.weights)
+        && Arrays.equals(fixed, k.fixed);
+  }
+
+  @Override
+  public int hashCode() {
+    return (31 * Arrays.hashCode(weights) + Arrays.hashCode(fixed)) * 31
+        + bias;
+  }
+
+  @Override
+  public String toString() {
+    return "Kernel[" + width + "x" + height
+        + (fixed != null ? ", fixed point" : "")
+        + (isSeparable() ? ", separable" : "")
+        + (bias != 0 ? ", bias " + bias : "") + "]";
+  }
+}
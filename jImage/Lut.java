@@ -0,0 +1,203 @@
+package jImage;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Lookup table for the three color channels. An operator is called once for
+ * each of the 256 possible channel values when the table is made, so applying
+ * it to an image is a table lookup per channel. Luts are immutable.
+ *
+ * @author Cy
+ *
+ */
+public final class Lut {
+  private final int[] r;
+  private final int[] g;
+  private final int[] b;
+
+  /**
+   * Tables shifted into place for packed 0xRRGGBB pixels.
+   */
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
+
+  private Lut(int[] r, int[] g, int[] b) {
+    this.r = r;
+    this.g = g;
+    this.b = b;
+    red = new int[256];
+    green = new int[256];
+    blue = new int[256];
+    for (int v = 0; v < 256; v++) {
+      red[v] = r[v] << 16;
+      green[v] = g[v] << 8;
+      blue[v] = b[v];
+    }
+  }
+
+  /**
+   * Returns a Lut that leaves every channel unchanged.
+   *
+   * @return the identity Lut
+   */
+  public static Lut identity() {
+    int[] t = table(null);
+    return new Lut(t, t, t);
+  }
+
+  /**
+   * Makes a Lut that applies the same operator to every channel. Results are
+   * clamped to 0-255.
+   *
+   * @param operator UnaryOperator applied to all channels seperately
+   * @return the new Lut
+   */
+  public static Lut of(UnaryOperator<Integer> operator) {
+    int[] t = table(operator);
+    return new Lut(t, t, t);
+  }
+
+  /**
+   * Makes a Lut with its own operator for each channel. Results are clamped to
+   * 0-255.
+   *
+   * @param red UnaryOperator for the red channel, or null to leave it
+   * @param green UnaryOperator for the green channel, or null to leave it
+   * @param blue UnaryOperator for the blue channel, or null to leave it
+   * @return the new Lut
+   */
+  public static Lut of(UnaryOperator<Integer> red,
+      UnaryOperator<Integer> green, UnaryOperator<Integer> blue) {
+    return new Lut(table(red), table(green), table(blue));
+  }
+
+  /**
+   * Makes a Lut that only changes the red channel.
+   *
+   * @param operator UnaryOperator to set the red channel
+   * @return the new Lut
+   */
+  public static Lut red(UnaryOperator<Integer> operator) {
+    return of(operator, null, null);
+  }
+
+  /**
+   * Makes a Lut that only changes the green channel.
+   *
+   * @param operator UnaryOperator to set the green channel
+   * @return the new Lut
+   */
+  public static Lut green(UnaryOperator<Integer> operator) {
+    return of(null, operator, null);
+  }
+
+  /**
+   * Makes a Lut that only changes the blue channel.
+   *
+   * @param operator UnaryOperator to set the blue channel
+   * @return the new Lut
+   */
+  public static Lut blue(UnaryOperator<Integer> operator) {
+    return of(null, null, operator);
+  }
+
+  /**
+   * Combines this Lut with one applied after it into a single Lut.
+   *
+   * @param next Lut applied to the output of this one
+   * @return the combined Lut
+   */
+  public Lut then(Lut next) {
+    int[] nr = new int[256];
+    int[] ng = new int[256];
+    int[] nb = new int[256];
+    for (int v = 0; v < 256; v++) {
+      nr[v] = next.r[r[v]];
+      ng[v] = next.g[g[v]];
+      nb[v] = next.b[b[v]];
+    }
+    return new Lut(nr, ng, nb);
+  }
+
+  /**
+   * Returns the new value of the red channel.
+   *
+   * @param value old channel value, 0-255
+   * @return new channel value
+   */
+  public int getRed(int value) {
+    return r[value];
+  }
+
+  /**
+   * Returns the new value of the green channel.
+   *
+   * @param value old channel value, 0-255
+   * @return new channel value
+   */
+  public int getGreen(int value) {
+    return g[value];
+  }
+
+  /**
+   * Returns the new value of the blue channel.
+   *
+   * @param value old channel value, 0-255
+   * @return new channel value
+   */
+  public int getBlue(int value) {
+    return b[value];
+  }
+
+  /**
+   * Applies the Lut to a packed 0xRRGGBB pixel.
+   *
+   * @param rgb packed pixel
+   * @return the new packed pixel
+   */
+  public int apply(int rgb) {
+    return red[(rgb >> 16) & 0xFF] | green[(rgb >> 8) & 0xFF]
+        | blue[rgb & 0xFF];
+  }
+
+  /**
+   * Applies the Lut to a Color. Channels outside 0-255 are clamped first.
+   *
+   * @param color Color to change
+   * @return new color after the change
+   */
+  public Color apply(Color color) {
+    return Color.ofRGB(apply(color.toRGB()));
+  }
+
+  /**
+   * Applies the Lut to packed pixels from start up to but not including end.
+   *
+   * @param pixels packed 0xRRGGBB pixels
+   * @param start first index to change
+   * @param end index after the last one to change
+   */
+  public void apply(int[] pixels, int start, int end) {
+    int[] red = this.red;
+    int[] green = this.green;
+    int[] blue = this.blue;
+    for (int i = start; i < end; i++) {
+      int p = pixels[i];
+      pixels[i] = red[(p >> 16) & 0xFF] | green[(p >> 8) & 0xFF]
+          | blue[p & 0xFF];
+    }
+  }
+
+  /**
+   * Evaluates operator for every channel value, clamping the results.
+   */
+  private static int[] table(UnaryOperator<Integer> operator) {
+    int[] t = new int[256];
+    for (int v = 0; v < 256; v++) {
+      int n = operator == null ? v : operator.apply(v);
+      t[v] = n < 0 ? 0 : (n > 255 ? 255 : n);
+    }
+    return t;
+  }
+}
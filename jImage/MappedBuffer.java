@@ -0,0 +1,412 @@
+package jImage;
+
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Pixels kept in a memory-mapped file instead of on the heap. Each pixel is
+ * stored as a little-endian 0x00RRGGBB int, row by row, and the file is
+ * mapped in chunks, so an image can hold more than 2^31 pixels. A
+ * MappedBuffer can also be a view of a rectangle of another one, sharing its
+ * file, which is how sub-sections of mapped images are made.
+ *
+ * BufferedImage can not describe more than 2^31 pixels, so mapped images do
+ * not have one. image() wraps the buffer in one for images small enough.
+ *
+ * @author Cy
+ *
+ */
+final class MappedBuffer {
+  /**
+   * Each mapped chunk holds 2^SHIFT pixels.
+   */
+  private static final int SHIFT = 27;
+  private static final int CHUNK = 1 << SHIFT;
+  private static final int MASK = CHUNK - 1;
+
+  /**
+   * Most pixels a file can hold, so the chunks fit in an array.
+   */
+  private static final long MAX_PIXELS = (long) Integer.MAX_VALUE << SHIFT;
+
+  private final IntBuffer[] chunks;
+  private final int width;
+  private final int height;
+
+  /**
+   * Index of the top left pixel of the view, and the length of a row of the
+   * file.
+   */
+  private final long origin;
+  private final int stride;
+
+  private volatile BufferedImage image;
+
+  private MappedBuffer(IntBuffer[] chunks, int width, int height, long origin,
+      int stride) {
+    this.chunks = chunks;
+    this.width = width;
+    this.height = height;
+    this.origin = origin;
+    this.stride = stride;
+  }
+
+  /**
+   * Maps a width by height image onto a file, growing the file if it is too
+   * small. Pixels already in the file are kept. The size is checked before
+   * the file is touched, and if mapping fails a file made for it is deleted
+   * and a file that was grown is cut back to its old length.
+   *
+   * @param width Width of the image.
+   * @param height Height of the image.
+   * @param fileName File to keep the pixels in, or null for a temporary file
+   *          that is removed once it is no longer needed.
+   * @return MappedBuffer reading and writing the mapped file
+   */
+  static MappedBuffer create(int width, int height, String fileName) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("Width and height must be positive.");
+    }
+    long pixels = (long) width * height;
+    if (pixels > MAX_PIXELS) {
+      throw new IllegalArgumentException("Image is too large to map.");
+    }
+    File file = fileName == null ? null : new File(fileName);
+    boolean made = file == null || !file.exists();
+    long length = -1;
+    try {
+      if (file == null) {
+        file = File.createTempFile("jImage", ".raw");
+        file.deleteOnExit();
+      }
+      IntBuffer[] chunks = new IntBuffer[(int) ((pixels + MASK) >>> SHIFT)];
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+          FileChannel channel = raf.getChannel()) {
+        if (raf.length() < pixels * 4) {
+          length = raf.length();
+          raf.setLength(pixels * 4);
+        }
+        for (int i = 0; i < chunks.length; i++) {
+          long start = (long) i << SHIFT;
+          long size = Math.min(CHUNK, pixels - start);
+          chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start * 4,
+              size * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+      }
+      if (fileName == null) {
+        // the mapping stays valid without the name on systems that allow it
+        file.delete();
+      }
+      return new MappedBuffer(chunks, width, height, 0, width);
+    } catch (IOException | RuntimeException e) {
+      undo(file, made, length);
+      throw new RuntimeException("Can Not Map File: " + file);
+    }
+  }
+
+  /**
+   * Deletes a file create() made, or cuts one it grew back to length.
+   */
+  private static void undo(File file, boolean made, long length) {
+    if (file == null) {
+      return;
+    }
+    if (made) {
+      file.delete();
+    } else if (length >= 0) {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(length);
+      } catch (IOException e) {
+        // leave the file as it is
+      }
+    }
+  }
+
+  /**
+   * Returns a view of a rectangle of this buffer, sharing its pixels.
+   */
+  MappedBuffer view(int x, int y, int width, int height) {
+    if (x < 0 || y < 0 || width < 1 || height < 1
+        || (long) x + width > this.width || (long) y + height > this.height) {
+      throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+    }
+    return new MappedBuffer(chunks, width, height, index(x, y), stride);
+  }
+
+  int width() {
+    return width;
+  }
+
+  int height() {
+    return height;
+  }
+
+  /**
+   * Returns a BufferedImage reading and writing this buffer, for drawing and
+   * saving with ImageIO.
+   *
+   * @throws UnsupportedOperationException if there are 2^31 pixels or more
+   */
+  BufferedImage image() {
+    BufferedImage bi = image;
+    if (bi == null) {
+      if ((long) width * height >= Integer.MAX_VALUE) {
+        throw new UnsupportedOperationException(
+            "Image is too large for a BufferedImage.");
+      }
+      ComponentColorModel model = new ComponentColorModel(
+          ColorSpace.getInstance(ColorSpace.CS_sRGB), new int[] { 8, 8, 8 },
+          false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+      WritableRaster raster = Raster.createWritableRaster(new Layout(width,
+          height), new Data(this), new Point(0, 0));
+      bi = new BufferedImage(model, raster, false, null);
+      image = bi;
+    }
+    return bi;
+  }
+
+  private long index(int x, int y) {
+    return origin + (long) y * stride + x;
+  }
+
+  /**
+   * Reads the packed pixel at x and y.
+   */
+  int get(int x, int y) {
+    long p = index(x, y);
+    return chunks[(int) (p >>> SHIFT)].get((int) (p & MASK));
+  }
+
+  /**
+   * Writes the packed pixel at x and y.
+   */
+  void set(int x, int y, int rgb) {
+    long p = index(x, y);
+    chunks[(int) (p >>> SHIFT)].put((int) (p & MASK), rgb & 0xFFFFFF);
+  }
+
+  /**
+   * Reads n packed pixels of row y starting at x into buffer.
+   */
+  void read(int x, int y, int n, int[] buffer, int offset) {
+    long p = index(x, y);
+    while (n > 0) {
+      IntBuffer chunk = chunks[(int) (p >>> SHIFT)].duplicate();
+      int start = (int) (p & MASK);
+      int count = Math.min(n, chunk.capacity() - start);
+      chunk.position(start);
+      chunk.get(buffer, offset, count);
+      p += count;
+      offset += count;
+      n -= count;
+    }
+  }
+
+  /**
+   * Writes n packed pixels from buffer into row y starting at x.
+   */
+  void write(int x, int y, int n, int[] buffer, int offset) {
+    long p = index(x, y);
+    while (n > 0) {
+      IntBuffer chunk = chunks[(int) (p >>> SHIFT)].duplicate();
+      int start = (int) (p & MASK);
+      int count = Math.min(n, chunk.capacity() - start);
+      for (int i = 0; i < count; i++) {
+        chunk.put(start + i, buffer[offset + i] & 0xFFFFFF);
+      }
+      p += count;
+      offset += count;
+      n -= count;
+    }
+  }
+
+  /**
+   * Three byte banks per pixel over a MappedBuffer, for image().
+   */
+  private static final class Data extends DataBuffer {
+    private final MappedBuffer pixels;
+
+    Data(MappedBuffer pixels) {
+      super(DataBuffer.TYPE_BYTE, (int) Math.min(3L * pixels.width
+          * pixels.height, Integer.MAX_VALUE));
+      this.pixels = pixels;
+    }
+
+    public int getElem(int bank, int i) {
+      return (pixels.get((i / 3) % pixels.width, (i / 3) / pixels.width)
+          >> (16 - 8 * (i % 3))) & 0xFF;
+    }
+
+    public void setElem(int bank, int i, int val) {
+      int x = (i / 3) % pixels.width;
+      int y = (i / 3) / pixels.width;
+      int shift = 16 - 8 * (i % 3);
+      pixels.set(x, y, (pixels.get(x, y) & ~(0xFF << shift))
+          | ((val & 0xFF) << shift));
+    }
+  }
+
+  /**
+   * Three byte bands per pixel, read out of the packed ints of a
+   * MappedBuffer. The strides given to ComponentSampleModel are never used.
+   */
+  private static final class Layout extends ComponentSampleModel {
+
+    Layout(int width, int height) {
+      super(DataBuffer.TYPE_BYTE, width, height, 0, 0, new int[] { 0, 0, 0 });
+    }
+
+    private static int band(int rgb, int b) {
+      return (rgb >> (16 - 8 * b)) & 0xFF;
+    }
+
+    private void check(int x, int y) {
+      if (x < 0 || y < 0 || x >= width || y >= height) {
+        throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+      }
+    }
+
+    public Object getDataElements(int x, int y, Object obj, DataBuffer data) {
+      check(x, y);
+      byte[] out = obj == null ? new byte[3] : (byte[]) obj;
+      int rgb = ((Data) data).pixels.get(x, y);
+      out[0] = (byte) (rgb >> 16);
+      out[1] = (byte) (rgb >> 8);
+      out[2] = (byte) rgb;
+      return out;
+    }
+
+    public void setDataElements(int x, int y, Object obj, DataBuffer data) {
+      check(x, y);
+      byte[] in = (byte[]) obj;
+      ((Data) data).pixels.set(x, y, (in[0] & 0xFF) << 16
+          | (in[1] & 0xFF) << 8 | (in[2] & 0xFF));
+    }
+
+    public int[] getPixel(int x, int y, int[] iArray, DataBuffer data) {
+      check(x, y);
+      int[] out = iArray == null ? new int[3] : iArray;
+      int rgb = ((Data) data).pixels.get(x, y);
+      for (int b = 0; b < 3; b++) {
+        out[b] = band(rgb, b);
+      }
+      return out;
+    }
+
+    public void setPixel(int x, int y, int[] iArray, DataBuffer data) {
+      check(x, y);
+      ((Data) data).pixels.set(x, y, (iArray[0] & 0xFF) << 16
+          | (iArray[1] & 0xFF) << 8 | (iArray[2] & 0xFF));
+    }
+
+    public int[] getPixels(int x, int y, int w, int h, int[] iArray,
+        DataBuffer data) {
+      int[] out = iArray == null ? new int[w * h * 3] : iArray;
+      int[] pixel = new int[3];
+      int i = 0;
+      for (int j = y; j < y + h; j++) {
+        for (int k = x; k < x + w; k++) {
+          getPixel(k, j, pixel, data);
+          out[i++] = pixel[0];
+          out[i++] = pixel[1];
+          out[i++] = pixel[2];
+        }
+      }
+      return out;
+    }
+
+    public void setPixels(int x, int y, int w, int h, int[] iArray,
+        DataBuffer data) {
+      int[] pixel = new int[3];
+      int i = 0;
+      for (int j = y; j < y + h; j++) {
+        for (int k = x; k < x + w; k++) {
+          pixel[0] = iArray[i++];
+          pixel[1] = iArray[i++];
+          pixel[2] = iArray[i++];
+          setPixel(k, j, pixel, data);
+        }
+      }
+    }
+
+    public int getSample(int x, int y, int b, DataBuffer data) {
+      check(x, y);
+      return band(((Data) data).pixels.get(x, y), b);
+    }
+
+    public float getSampleFloat(int x, int y, int b, DataBuffer data) {
+      return getSample(x, y, b, data);
+    }
+
+    public double getSampleDouble(int x, int y, int b, DataBuffer data) {
+      return getSample(x, y, b, data);
+    }
+
+    public int[] getSamples(int x, int y, int w, int h, int b, int[] iArray,
+        DataBuffer data) {
+      int[] out = iArray == null ? new int[w * h] : iArray;
+      int i = 0;
+      for (int j = y; j < y + h; j++) {
+        for (int k = x; k < x + w; k++) {
+          out[i++] = getSample(k, j, b, data);
+        }
+      }
+      return out;
+    }
+
+    public void setSample(int x, int y, int b, int s, DataBuffer data) {
+      check(x, y);
+      MappedBuffer buffer = ((Data) data).pixels;
+      int shift = 16 - 8 * b;
+      buffer.set(x, y, (buffer.get(x, y) & ~(0xFF << shift))
+          | ((s & 0xFF) << shift));
+    }
+
+    public void setSample(int x, int y, int b, float s, DataBuffer data) {
+      setSample(x, y, b, (int) s, data);
+    }
+
+    public void setSample(int x, int y, int b, double s, DataBuffer data) {
+      setSample(x, y, b, (int) s, data);
+    }
+
+    public void setSamples(int x, int y, int w, int h, int b, int[] iArray,
+        DataBuffer data) {
+      int i = 0;
+      for (int j = y; j < y + h; j++) {
+        for (int k = x; k < x + w; k++) {
+          setSample(k, j, b, iArray[i++], data);
+        }
+      }
+    }
+
+    public SampleModel createCompatibleSampleModel(int w, int h) {
+      return new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, w, h, 3,
+          3 * w, new int[] { 0, 1, 2 });
+    }
+
+    public SampleModel createSubsetSampleModel(int[] bands) {
+      return createCompatibleSampleModel(width, height)
+          .createSubsetSampleModel(bands);
+    }
+
+    public DataBuffer createDataBuffer() {
+      return new Data(create(width, height, null));
+    }
+  }
+}
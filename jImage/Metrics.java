@@ -0,0 +1,136 @@
+package jImage;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Times the operations of every Image and hands the results to a
+ * MetricsSink. By default the sink is MetricsSink.NONE and an operation only
+ * reads one field to find that out, so nothing is timed or allocated.
+ *
+ * <pre>
+ * MetricsRecorder recorder = new MetricsRecorder();
+ * Metrics.setSink(MetricsSink.of(recorder, MetricsSink.flightRecorder()));
+ * ...
+ * System.out.println(recorder);
+ * </pre>
+ *
+ * @author Cy
+ *
+ */
+public final class Metrics {
+  private static volatile MetricsSink sink = MetricsSink.NONE;
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Metrics() {}
+
+  /**
+   * Installs the sink that every operation from now on is recorded to.
+   *
+   * @param sink MetricsSink to use, or null to stop recording
+   */
+  public static void setSink(MetricsSink sink) {
+    Metrics.sink = sink == null ? MetricsSink.NONE : sink;
+  }
+
+  /**
+   * Returns the sink operations are recorded to.
+   *
+   * @return the current MetricsSink
+   */
+  public static MetricsSink getSink() {
+    return sink;
+  }
+
+  /**
+   * Starts timing an operation, or returns null if nothing is recording.
+   */
+  static Probe start(String operation) {
+    MetricsSink s = sink;
+    return s == MetricsSink.NONE ? null : new Probe(s, operation);
+  }
+
+  /**
+   * Starts timing an operation named prefix followed by the lower case
+   * suffix, building the name only if something is recording.
+   */
+  static Probe start(String prefix, String suffix) {
+    MetricsSink s = sink;
+    return s == MetricsSink.NONE ? null : new Probe(s, prefix
+        + suffix.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Stops timing an operation and records it. Does nothing for null.
+   */
+  static void end(Probe probe, long pixels) {
+    if (probe != null) {
+      probe.end(pixels);
+    }
+  }
+
+  /**
+   * One operation being timed. Bytes allocated are only known if it ends on
+   * the thread it started on.
+   */
+  static final class Probe {
+    private final MetricsSink sink;
+    private final String operation;
+    private final Thread thread = Thread.currentThread();
+    private final long allocated = Allocation.current();
+    private final long start = System.nanoTime();
+
+    Probe(MetricsSink sink, String operation) {
+      this.sink = sink;
+      this.operation = operation;
+    }
+
+    void end(long pixels) {
+      long nanos = System.nanoTime() - start;
+      long bytes = -1;
+      if (thread == Thread.currentThread() && allocated >= 0) {
+        long now = Allocation.current();
+        bytes = now >= 0 ? now - allocated : -1;
+      }
+      sink.record(operation, pixels, nanos, bytes);
+    }
+  }
+
+  /**
+   * Reads the bytes allocated by the current thread, when the JVM offers it.
+   * Kept apart so the management beans are only loaded once something is
+   * recording.
+   */
+  private static final class Allocation {
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private static com.sun.management.ThreadMXBean threads() {
+      try {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+          com.sun.management.ThreadMXBean t =
+              (com.sun.management.ThreadMXBean) bean;
+          if (t.isThreadAllocatedMemorySupported()) {
+            if (!t.isThreadAllocatedMemoryEnabled()) {
+              t.setThreadAllocatedMemoryEnabled(true);
+            }
+            return t;
+          }
+        }
+      } catch (RuntimeException | LinkageError e) {
+        // allocation is reported as unknown
+      }
+      return null;
+    }
+
+    static long current() {
+      if (THREADS == null) {
+        return -1;
+      }
+      return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+  }
+}
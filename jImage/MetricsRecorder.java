@@ -0,0 +1,211 @@
+package jImage;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A MetricsSink that keeps totals for each operation: how many times it ran,
+ * the pixels it worked on, the time it took, the bytes it allocated and a
+ * histogram of its latencies. Latencies are counted in buckets by powers of
+ * two nanoseconds, so percentiles are within a factor of two.
+ *
+ * @author Cy
+ *
+ */
+public final class MetricsRecorder implements MetricsSink {
+  private final ConcurrentHashMap<String, Stats> stats =
+      new ConcurrentHashMap<String, Stats>();
+
+  @Override
+  public void record(String operation, long pixels, long nanos,
+      long allocatedBytes) {
+    Stats s = stats.get(operation);
+    if (s == null) {
+      s = stats.computeIfAbsent(operation, Stats::new);
+    }
+    s.add(pixels, nanos, allocatedBytes);
+  }
+
+  /**
+   * Returns the totals for one operation, or null if it has not run.
+   *
+   * @param operation name of the operation
+   * @return Stats of the operation
+   */
+  public Stats getStats(String operation) {
+    return stats.get(operation);
+  }
+
+  /**
+   * Returns the totals of every operation that has run, by name.
+   *
+   * @return unmodifiable Map from operation name to Stats
+   */
+  public Map<String, Stats> getStats() {
+    return Collections.unmodifiableMap(new TreeMap<String, Stats>(stats));
+  }
+
+  /**
+   * Forgets everything recorded so far.
+   */
+  public void reset() {
+    stats.clear();
+  }
+
+  /**
+   * Returns one line per operation.
+   */
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    for (Stats st : getStats().values()) {
+      s.append(st).append('\n');
+    }
+    return s.toString();
+  }
+
+  /**
+   * Totals for one operation. They keep counting while being read.
+   */
+  public static final class Stats {
+    private final String operation;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder pixels = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final AtomicLongArray histogram = new AtomicLongArray(64);
+
+    Stats(String operation) {
+      this.operation = operation;
+    }
+
+    void add(long pixels, long nanos, long allocatedBytes) {
+      count.increment();
+      this.pixels.add(pixels);
+      this.nanos.add(nanos);
+      if (allocatedBytes > 0) {
+        allocated.add(allocatedBytes);
+      }
+      histogram.incrementAndGet(bucket(nanos));
+    }
+
+    /**
+     * Bucket b holds latencies from 2^b up to 2^(b+1) nanoseconds.
+     */
+    private static int bucket(long nanos) {
+      return nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Returns the name of the operation.
+     *
+     * @return String name
+     */
+    public String getOperation() {
+      return operation;
+    }
+
+    /**
+     * Returns how many times the operation ran.
+     *
+     * @return long count
+     */
+    public long getCount() {
+      return count.sum();
+    }
+
+    /**
+     * Returns the pixels worked on by every run together.
+     *
+     * @return long pixels
+     */
+    public long getPixels() {
+      return pixels.sum();
+    }
+
+    /**
+     * Returns the time taken by every run together.
+     *
+     * @return long time in nanoseconds
+     */
+    public long getTotalNanos() {
+      return nanos.sum();
+    }
+
+    /**
+     * Returns the bytes allocated by every run together, on the threads
+     * that called them. Work handed to a TileExecutor is not counted.
+     *
+     * @return long bytes
+     */
+    public long getAllocatedBytes() {
+      return allocated.sum();
+    }
+
+    /**
+     * Returns the mean time of a run.
+     *
+     * @return long time in nanoseconds
+     */
+    public long getMeanNanos() {
+      long n = getCount();
+      return n == 0 ? 0 : getTotalNanos() / n;
+    }
+
+    /**
+     * Returns a latency that at least percentile percent of runs took no
+     * longer than, rounded up to a power of two.
+     *
+     * @param percentile percentage from 0 to 100
+     * @return long time in nanoseconds
+     */
+    public long getPercentileNanos(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException(
+            "Percentile must be from 0 to 100.");
+      }
+      long[] h = getHistogram();
+      long total = 0;
+      for (long c : h) {
+        total += c;
+      }
+      long rank = (long) Math.ceil(total * percentile / 100);
+      long seen = 0;
+      for (int b = 0; b < h.length; b++) {
+        seen += h[b];
+        if (seen >= rank && seen > 0) {
+          return b >= 62 ? Long.MAX_VALUE : 2L << b;
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * Returns the latency histogram. Entry b counts the runs that took from
+     * 2^b up to 2^(b+1) nanoseconds.
+     *
+     * @return long array of 64 counts
+     */
+    public long[] getHistogram() {
+      long[] h = new long[histogram.length()];
+      for (int b = 0; b < h.length; b++) {
+        h[b] = histogram.get(b);
+      }
+      return h;
+    }
+
+    @Override
+    public String toString() {
+      return operation + ": " + getCount() + " calls, " + getPixels()
+          + " pixels, " + getTotalNanos() / 1000000 + " ms, mean "
+          + getMeanNanos() / 1000 + " us, p50 "
+          + getPercentileNanos(50) / 1000 + " us, p99 "
+          + getPercentileNanos(99) / 1000 + " us, "
+          + getAllocatedBytes() + " bytes allocated";
+    }
+  }
+}
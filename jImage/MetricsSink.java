@@ -0,0 +1,62 @@
+package jImage;
+
+/**
+ * Receives one record for every timed operation, such as a decode, a save or
+ * a resize. Install one with Metrics.setSink(). record() is called from
+ * whatever thread ran the operation, often several at once, so sinks must be
+ * thread safe and quick.
+ *
+ * Operation names are "decode", "save." plus the file extension, "resize."
+ * plus the scaling hint, "blur", "gaussianBlur", "convolve", "edges",
+ * "meanFilter", "adaptiveThreshold", "channels", "impose", "quantize",
+ * "makeGif", "gif.frame" and "savePipe.wait".
+ *
+ * @author Cy
+ *
+ */
+@FunctionalInterface
+public interface MetricsSink {
+  /**
+   * A sink that ignores everything. While it is installed no operation is
+   * timed at all.
+   */
+  MetricsSink NONE = (operation, pixels, nanos, allocatedBytes) -> {};
+
+  /**
+   * Records one finished operation.
+   *
+   * @param operation name of the operation
+   * @param pixels number of pixels it worked on
+   * @param nanos how long it took, in nanoseconds
+   * @param allocatedBytes bytes allocated by the calling thread while it ran,
+   *          or -1 if the JVM can not tell
+   */
+  void record(String operation, long pixels, long nanos, long allocatedBytes);
+
+  /**
+   * Returns a sink that hands every record to each of sinks in turn.
+   *
+   * @param sinks sinks to record to
+   * @return MetricsSink for all of them
+   */
+  static MetricsSink of(MetricsSink... sinks) {
+    MetricsSink[] all = sinks.clone();
+    return (operation, pixels, nanos, allocatedBytes) -> {
+      for (MetricsSink s : all) {
+        s.record(operation, pixels, nanos, allocatedBytes);
+      }
+    };
+  }
+
+  /**
+   * Returns a sink that commits a "jImage.Operation" event to Java Flight
+   * Recorder for every record, to be seen alongside GC and thread events in
+   * a recording.
+   *
+   * @return MetricsSink for Flight Recorder
+   * @throws UnsupportedOperationException if the JVM has no Flight Recorder
+   */
+  static MetricsSink flightRecorder() {
+    return new FlightRecorderSink();
+  }
+}
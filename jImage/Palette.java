@@ -0,0 +1,491 @@
+package jImage;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A list of at most 256 colors that images are reduced to, as gifs need.
+ * Palettes are made by median cut over a histogram of the image, or of many
+ * images when frames should share one palette. Finding the nearest color is
+ * cached in a table of 15 bit colors, five bits per channel, so each distinct
+ * color is only searched for once. Palettes are immutable and safe to share
+ * between threads.
+ *
+ * @author Cy
+ *
+ */
+public final class Palette {
+  /**
+   * Number of 15 bit colors in the histogram and the nearest color table.
+   */
+  private static final int BINS = 1 << 15;
+
+  /**
+   * 8 by 8 Bayer matrix used by ordered dithering, values 0 to 63.
+   */
+  private static final int[] BAYER = { 0, 32, 8, 40, 2, 34, 10, 42, 48, 16,
+      56, 24, 50, 18, 58, 26, 12, 44, 4, 36, 14, 46, 6, 38, 60, 28, 52, 20, 62,
+      30, 54, 22, 3, 35, 11, 43, 1, 33, 9, 41, 51, 19, 59, 27, 49, 17, 57, 25,
+      15, 47, 7, 39, 13, 45, 5, 37, 63, 31, 55, 23, 61, 29, 53, 21 };
+
+  private final int[] colors;
+
+  /**
+   * Nearest palette index for each 15 bit color, or -1 until it is first
+   * needed. Two threads filling the same entry store the same value.
+   */
+  private final short[] nearest = new short[BINS];
+
+  private Palette(int[] colors) {
+    this.colors = colors;
+    Arrays.fill(nearest, (short) -1);
+  }
+
+  /**
+   * Makes a palette from packed 0xRRGGBB colors.
+   *
+   * @param rgb between 1 and 256 colors
+   * @return Palette holding the colors in order
+   */
+  public static Palette of(int... rgb) {
+    if (rgb.length < 1 || rgb.length > 256) {
+      throw new IllegalArgumentException(
+          "A palette must have between 1 and 256 colors.");
+    }
+    int[] c = new int[rgb.length];
+    for (int i = 0; i < c.length; i++) {
+      c[i] = rgb[i] & 0xFFFFFF;
+    }
+    return new Palette(c);
+  }
+
+  /**
+   * Picks at most colors colors to represent an image.
+   *
+   * @param image image to take colors from
+   * @param colors largest number of colors, 1 to 256
+   * @return Palette for the image
+   */
+  public static Palette medianCut(BaseImage image, int colors) {
+    return medianCut(Arrays.asList(image), colors);
+  }
+
+  /**
+   * Picks at most colors colors to represent every image in a list, such as
+   * all the frames of a gif, so they can share one palette.
+   *
+   * @param images images to take colors from
+   * @param colors largest number of colors, 1 to 256
+   * @return Palette for the images
+   */
+  public static Palette medianCut(List<? extends BaseImage> images,
+      int colors) {
+    checkColors(colors);
+    long[] histogram = new long[BINS];
+    for (BaseImage image : images) {
+      image.lock.readAll();
+      try {
+        int w = image.width();
+        int[] data = image.getPixelData();
+        if (data == null) {
+          histogram(histogram, image, image.tileExecutor());
+        } else {
+          histogram(histogram, data, null, 0, w, w, image.height(),
+              image.tileExecutor());
+        }
+      } finally {
+        image.lock.unlockReadAll();
+      }
+    }
+    return medianCut(histogram, colors);
+  }
+
+  private static void checkColors(int colors) {
+    if (colors < 1 || colors > 256) {
+      throw new IllegalArgumentException(
+          "A palette must have between 1 and 256 colors.");
+    }
+  }
+
+  /**
+   * Adds the 15 bit colors of a w by h block of pixels into histogram. Pixels
+   * equal to the same pixel of previous are skipped when it is not null.
+   * Bands are counted in parallel into their own tables which are then added
+   * together.
+   */
+  static void histogram(long[] histogram, int[] pixels, int[] previous,
+      int offset, int scan, int w, int h, TileExecutor executor) {
+    executor.forEachBand(w, h, (start, end) -> {
+      int[] counts = new int[BINS];
+      for (int y = start; y < end; y++) {
+        int row = offset + y * scan;
+        for (int i = row; i < row + w; i++) {
+          int p = pixels[i];
+          if (previous != null && ((previous[i] ^ p) & 0xFFFFFF) == 0) {
+            continue;
+          }
+          counts[bin(p)]++;
+        }
+      }
+      add(histogram, counts);
+    });
+  }
+
+  /**
+   * Adds the 15 bit colors of an image without a backing array, such as a
+   * memory-mapped one. Each band reads a few rows at a time, so the image
+   * is never copied whole.
+   */
+  private static void histogram(long[] histogram, BaseImage image,
+      TileExecutor executor) {
+    int w = image.width();
+    int step = Math.max(1, BaseImage.BAND_PIXELS / w);
+    executor.forEachBand(w, image.height(), (start, end) -> {
+      int[] counts = new int[BINS];
+      int[] rows = new int[Math.min(step, end - start) * w];
+      for (int y = start; y < end; y += step) {
+        int n = Math.min(step, end - y);
+        image.readRGB(0, y, w, n, rows, 0, w);
+        for (int i = 0; i < n * w; i++) {
+          counts[bin(rows[i])]++;
+        }
+      }
+      add(histogram, counts);
+    });
+  }
+
+  private static void add(long[] histogram, int[] counts) {
+    synchronized (histogram) {
+      for (int i = 0; i < BINS; i++) {
+        histogram[i] += counts[i];
+      }
+    }
+  }
+
+  /**
+   * Builds a palette from a histogram of 15 bit colors. The box of colors
+   * with the most pixels times its widest channel is split at the median of
+   * that channel until there are enough boxes, and each box becomes the
+   * average of its colors.
+   */
+  static Palette medianCut(long[] histogram, int colors) {
+    checkColors(colors);
+    int n = 0;
+    for (long c : histogram) {
+      if (c > 0) {
+        n++;
+      }
+    }
+    if (n == 0) {
+      return new Palette(new int[] { 0 });
+    }
+    int[] bins = new int[n];
+    long[] counts = new long[n];
+    n = 0;
+    for (int i = 0; i < BINS; i++) {
+      if (histogram[i] > 0) {
+        bins[n] = i;
+        counts[n++] = histogram[i];
+      }
+    }
+    int[] start = new int[colors];
+    int[] end = new int[colors];
+    long[] score = new long[colors];
+    int[] channel = new int[colors];
+    end[0] = n;
+    measure(bins, counts, start, end, score, channel, 0);
+    int boxes = 1;
+    while (boxes < colors) {
+      int best = -1;
+      for (int b = 0; b < boxes; b++) {
+        if (score[b] > 0 && (best < 0 || score[b] > score[best])) {
+          best = b;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      int cut = split(bins, counts, start[best], end[best], channel[best]);
+      start[boxes] = cut;
+      end[boxes] = end[best];
+      end[best] = cut;
+      measure(bins, counts, start, end, score, channel, best);
+      measure(bins, counts, start, end, score, channel, boxes);
+      boxes++;
+    }
+    int[] palette = new int[boxes];
+    for (int b = 0; b < boxes; b++) {
+      long total = 0;
+      long r = 0;
+      long g = 0;
+      long bl = 0;
+      for (int i = start[b]; i < end[b]; i++) {
+        int c = expand(bins[i]);
+        long k = counts[i];
+        total += k;
+        r += k * ((c >> 16) & 0xFF);
+        g += k * ((c >> 8) & 0xFF);
+        bl += k * (c & 0xFF);
+      }
+      palette[b] = (int) ((r + total / 2) / total) << 16
+          | (int) ((g + total / 2) / total) << 8
+          | (int) ((bl + total / 2) / total);
+    }
+    return new Palette(palette);
+  }
+
+  /**
+   * Finds the channel, 0 for red to 2 for blue, with the largest range of 5
+   * bit values in box b, and scores the box by its pixel count times that
+   * range. Boxes of one color score 0 and are never split.
+   */
+  private static void measure(int[] bins, long[] counts, int[] start,
+      int[] end, long[] score, int[] channel, int b) {
+    int range = 0;
+    channel[b] = 0;
+    for (int c = 0; c < 3; c++) {
+      int shift = 10 - 5 * c;
+      int min = 31;
+      int max = 0;
+      for (int i = start[b]; i < end[b]; i++) {
+        int v = (bins[i] >> shift) & 31;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+      }
+      if (max - min > range) {
+        range = max - min;
+        channel[b] = c;
+      }
+    }
+    long total = 0;
+    for (int i = start[b]; i < end[b]; i++) {
+      total += counts[i];
+    }
+    score[b] = total * range;
+  }
+
+  /**
+   * Moves the bins of a box with the channel at or below its median to the
+   * front and returns where the rest begin. Neither half is left empty.
+   */
+  private static int split(int[] bins, long[] counts, int start, int end,
+      int channel) {
+    int shift = 10 - 5 * channel;
+    long[] weight = new long[32];
+    long total = 0;
+    int max = 0;
+    for (int i = start; i < end; i++) {
+      int v = (bins[i] >> shift) & 31;
+      weight[v] += counts[i];
+      total += counts[i];
+      max = Math.max(max, v);
+    }
+    int cut = 0;
+    long sum = weight[0];
+    while (cut < max - 1 && (sum * 2 < total || sum == 0)) {
+      sum += weight[++cut];
+    }
+    int i = start;
+    int j = end - 1;
+    while (i <= j) {
+      if (((bins[i] >> shift) & 31) <= cut) {
+        i++;
+      } else {
+        int b = bins[i];
+        bins[i] = bins[j];
+        bins[j] = b;
+        long k = counts[i];
+        counts[i] = counts[j];
+        counts[j] = k;
+        j--;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * Returns the 15 bit color of a packed pixel.
+   */
+  private static int bin(int rgb) {
+    return (rgb >> 9) & 0x7C00 | (rgb >> 6) & 0x3E0 | (rgb >> 3) & 0x1F;
+  }
+
+  /**
+   * Returns the packed color a 15 bit color stands for, with 0 and 31 mapped
+   * to 0 and 255.
+   */
+  private static int expand(int bin) {
+    int r = (bin >> 10) & 31;
+    int g = (bin >> 5) & 31;
+    int b = bin & 31;
+    return (r << 3 | r >> 2) << 16 | (g << 3 | g >> 2) << 8 | (b << 3 | b >> 2);
+  }
+
+  /**
+   * Returns the number of colors.
+   *
+   * @return int between 1 and 256
+   */
+  public int size() {
+    return colors.length;
+  }
+
+  /**
+   * Returns a color as a packed 0xRRGGBB int.
+   *
+   * @param index index of the color
+   * @return packed color
+   */
+  public int getRGB(int index) {
+    return colors[index];
+  }
+
+  /**
+   * Returns a color.
+   *
+   * @param index index of the color
+   * @return Color at index
+   */
+  public Color getColor(int index) {
+    return Color.ofRGB(colors[index]);
+  }
+
+  /**
+   * Returns the index of the palette color closest to a packed 0xRRGGBB
+   * color. Colors are matched to five bits per channel.
+   *
+   * @param rgb packed color
+   * @return index of the nearest color
+   */
+  public int nearest(int rgb) {
+    int bin = bin(rgb);
+    int index = nearest[bin];
+    if (index < 0) {
+      index = search(expand(bin));
+      nearest[bin] = (short) index;
+    }
+    return index;
+  }
+
+  private int search(int rgb) {
+    int r = (rgb >> 16) & 0xFF;
+    int g = (rgb >> 8) & 0xFF;
+    int b = rgb & 0xFF;
+    int best = 0;
+    int distance = Integer.MAX_VALUE;
+    for (int i = 0; i < colors.length; i++) {
+      int c = colors[i];
+      int dr = ((c >> 16) & 0xFF) - r;
+      int dg = ((c >> 8) & 0xFF) - g;
+      int db = (c & 0xFF) - b;
+      int d = dr * dr + dg * dg + db * db;
+      if (d < distance) {
+        distance = d;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Maps a w by h block of pixels to palette indices in out, one byte per
+   * pixel. When previous is not null, pixels equal to it are given the index
+   * transparent instead. Undithered and ordered maps run in bands on the
+   * executor, Floyd-Steinberg runs on the calling thread.
+   */
+  void map(int[] pixels, int[] previous, int offset, int scan, int w, int h,
+      byte[] out, int transparent, Dither dither, TileExecutor executor) {
+    if (dither == Dither.FLOYD_STEINBERG) {
+      diffuse(pixels, previous, offset, scan, w, h, out, transparent);
+      return;
+    }
+    int spread = dither == Dither.ORDERED
+        ? (int) (255 / Math.cbrt(colors.length)) : 0;
+    executor.forEachBand(w, h, (start, end) -> {
+      for (int y = start; y < end; y++) {
+        int row = offset + y * scan;
+        int o = y * w;
+        for (int x = 0; x < w; x++) {
+          int p = pixels[row + x];
+          if (previous != null && ((previous[row + x] ^ p) & 0xFFFFFF) == 0) {
+            out[o + x] = (byte) transparent;
+          } else if (spread == 0) {
+            out[o + x] = (byte) nearest(p);
+          } else {
+            int t = (BAYER[(y & 7) * 8 + (x & 7)] * 2 - 63) * spread / 128;
+            out[o + x] = (byte) nearest(
+                clamp(((p >> 16) & 0xFF) + t) << 16
+                    | clamp(((p >> 8) & 0xFF) + t) << 8
+                    | clamp((p & 0xFF) + t));
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Floyd-Steinberg dithering. Errors for the current and next row are kept
+   * per channel, with a pixel of padding at each end. Transparent pixels
+   * neither take nor pass on error.
+   */
+  private void diffuse(int[] pixels, int[] previous, int offset, int scan,
+      int w, int h, byte[] out, int transparent) {
+    int[] here = new int[(w + 2) * 3];
+    int[] next = new int[(w + 2) * 3];
+    for (int y = 0; y < h; y++) {
+      int row = offset + y * scan;
+      for (int x = 0; x < w; x++) {
+        int p = pixels[row + x];
+        if (previous != null && ((previous[row + x] ^ p) & 0xFFFFFF) == 0) {
+          out[y * w + x] = (byte) transparent;
+          continue;
+        }
+        int e = (x + 1) * 3;
+        int r = clamp(((p >> 16) & 0xFF) + here[e] / 16);
+        int g = clamp(((p >> 8) & 0xFF) + here[e + 1] / 16);
+        int b = clamp((p & 0xFF) + here[e + 2] / 16);
+        int index = nearest(r << 16 | g << 8 | b);
+        out[y * w + x] = (byte) index;
+        int c = colors[index];
+        spread(here, next, e, r - ((c >> 16) & 0xFF));
+        spread(here, next, e + 1, g - ((c >> 8) & 0xFF));
+        spread(here, next, e + 2, b - (c & 0xFF));
+      }
+      int[] t = here;
+      here = next;
+      next = t;
+      Arrays.fill(next, 0);
+    }
+  }
+
+  /**
+   * Passes on error in sixteenths: 7 to the right, 3 below left, 5 below and
+   * 1 below right.
+   */
+  private static void spread(int[] here, int[] next, int e, int error) {
+    here[e + 3] += error * 7;
+    next[e - 3] += error * 3;
+    next[e] += error * 5;
+    next[e + 3] += error;
+  }
+
+  private static int clamp(int v) {
+    return v < 0 ? 0 : v > 255 ? 255 : v;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof Palette
+        && Arrays.equals(colors, ((Palette) obj).colors);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(colors);
+  }
+
+  @Override
+  public String toString() {
+    return "Palette[" + colors.length + " colors]";
+  }
+}
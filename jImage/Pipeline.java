@@ -0,0 +1,391 @@
+package jImage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntUnaryOperator;
+import java.util.function.UnaryOperator;
+
+/**
+ * Records a chain of edits to an Image and runs them together. Neighbouring
+ * point operations, which change each pixel based only on its own color, are
+ * fused into a single pass over the image, and are moved to whichever side of
+ * a nearest neighbor resize has fewer pixels. Nothing is changed until
+ * execute() is called.
+ *
+ * <pre>
+ * image.pipeline().red(r -&gt; r / 2).lut(curve)
+ *     .resize(640, 480, Image.SCALE_NEAREST).blur(2).execute();
+ * </pre>
+ *
+ * Point operators must give the same output for the same input, and may be
+ * called from several threads at once.
+ *
+ * @author Cy
+ *
+ */
+public final class Pipeline {
+  /**
+   * Pixels each fused point operation is run over before moving on to the
+   * next, small enough to stay in cache.
+   */
+  private static final int RUN = 4096;
+
+  private final Image image;
+  private final List<Object> stages = new ArrayList<Object>();
+
+  /**
+   * Creates an empty pipeline for image.
+   *
+   * @param image Image the pipeline edits.
+   */
+  Pipeline(Image image) {
+    this.image = image;
+  }
+
+  /**
+   * Adds a point operation on packed 0xRRGGBB pixels.
+   *
+   * @param operator function from the old packed pixel to the new one
+   * @return this pipeline
+   */
+  public Pipeline map(IntUnaryOperator operator) {
+    stages.add(new Point(null, operator));
+    return this;
+  }
+
+  /**
+   * Adds a point operation on Colors, like Image.setChannels().
+   *
+   * @param operator The UnaryOperator to set all of the channels.
+   * @return this pipeline
+   */
+  public Pipeline channels(UnaryOperator<Color> operator) {
+    return map(n -> operator.apply(Color.ofRGB(n)).toRGB());
+  }
+
+  /**
+   * Adds an operator applied to every channel, like Image.setAllChannels().
+   *
+   * @param operator The UnaryOperator to set all of the channels.
+   * @return this pipeline
+   */
+  public Pipeline mapChannels(UnaryOperator<Integer> operator) {
+    return map(n -> Color.pack(operator.apply(Color.red(n)),
+        operator.apply(Color.green(n)), operator.apply(Color.blue(n))));
+  }
+
+  /**
+   * Adds an operator on the red channel, like Image.setRedChannel().
+   *
+   * @param operator The UnaryOperator to set the red channel.
+   * @return this pipeline
+   */
+  public Pipeline red(UnaryOperator<Integer> operator) {
+    return map(n -> Color.withRed(n, operator.apply(Color.red(n))));
+  }
+
+  /**
+   * Adds an operator on the green channel, like Image.setGreenChannel().
+   *
+   * @param operator The UnaryOperator to set the green channel.
+   * @return this pipeline
+   */
+  public Pipeline green(UnaryOperator<Integer> operator) {
+    return map(n -> Color.withGreen(n, operator.apply(Color.green(n))));
+  }
+
+  /**
+   * Adds an operator on the blue channel, like Image.setBlueChannel().
+   *
+   * @param operator The UnaryOperator to set the blue channel.
+   * @return this pipeline
+   */
+  public Pipeline blue(UnaryOperator<Integer> operator) {
+    return map(n -> Color.withBlue(n, operator.apply(Color.blue(n))));
+  }
+
+  /**
+   * Adds a Lut. Neighbouring Luts are combined into one table.
+   *
+   * @param lut Lut to apply.
+   * @return this pipeline
+   */
+  public Pipeline lut(Lut lut) {
+    stages.add(new Point(lut, null));
+    return this;
+  }
+
+  /**
+   * Adds a resize, like Image.resize().
+   *
+   * @param width Width of the new Image.
+   * @param height Height of the new Image.
+   * @param hint Hint as to what type of scaling to use.
+   * @return this pipeline
+   */
+  public Pipeline resize(int width, int height, int hint) {
+    stages.add(new Resize(width, height, hint));
+    return this;
+  }
+
+  /**
+   * Adds a blur, like Image.blur().
+   *
+   * @param radius Width of the square area used to blur.
+   * @return this pipeline
+   */
+  public Pipeline blur(int radius) {
+    return sized(i -> i.blur(radius));
+  }
+
+  /**
+   * Adds a blur, like Image.blur().
+   *
+   * @param radius Width of the square area used to blur.
+   * @param edge How pixels past the border of the image are read.
+   * @param rootMeanSquare true to average the squares of each channel
+   * @return this pipeline
+   */
+  public Pipeline blur(int radius, EdgeMode edge, boolean rootMeanSquare) {
+    return sized(i -> i.blur(radius, edge, rootMeanSquare));
+  }
+
+  /**
+   * Adds a gaussian blur, like Image.gaussianBlur().
+   *
+   * @param sigma Standard deviation of the gaussian, in pixels.
+   * @param edge How pixels past the border of the image are read.
+   * @return this pipeline
+   */
+  public Pipeline gaussianBlur(double sigma, EdgeMode edge) {
+    return sized(i -> i.gaussianBlur(sigma, edge));
+  }
+
+  /**
+   * Adds a convolution, like Image.convolve().
+   *
+   * @param kernel Kernel to convolve with.
+   * @param edge How pixels past the border of the image are read.
+   * @return this pipeline
+   */
+  public Pipeline convolve(Kernel kernel, EdgeMode edge) {
+    return sized(i -> i.convolve(kernel, edge));
+  }
+
+  /**
+   * Adds an impose, like Image.impose().
+   *
+   * @param over The Image that is imposed
+   * @param colorKey The color that is ignored
+   * @return this pipeline
+   */
+  public Pipeline impose(BaseImage over, Color colorKey) {
+    return sized(i -> i.impose(over, colorKey));
+  }
+
+  /**
+   * Adds any other edit. Point operations are never moved past it.
+   *
+   * @param step edit to make to the Image
+   * @return this pipeline
+   */
+  public Pipeline step(Consumer<Image> step) {
+    stages.add(new Step(step, false));
+    return this;
+  }
+
+  /**
+   * Adds an edit that keeps the image the same size.
+   */
+  private Pipeline sized(Consumer<Image> step) {
+    stages.add(new Step(step, true));
+    return this;
+  }
+
+  /**
+   * Runs every recorded edit on the Image.
+   *
+   * @return the edited Image
+   */
+  public Image execute() {
+    image.lock.writeAll();
+    try {
+      for (Object stage : plan()) {
+        if (stage instanceof Fused) {
+          image.mapRows((Fused) stage);
+        } else if (stage instanceof Resize) {
+          Resize r = (Resize) stage;
+          image.resize(r.width, r.height, r.hint);
+        } else {
+          ((Step) stage).operation.accept(image);
+        }
+      }
+    } finally {
+      image.lock.unlockWriteAll();
+    }
+    return image;
+  }
+
+  /**
+   * Groups neighbouring point operations into fused stages, then moves them
+   * across nearest neighbor resizes to the side with fewer pixels. Nearest
+   * neighbor only copies pixels, so any point operation gives the same result
+   * on either side of it.
+   */
+  private List<Object> plan() {
+    List<Object> plan = new ArrayList<Object>();
+    List<Point> group = new ArrayList<Point>();
+    long pixels = (long) image.width() * image.height();
+    for (Object stage : stages) {
+      if (stage instanceof Point) {
+        group.add((Point) stage);
+        continue;
+      }
+      flush(plan, group);
+      if (stage instanceof Resize) {
+        Resize r = (Resize) stage;
+        r.before = pixels;
+        r.after = (long) r.width * r.height;
+        pixels = r.after;
+      } else if (!((Step) stage).keepsSize) {
+        pixels = -1;
+      }
+      plan.add(stage);
+    }
+    flush(plan, group);
+    boolean moved = true;
+    while (moved) {
+      moved = false;
+      for (int i = 0; i < plan.size(); i++) {
+        if (!(plan.get(i) instanceof Resize)) {
+          continue;
+        }
+        Resize r = (Resize) plan.get(i);
+        if (r.hint != Image.SCALE_NEAREST || r.before < 0) {
+          continue;
+        }
+        if (r.after < r.before && i > 0 && plan.get(i - 1) instanceof Fused) {
+          Fused f = (Fused) plan.remove(i - 1);
+          if (i < plan.size() && plan.get(i) instanceof Fused) {
+            plan.set(i, f.then((Fused) plan.get(i)));
+          } else {
+            plan.add(i, f);
+          }
+          moved = true;
+        } else if (r.after > r.before && i + 1 < plan.size()
+            && plan.get(i + 1) instanceof Fused) {
+          Fused f = (Fused) plan.remove(i + 1);
+          if (i > 0 && plan.get(i - 1) instanceof Fused) {
+            plan.set(i - 1, ((Fused) plan.get(i - 1)).then(f));
+          } else {
+            plan.add(i, f);
+          }
+          moved = true;
+        }
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Adds the pending group, if any, to the plan as one fused stage.
+   */
+  private static void flush(List<Object> plan, List<Point> group) {
+    if (!group.isEmpty()) {
+      plan.add(new Fused(group));
+      group.clear();
+    }
+  }
+
+  /**
+   * Any other edit, and whether it is known to keep the image the same size.
+   */
+  private static final class Step {
+    final Consumer<Image> operation;
+    final boolean keepsSize;
+
+    Step(Consumer<Image> operation, boolean keepsSize) {
+      this.operation = operation;
+      this.keepsSize = keepsSize;
+    }
+  }
+
+  /**
+   * A point operation, either a Lut or a packed pixel function.
+   */
+  private static final class Point {
+    final Lut lut;
+    final IntUnaryOperator operator;
+
+    Point(Lut lut, IntUnaryOperator operator) {
+      this.lut = lut;
+      this.operator = operator;
+    }
+  }
+
+  /**
+   * A recorded resize, with the number of pixels on each side of it once the
+   * plan is made, or -1 if that is not known.
+   */
+  private static final class Resize {
+    final int width;
+    final int height;
+    final int hint;
+    long before;
+    long after;
+
+    Resize(int width, int height, int hint) {
+      this.width = width;
+      this.height = height;
+      this.hint = hint;
+    }
+  }
+
+  /**
+   * Point operations run together over small runs of pixels, with
+   * neighbouring Luts already combined.
+   */
+  private static final class Fused implements Image.PixelRun {
+    private final List<Point> points = new ArrayList<Point>();
+
+    Fused(List<Point> group) {
+      for (Point p : group) {
+        add(p);
+      }
+    }
+
+    private void add(Point p) {
+      int last = points.size() - 1;
+      if (p.lut != null && last >= 0 && points.get(last).lut != null) {
+        points.set(last, new Point(points.get(last).lut.then(p.lut), null));
+      } else {
+        points.add(p);
+      }
+    }
+
+    Fused then(Fused next) {
+      Fused f = new Fused(points);
+      for (Point p : next.points) {
+        f.add(p);
+      }
+      return f;
+    }
+
+    public void apply(int[] pixels, int start, int end) {
+      for (int s = start; s < end; s += RUN) {
+        int e = Math.min(end, s + RUN);
+        for (Point p : points) {
+          if (p.lut != null) {
+            p.lut.apply(pixels, s, e);
+          } else {
+            for (int i = s; i < e; i++) {
+              pixels[i] = p.operator.applyAsInt(pixels[i] & 0xFFFFFF)
+                  & 0xFFFFFF;
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package jImage;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A chain of edits that can be described as text, so the same chain always
+ * gives the same description. Used as the key for derived images in a
+ * DerivativeCache, and applied through a Pipeline. Recipes are immutable;
+ * every method returns a new Recipe.
+ *
+ * <pre>
+ * Recipe thumb = Recipe.create().resize(320, 240, Image.SCALE_AREA_AVERAGE)
+ *     .gaussianBlur(0.8, EdgeMode.CLAMP);
+ * </pre>
+ *
+ * @author Cy
+ *
+ */
+public final class Recipe {
+  private final List<Consumer<Pipeline>> steps;
+  private final String description;
+
+  private Recipe(List<Consumer<Pipeline>> steps, String description) {
+    this.steps = steps;
+    this.description = description;
+  }
+
+  /**
+   * Returns a Recipe with no edits.
+   *
+   * @return an empty Recipe
+   */
+  public static Recipe create() {
+    return new Recipe(new ArrayList<Consumer<Pipeline>>(), "");
+  }
+
+  private Recipe then(String step, Consumer<Pipeline> operation) {
+    List<Consumer<Pipeline>> next = new ArrayList<Consumer<Pipeline>>(steps);
+    next.add(operation);
+    return new Recipe(next, description.isEmpty() ? step
+        : description + "|" + step);
+  }
+
+  /**
+   * Adds a resize, like Image.resize().
+   *
+   * @param width Width of the new Image.
+   * @param height Height of the new Image.
+   * @param hint Hint as to what type of scaling to use.
+   * @return the new Recipe
+   */
+  public Recipe resize(int width, int height, int hint) {
+    return then("resize(" + width + "," + height + "," + hint + ")",
+        p -> p.resize(width, height, hint));
+  }
+
+  /**
+   * Adds a blur, like Image.blur().
+   *
+   * @param radius Width of the square area used to blur.
+   * @return the new Recipe
+   */
+  public Recipe blur(int radius) {
+    return then("blur(" + radius + ")", p -> p.blur(radius));
+  }
+
+  /**
+   * Adds a blur, like Image.blur().
+   *
+   * @param radius Width of the square area used to blur.
+   * @param edge How pixels past the border of the image are read.
+   * @param rootMeanSquare true to average the squares of each channel
+   * @return the new Recipe
+   */
+  public Recipe blur(int radius, EdgeMode edge, boolean rootMeanSquare) {
+    return then("blur(" + radius + "," + edge + "," + rootMeanSquare + ")",
+        p -> p.blur(radius, edge, rootMeanSquare));
+  }
+
+  /**
+   * Adds a gaussian blur, like Image.gaussianBlur().
+   *
+   * @param sigma Standard deviation of the gaussian, in pixels.
+   * @param edge How pixels past the border of the image are read.
+   * @return the new Recipe
+   */
+  public Recipe gaussianBlur(double sigma, EdgeMode edge) {
+    return then("gaussianBlur(" + sigma + "," + edge + ")",
+        p -> p.gaussianBlur(sigma, edge));
+  }
+
+  /**
+   * Adds a Lut. The Lut is described by a digest of its tables, so two Luts
+   * with the same tables give the same description however they were made.
+   *
+   * @param lut Lut to apply.
+   * @return the new Recipe
+   */
+  public Recipe lut(Lut lut) {
+    return then("lut(" + digest(lut) + ")", p -> p.lut(lut));
+  }
+
+  /**
+   * Adds a reduction to a median cut palette, like Image.quantize().
+   *
+   * @param colors largest number of colors, 1 to 256
+   * @param dither how to spread the colors that are lost
+   * @return the new Recipe
+   */
+  public Recipe quantize(int colors, Dither dither) {
+    return then("quantize(" + colors + "," + dither + ")",
+        p -> p.step(i -> i.quantize(colors, dither)));
+  }
+
+  /**
+   * Adds any other edit. The name must describe the edit and every parameter
+   * it depends on, since two steps with the same name are taken to be the
+   * same.
+   *
+   * @param name description of the edit, without '|'
+   * @param step edit to make to the Image
+   * @return the new Recipe
+   */
+  public Recipe step(String name, Consumer<Image> step) {
+    if (name.indexOf('|') >= 0) {
+      throw new IllegalArgumentException("Step names can not contain '|'.");
+    }
+    return then("step(" + name + ")", p -> p.step(step));
+  }
+
+  /**
+   * Makes every edit to an Image, as one Pipeline.
+   *
+   * @param image Image to edit
+   * @return the edited Image
+   */
+  public Image apply(Image image) {
+    Pipeline p = image.pipeline();
+    for (Consumer<Pipeline> step : steps) {
+      step.accept(p);
+    }
+    return p.execute();
+  }
+
+  private static String digest(Lut lut) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      for (int v = 0; v < 256; v++) {
+        md.update((byte) lut.getRed(v));
+        md.update((byte) lut.getGreen(v));
+        md.update((byte) lut.getBlue(v));
+      }
+      return hex(md.digest(), 16);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the first n bytes as hex digits.
+   */
+  static String hex(byte[] bytes, int n) {
+    StringBuilder s = new StringBuilder(2 * n);
+    for (int i = 0; i < n; i++) {
+      s.append(Character.forDigit((bytes[i] >> 4) & 15, 16));
+      s.append(Character.forDigit(bytes[i] & 15, 16));
+    }
+    return s.toString();
+  }
+
+  /**
+   * Returns the hex SHA-256 of a string, shortened to n bytes.
+   */
+  static String sha256(String text, int n) {
+    try {
+      return hex(MessageDigest.getInstance("SHA-256").digest(
+          text.getBytes(StandardCharsets.UTF_8)), n);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof Recipe
+        && description.equals(((Recipe) obj).description);
+  }
+
+  @Override
+  public int hashCode() {
+    return description.hashCode();
+  }
+
+  /**
+   * Returns the description of the edits, the same for any two Recipes with
+   * the same edits.
+   *
+   * @return String description
+   */
+  @Override
+  public String toString() {
+    return description;
+  }
+}
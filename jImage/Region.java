@@ -0,0 +1,90 @@
+package jImage;
+
+/**
+ * Rectangular area of an image. Regions are immutable.
+ *
+ * @author Cy
+ *
+ */
+public final class Region {
+  private final int x;
+  private final int y;
+  private final int width;
+  private final int height;
+
+  /**
+   * Creates a region from its top left corner and size.
+   *
+   * @param x Left-most x coordinate of the region.
+   * @param y Upper y coordinate of the region.
+   * @param width Width of the region.
+   * @param height Height of the region.
+   */
+  public Region(int x, int y, int width, int height) {
+    if (width < 0 || height < 0) {
+      throw new IllegalArgumentException("Region size can not be negative.");
+    }
+    this.x = x;
+    this.y = y;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Returns the left-most x coordinate.
+   *
+   * @return the int value for x
+   */
+  public int getX() {
+    return x;
+  }
+
+  /**
+   * Returns the upper y coordinate.
+   *
+   * @return the int value for y
+   */
+  public int getY() {
+    return y;
+  }
+
+  /**
+   * Returns the width of the region.
+   *
+   * @return the int value for width
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Returns the height of the region.
+   *
+   * @return the int value for height
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Tests if two regions cover the same area.
+   *
+   * @param o Object being tested.
+   * @return boolean telling of equivalent
+   */
+  public boolean equals(Object o) {
+    if (!(o instanceof Region)) {
+      return false;
+    }
+    Region r = (Region) o;
+    return x == r.x && y == r.y && width == r.width && height == r.height;
+  }
+
+  public int hashCode() {
+    return ((x * 31 + y) * 31 + width) * 31 + height;
+  }
+
+  public String toString() {
+    return "Region[" + x + ", " + y + ", " + width + "x" + height + "]";
+  }
+}
@@ -0,0 +1,482 @@
+package jImage;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resizes packed 0xRRGGBB pixel buffers. Source coordinates and weights are
+ * worked out once per column and once per row, then output rows are filled in
+ * parallel.
+ *
+ * @author Cy
+ *
+ */
+final class Resampler {
+  /**
+   * Bits of fraction in bilinear weights. Two weights multiplied by a channel
+   * value must still fit in an int.
+   */
+  private static final int BITS = 11;
+  private static final int ONE = 1 << BITS;
+
+  /**
+   * Bits of fraction in filter weights.
+   */
+  private static final int FILTER_BITS = 14;
+
+  /**
+   * Number of contribution tables kept for reuse.
+   */
+  private static final int CACHE_SIZE = 64;
+
+  @SuppressWarnings("serial")
+  private static final Map<String, Contributions> cache =
+      new LinkedHashMap<String, Contributions>(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<String, Contributions> e) {
+      return size() > CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Private constructor to prevent instantiation.
+   */
+  private Resampler() {}
+
+  /**
+   * Nearest neighbor scaling.
+   *
+   * @param src packed source pixels
+   * @param srcWidth Width of the source.
+   * @param srcHeight Height of the source.
+   * @param dst packed output pixels, width * height long
+   * @param width Width of the output.
+   * @param height Height of the output.
+   * @param executor TileExecutor to split the rows across
+   */
+  static void nearest(int[] src, int srcWidth, int srcHeight, int[] dst,
+      int width, int height, TileExecutor executor) {
+    int[] xs = nearestTable(srcWidth, width);
+    int[] ys = nearestTable(srcHeight, height);
+    executor.forEachBand(width, height, (start, end) -> {
+      for (int j = start; j < end; j++) {
+        int row = ys[j] * srcWidth;
+        int out = j * width;
+        for (int i = 0; i < width; i++) {
+          dst[out + i] = src[row + xs[i]];
+        }
+      }
+    });
+  }
+
+  /**
+   * Bilinear scaling in fixed point.
+   *
+   * @param src packed source pixels
+   * @param srcWidth Width of the source.
+   * @param srcHeight Height of the source.
+   * @param dst packed output pixels, width * height long
+   * @param width Width of the output.
+   * @param height Height of the output.
+   * @param executor TileExecutor to split the rows across
+   */
+  static void bilinear(int[] src, int srcWidth, int srcHeight, int[] dst,
+      int width, int height, TileExecutor executor) {
+    int[] x0 = new int[width];
+    int[] x1 = new int[width];
+    int[] wx = new int[width];
+    linearTable(srcWidth, width, x0, x1, wx);
+    int[] y0 = new int[height];
+    int[] y1 = new int[height];
+    int[] wy = new int[height];
+    linearTable(srcHeight, height, y0, y1, wy);
+    executor.forEachBand(width, height, (start, end) -> {
+      for (int j = start; j < end; j++) {
+        bilinearRow(src, y0[j] * srcWidth, src, y1[j] * srcWidth, wy[j], x0,
+            x1, wx, dst, j * width, width);
+      }
+    });
+  }
+
+  /**
+   * Blends two source rows, top starting at offset top of upper and bottom
+   * at offset bottom of lower, into one output row.
+   */
+  private static void bilinearRow(int[] upper, int top, int[] lower,
+      int bottom, int fy, int[] x0, int[] x1, int[] wx, int[] dst, int out,
+      int width) {
+    for (int i = 0; i < width; i++) {
+      int fx = wx[i];
+      int w00 = (ONE - fx) * (ONE - fy);
+      int w10 = fx * (ONE - fy);
+      int w01 = (ONE - fx) * fy;
+      int w11 = fx * fy;
+      int p00 = upper[top + x0[i]];
+      int p10 = upper[top + x1[i]];
+      int p01 = lower[bottom + x0[i]];
+      int p11 = lower[bottom + x1[i]];
+      int pixel = 0;
+      for (int shift = 16; shift >= 0; shift -= 8) {
+        int c = (w00 * ((p00 >> shift) & 0xFF) + w10
+            * ((p10 >> shift) & 0xFF) + w01 * ((p01 >> shift) & 0xFF) + w11
+            * ((p11 >> shift) & 0xFF)) >>> (2 * BITS);
+        pixel |= c << shift;
+      }
+      dst[out + i] = pixel;
+    }
+  }
+
+  /**
+   * Scaling with a separable filter. Rows are filtered first into a scratch
+   * buffer, then columns, both in parallel.
+   *
+   * @param src packed source pixels
+   * @param srcWidth Width of the source.
+   * @param srcHeight Height of the source.
+   * @param dst packed output pixels, width * height long
+   * @param width Width of the output.
+   * @param height Height of the output.
+   * @param filter Filter to weight source pixels with.
+   * @param executor TileExecutor to split the rows across
+   */
+  static void filtered(int[] src, int srcWidth, int srcHeight, int[] dst,
+      int width, int height, Filter filter, TileExecutor executor) {
+    Contributions across = contributions(srcWidth, width, filter);
+    Contributions down = contributions(srcHeight, height, filter);
+    int[] mid = new int[width * srcHeight];
+    executor.forEachBand(width, srcHeight, (start, end) -> {
+      for (int y = start; y < end; y++) {
+        filterRow(src, y * srcWidth, across, mid, y * width, width);
+      }
+    });
+    executor.forEachBand(width, height, (start, end) -> {
+      int[][] sums = new int[3][width];
+      for (int y = start; y < end; y++) {
+        filterColumns(mid, 0, down, y, sums, dst, y * width, width);
+      }
+    });
+  }
+
+  /**
+   * Nearest neighbor scaling between images without backing arrays, such as
+   * memory-mapped ones. Each output row reads the one source row it needs,
+   * so only a row of each image is held at a time.
+   *
+   * @param src image to scale, not changed
+   * @param dst image the result is written to
+   * @param executor TileExecutor to split the rows across
+   */
+  static void nearest(BaseImage src, BaseImage dst, TileExecutor executor) {
+    int srcWidth = src.width();
+    int width = dst.width();
+    int height = dst.height();
+    int[] xs = nearestTable(srcWidth, width);
+    int[] ys = nearestTable(src.height(), height);
+    executor.forEachBand(width, height, (start, end) -> {
+      int[] in = new int[srcWidth];
+      int[] out = new int[width];
+      int read = -1;
+      for (int j = start; j < end; j++) {
+        if (ys[j] != read) {
+          read = ys[j];
+          src.readRGB(0, read, srcWidth, 1, in, 0, srcWidth);
+        }
+        for (int i = 0; i < width; i++) {
+          out[i] = in[xs[i]];
+        }
+        dst.writeRGB(0, j, width, 1, out, 0, width);
+      }
+    });
+  }
+
+  /**
+   * Bilinear scaling between images without backing arrays, reading the two
+   * source rows each output row needs.
+   *
+   * @param src image to scale, not changed
+   * @param dst image the result is written to
+   * @param executor TileExecutor to split the rows across
+   */
+  static void bilinear(BaseImage src, BaseImage dst, TileExecutor executor) {
+    int srcWidth = src.width();
+    int width = dst.width();
+    int height = dst.height();
+    int[] x0 = new int[width];
+    int[] x1 = new int[width];
+    int[] wx = new int[width];
+    linearTable(srcWidth, width, x0, x1, wx);
+    int[] y0 = new int[height];
+    int[] y1 = new int[height];
+    int[] wy = new int[height];
+    linearTable(src.height(), height, y0, y1, wy);
+    executor.forEachBand(width, height, (start, end) -> {
+      int[] upper = new int[srcWidth];
+      int[] lower = new int[srcWidth];
+      int[] out = new int[width];
+      for (int j = start; j < end; j++) {
+        src.readRGB(0, y0[j], srcWidth, 1, upper, 0, srcWidth);
+        src.readRGB(0, y1[j], srcWidth, 1, lower, 0, srcWidth);
+        bilinearRow(upper, 0, lower, 0, wy[j], x0, x1, wx, out, 0, width);
+        dst.writeRGB(0, j, width, 1, out, 0, width);
+      }
+    });
+  }
+
+  /**
+   * Filtered scaling between images without backing arrays. Each band of
+   * output rows filters only the source rows under it, about
+   * BaseImage.BAND_PIXELS output pixels at a time, so neither image is ever
+   * held whole.
+   *
+   * @param src image to scale, not changed
+   * @param dst image the result is written to
+   * @param filter Filter to weight source pixels with.
+   * @param executor TileExecutor to split the rows across
+   */
+  static void filtered(BaseImage src, BaseImage dst, Filter filter,
+      TileExecutor executor) {
+    int srcWidth = src.width();
+    int width = dst.width();
+    int height = dst.height();
+    Contributions across = contributions(srcWidth, width, filter);
+    Contributions down = contributions(src.height(), height, filter);
+    int step = Math.max(1, BaseImage.BAND_PIXELS / width);
+    executor.forEachBand(width, height, (start, end) -> {
+      int[] in = new int[srcWidth];
+      int[] out = new int[width];
+      int[][] sums = new int[3][width];
+      for (int y0 = start; y0 < end; y0 += step) {
+        int y1 = Math.min(y0 + step, end);
+        int first = down.start[y0];
+        int last = first;
+        for (int y = y0; y < y1; y++) {
+          last = Math.max(last, down.start[y] + down.count[y]);
+        }
+        int[] mid = new int[(last - first) * width];
+        for (int sy = first; sy < last; sy++) {
+          src.readRGB(0, sy, srcWidth, 1, in, 0, srcWidth);
+          filterRow(in, 0, across, mid, (sy - first) * width, width);
+        }
+        for (int y = y0; y < y1; y++) {
+          filterColumns(mid, first, down, y, sums, out, 0, width);
+          dst.writeRGB(0, y, width, 1, out, 0, width);
+        }
+      }
+    });
+  }
+
+  /**
+   * Filters one source row starting at offset in of src into width pixels
+   * of mid starting at out.
+   */
+  private static void filterRow(int[] src, int in, Contributions across,
+      int[] mid, int out, int width) {
+    for (int x = 0; x < width; x++) {
+      int first = across.start[x];
+      int w = x * across.stride;
+      int r = 0;
+      int g = 0;
+      int b = 0;
+      for (int k = 0; k < across.count[x]; k++) {
+        int p = src[in + first + k];
+        int weight = across.weights[w + k];
+        r += weight * ((p >> 16) & 0xFF);
+        g += weight * ((p >> 8) & 0xFF);
+        b += weight * (p & 0xFF);
+      }
+      mid[out + x] = clamp(r) << 16 | clamp(g) << 8 | clamp(b);
+    }
+  }
+
+  /**
+   * Filters the rows of mid under output row y into width pixels of dst
+   * starting at out. Row 0 of mid is source row base.
+   */
+  private static void filterColumns(int[] mid, int base, Contributions down,
+      int y, int[][] sums, int[] dst, int out, int width) {
+    int[] r = sums[0];
+    int[] g = sums[1];
+    int[] b = sums[2];
+    Arrays.fill(r, 0);
+    Arrays.fill(g, 0);
+    Arrays.fill(b, 0);
+    int first = down.start[y];
+    for (int k = 0; k < down.count[y]; k++) {
+      int weight = down.weights[y * down.stride + k];
+      int in = (first + k - base) * width;
+      for (int x = 0; x < width; x++) {
+        int p = mid[in + x];
+        r[x] += weight * ((p >> 16) & 0xFF);
+        g[x] += weight * ((p >> 8) & 0xFF);
+        b[x] += weight * (p & 0xFF);
+      }
+    }
+    for (int x = 0; x < width; x++) {
+      dst[out + x] = clamp(r[x]) << 16 | clamp(g[x]) << 8 | clamp(b[x]);
+    }
+  }
+
+  /**
+   * Rounds a fixed point channel sum and clamps it to 0-255.
+   */
+  private static int clamp(int sum) {
+    int c = (sum + (1 << (FILTER_BITS - 1))) >> FILTER_BITS;
+    return c < 0 ? 0 : (c > 255 ? 255 : c);
+  }
+
+  /**
+   * Returns the contribution table for scaling srcSize pixels to size pixels
+   * with filter, building it if it is not cached.
+   */
+  static Contributions contributions(int srcSize, int size, Filter filter) {
+    String key = srcSize + ":" + size + ":" + filter;
+    synchronized (cache) {
+      Contributions c = cache.get(key);
+      if (c != null) {
+        return c;
+      }
+    }
+    Contributions c = new Contributions(srcSize, size, filter);
+    synchronized (cache) {
+      cache.put(key, c);
+    }
+    return c;
+  }
+
+  /**
+   * Filters for filtered scaling.
+   */
+  enum Filter {
+    /**
+     * Averages every source pixel covered by the output pixel, weighted by how
+     * much of it is covered.
+     */
+    AREA_AVERAGE(0.5),
+    /**
+     * Windowed sinc with three lobes.
+     */
+    LANCZOS3(3),
+    /**
+     * Mitchell-Netravali cubic with B = C = 1/3.
+     */
+    MITCHELL(2);
+
+    final double support;
+
+    Filter(double support) {
+      this.support = support;
+    }
+
+    /**
+     * Weight of a source pixel x pixels away from the sample point.
+     */
+    double weight(double x) {
+      x = Math.abs(x);
+      switch (this) {
+      case LANCZOS3:
+        if (x < 1e-9) {
+          return 1;
+        }
+        if (x >= 3) {
+          return 0;
+        }
+        double px = Math.PI * x;
+        return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+      case MITCHELL:
+        double b = 1.0 / 3;
+        double c = 1.0 / 3;
+        if (x < 1) {
+          return ((12 - 9 * b - 6 * c) * x * x * x + (-18 + 12 * b + 6 * c)
+              * x * x + (6 - 2 * b)) / 6;
+        }
+        if (x < 2) {
+          return ((-b - 6 * c) * x * x * x + (6 * b + 30 * c) * x * x
+              + (-12 * b - 48 * c) * x + (8 * b + 24 * c)) / 6;
+        }
+        return 0;
+      default:
+        return x <= 0.5 ? 1 : 0;
+      }
+    }
+  }
+
+  /**
+   * For every output index, the first source index that contributes to it,
+   * how many do, and their fixed point weights.
+   */
+  static final class Contributions {
+    final int[] start;
+    final int[] count;
+    final int[] weights;
+    final int stride;
+
+    Contributions(int srcSize, int size, Filter filter) {
+      double ratio = (double) srcSize / size;
+      double stretch = Math.max(ratio, 1);
+      double support = filter.support * stretch;
+      stride = (int) Math.ceil(support) * 2 + 2;
+      start = new int[size];
+      count = new int[size];
+      weights = new int[size * stride];
+      double[] w = new double[stride];
+      for (int i = 0; i < size; i++) {
+        double center = (i + 0.5) * ratio;
+        int first = Math.max((int) Math.floor(center - support), 0);
+        int last = Math.min((int) Math.ceil(center + support), srcSize);
+        int n = 0;
+        double total = 0;
+        for (int k = first; k < last && n < stride; k++, n++) {
+          if (filter == Filter.AREA_AVERAGE) {
+            double low = Math.max(k, center - support);
+            double high = Math.min(k + 1, center + support);
+            w[n] = Math.max(high - low, 0);
+          } else {
+            w[n] = filter.weight((k + 0.5 - center) / stretch);
+          }
+          total += w[n];
+        }
+        if (total == 0) {
+          total = 1;
+        }
+        start[i] = first;
+        count[i] = n;
+        int sum = 0;
+        int peak = 0;
+        for (int k = 0; k < n; k++) {
+          int fixed = (int) Math.round(w[k] / total * (1 << FILTER_BITS));
+          weights[i * stride + k] = fixed;
+          sum += fixed;
+          if (fixed > weights[i * stride + peak]) {
+            peak = k;
+          }
+        }
+        weights[i * stride + peak] += (1 << FILTER_BITS) - sum;
+      }
+    }
+  }
+
+  /**
+   * Source index for each output index, matching (int) (srcSize * i / size).
+   */
+  private static int[] nearestTable(int srcSize, int size) {
+    int[] t = new int[size];
+    for (int i = 0; i < size; i++) {
+      t[i] = Math.min((int) ((double) srcSize * i / size), srcSize - 1);
+    }
+    return t;
+  }
+
+  /**
+   * The two source indexes each output index falls between, and the fixed
+   * point weight of the second.
+   */
+  private static void linearTable(int srcSize, int size, int[] first,
+      int[] second, int[] weight) {
+    for (int i = 0; i < size; i++) {
+      double p = (double) srcSize * i / size;
+      first[i] = Math.min((int) p, srcSize - 1);
+      second[i] = Math.min(first[i] + 1, srcSize - 1);
+      weight[i] = (int) ((p - (int) p) * ONE);
+    }
+  }
+}
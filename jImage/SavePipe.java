@@ -1,85 +1,274 @@
 package jImage;
 
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Class to act as a pipe between Image.concurrentSave() and Saver.
- * Protected because all functionality is abstracted down to concurrentSave().
- * 
+ * Class to act as a pipe between Image.concurrentSave() and the threads that
+ * encode and write the files. Saves wait in a bounded queue and are handed to
+ * a fixed number of encoder threads. The time from save() to an encoder
+ * starting is recorded to Metrics as "savePipe.wait".
+ *
  * @author cy
  *
  */
-class SavePipe {
-  private Queue<Image> images = new ArrayBlockingQueue<Image>(100);
-  private Queue<String> names = new ArrayBlockingQueue<String>(100);
-  private Saver s = new Saver(images, names, Thread.currentThread());
-  private Thread th = null;
+public class SavePipe {
+  /**
+   * What save() does when the queue is full.
+   */
+  public enum Policy {
+    /**
+     * Waits for room in the queue.
+     */
+    BLOCK,
+    /**
+     * Fails the returned future with a RejectedExecutionException.
+     */
+    REJECT,
+    /**
+     * Saves the image on the calling thread.
+     */
+    CALLER_RUNS
+  }
+
   private static SavePipe pipe = null;
-  
+  private static boolean hooked = false;
+
+  private final ExecutorService encoders;
+  private final Semaphore room;
+  private final Policy policy;
+  private int pending = 0;
+  private RuntimeException failure = null;
+  private boolean closed = false;
+
   /**
-   * Starts the Thread.
+   * Starts the encoder threads.
+   *
+   * @param threads number of encoder threads
+   * @param capacity number of saves that may wait for a thread
+   * @param policy what to do when the queue is full
+   * @param virtual use virtual threads when the JVM has them
    */
-  protected SavePipe() {
-    th = new Thread(s);
-    th.start();
+  protected SavePipe(int threads, int capacity, Policy policy, boolean virtual) {
+    if (threads < 1 || capacity < 0) {
+      throw new IllegalArgumentException(
+          "Threads must be positive and capacity not negative.");
+    }
+    this.policy = policy;
+    room = new Semaphore(threads + capacity);
+    encoders = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), threadFactory("jImage-save-",
+            virtual));
   }
-  
+
   /**
-   * Returns the singleton instance of SavePipe
+   * Returns the singleton instance of SavePipe, starting one encoder thread
+   * per core with room for 100 waiting saves if it does not exist yet.
+   *
    * @return Instance of SavePipe
    */
   public synchronized static SavePipe getPipe() {
-    synchronized(pipe) {
-      if (pipe == null) {
-        pipe = new SavePipe();
-      }
-      return pipe;
+    if (pipe == null) {
+      setPipe(new SavePipe(Runtime.getRuntime().availableProcessors(), 100,
+          Policy.BLOCK, false));
     }
+    return pipe;
   }
-  
+
   /**
-   * Adds the Image and file name to the queues to be processed by the Saver thread.
-   * @param im Image to be added
-   * @param fn File name for the image
+   * Replaces the singleton SavePipe with one using the given settings. Saves
+   * already queued on the old pipe are finished first.
+   *
+   * @param threads number of encoder threads
+   * @param capacity number of saves that may wait for a thread
+   * @param policy what to do when the queue is full
+   * @param virtual use virtual threads when the JVM has them
+   */
+  public synchronized static void configure(int threads, int capacity,
+      Policy policy, boolean virtual) {
+    SavePipe old = pipe;
+    setPipe(new SavePipe(threads, capacity, policy, virtual));
+    if (old != null) {
+      old.shutdown();
+    }
+  }
+
+  /**
+   * Installs p as the singleton and makes sure it is drained when the JVM
+   * exits.
    */
-  public synchronized void save(Image im, String fn) {
-    synchronized(pipe) {
-      images.add(im);
-      names.add(fn);
+  private static void setPipe(SavePipe p) {
+    pipe = p;
+    if (!hooked) {
+      hooked = true;
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        SavePipe last;
+        synchronized (SavePipe.class) {
+          last = pipe;
+        }
+        last.shutdown();
+      }));
     }
   }
-  
+
   /**
-   * Runnable class that actually does the saving.
-   * 
-   * @author cy
+   * Queues the Image to be saved to a file by an encoder thread.
    *
+   * @param im Image to be saved, which should not be changed afterwards
+   * @param fn File name for the image
+   * @return future completed when the file is written, or completed
+   *         exceptionally if it could not be
    */
-  private class Saver implements Runnable{
-    private Queue<Image> images;
-    private Queue<String> names;
-    private Thread mainThread;
-    public Saver(Queue<Image> ims, Queue<String> fns, Thread main) {
-      images = ims;
-      names = fns;
-      mainThread = main;
-    }
-    
-    public void run() {
-      while(true) {
-        if(Thread.interrupted()) {
-          break;
-        }
-        if(!mainThread.isAlive() && images.size() == 0 && names.size() == 0) {
-          break;
-        }
-        if(images.size() == names.size() && images.size()>0 && names.size()>0) {
-          Image i = images.remove();
-          String fn = names.remove();
-          i.save(fn);
+  public CompletableFuture<Void> save(Image im, String fn) {
+    Metrics.Probe queued = Metrics.start("savePipe.wait");
+    CompletableFuture<Void> future = new CompletableFuture<Void>();
+    synchronized (this) {
+      if (closed) {
+        future.completeExceptionally(new RejectedExecutionException(
+            "SavePipe has been shut down."));
+        return future;
+      }
+      pending++;
+    }
+    if (!acquire()) {
+      if (policy == Policy.CALLER_RUNS) {
+        write(im, fn, future, queued);
+      } else {
+        finished(null);
+        future.completeExceptionally(new RejectedExecutionException(
+            "SavePipe is full, can not save: " + fn));
+      }
+      return future;
+    }
+    try {
+      encoders.execute(() -> {
+        try {
+          write(im, fn, future, queued);
+        } finally {
+          room.release();
         }
+      });
+    } catch (RejectedExecutionException e) {
+      room.release();
+      finished(null);
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Takes a place in the queue, waiting for one under the BLOCK policy.
+   */
+  private boolean acquire() {
+    if (policy != Policy.BLOCK) {
+      return room.tryAcquire();
+    }
+    try {
+      room.acquire();
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Saves one image and completes its future. Whatever is thrown, even an
+   * Error, still completes the future and counts the save as finished, so
+   * flush() never waits on it. Errors are thrown on after that.
+   */
+  private void write(Image im, String fn, CompletableFuture<Void> future,
+      Metrics.Probe queued) {
+    try {
+      Metrics.end(queued, (long) im.width() * im.height());
+      im.save(fn);
+      finished(null);
+      future.complete(null);
+    } catch (Throwable t) {
+      finished(t instanceof RuntimeException ? (RuntimeException) t
+          : new RuntimeException("Can Not Save File: " + fn, t));
+      future.completeExceptionally(t);
+      if (t instanceof Error) {
+        throw (Error) t;
+      }
+    }
+  }
+
+  private synchronized void finished(RuntimeException e) {
+    if (e != null && failure == null) {
+      failure = e;
+    }
+    if (--pending == 0) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Waits until every queued save has been written. Throws the first save
+   * failure since the last flush, if there was one.
+   */
+  public synchronized void flush() {
+    try {
+      while (pending > 0) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted While Saving.");
+    }
+    if (failure != null) {
+      RuntimeException e = failure;
+      failure = null;
+      throw e;
+    }
+  }
+
+  /**
+   * Stops accepting saves, waits for the queued ones to be written and stops
+   * the encoder threads. Failures are left on the returned futures.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      closed = true;
+    }
+    encoders.shutdown();
+    try {
+      while (!encoders.awaitTermination(1, TimeUnit.MINUTES)) {
+        // keep waiting for long saves
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Makes daemon threads named with a count after name, using virtual threads
+   * if asked for and available.
+   */
+  static ThreadFactory threadFactory(String name, boolean virtual) {
+    if (virtual) {
+      try {
+        Class<?> type = Class.forName("java.lang.Thread$Builder");
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        builder = type.getMethod("name", String.class, long.class).invoke(
+            builder, name, 0L);
+        return (ThreadFactory) type.getMethod("factory").invoke(builder);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // no virtual threads before Java 21
       }
     }
+    AtomicInteger count = new AtomicInteger();
+    return r -> {
+      Thread t = new Thread(r, name + count.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    };
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,242 @@
+package jImage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * Splits per-pixel work into row bands or tiles and runs them on a
+ * ForkJoinPool. Images use the default executor unless given their own with
+ * Image.setExecutor().
+ *
+ * @author Cy
+ *
+ */
+public final class TileExecutor {
+  /**
+   * Smallest number of pixels worth handing to another thread.
+   */
+  private static final int MIN_PIXELS = 1 << 14;
+
+  private static volatile TileExecutor defaultExecutor = new TileExecutor(
+      ForkJoinPool.commonPool());
+
+  private final ForkJoinPool pool;
+
+  /**
+   * Creates an executor with its own pool of parallelism threads. A
+   * parallelism of 1 runs all work on the calling thread.
+   *
+   * @param parallelism number of threads to use
+   */
+  public TileExecutor(int parallelism) {
+    this(parallelism > 1 ? new ForkJoinPool(parallelism) : null);
+  }
+
+  /**
+   * Creates an executor that runs its work on a caller supplied pool.
+   *
+   * @param pool ForkJoinPool to run on, or null to run on the calling thread
+   */
+  public TileExecutor(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Returns the executor used by Images that were not given their own.
+   *
+   * @return the default TileExecutor
+   */
+  public static TileExecutor getDefault() {
+    return defaultExecutor;
+  }
+
+  /**
+   * Sets the executor used by Images that were not given their own.
+   *
+   * @param executor the new default TileExecutor
+   */
+  public static void setDefault(TileExecutor executor) {
+    if (executor == null) {
+      throw new NullPointerException("Executor can not be null.");
+    }
+    defaultExecutor = executor;
+  }
+
+  /**
+   * Returns the number of threads work is split between.
+   *
+   * @return int describing the parallelism
+   */
+  public int getParallelism() {
+    return pool == null ? 1 : pool.getParallelism();
+  }
+
+  /**
+   * Runs operation over every row of a width by height image, split into
+   * bands of whole rows. Bands are handed out in parallel, so operation must be
+   * safe to call from several threads at once.
+   *
+   * @param width Width of the image.
+   * @param height Height of the image.
+   * @param operation work to do on each band
+   */
+  public void forEachBand(int width, int height, BandOperation operation) {
+    if (height <= 0) {
+      return;
+    }
+    int parallelism = getParallelism();
+    long pixels = (long) width * height;
+    if (parallelism == 1 || pixels <= MIN_PIXELS) {
+      operation.apply(0, height);
+      return;
+    }
+    int bands = (int) Math.min(height,
+        Math.min(parallelism * 4L, pixels / MIN_PIXELS));
+    int rows = (height + bands - 1) / bands;
+    pool.invoke(new Bands(0, height, rows, operation));
+  }
+
+  /**
+   * Runs operation over a width by height image split into tiles of at most
+   * tileWidth by tileHeight pixels. Tiles are handed out in parallel, so
+   * operation must be safe to call from several threads at once.
+   *
+   * @param width Width of the image.
+   * @param height Height of the image.
+   * @param tileWidth Largest width of a tile.
+   * @param tileHeight Largest height of a tile.
+   * @param operation work to do on each tile
+   */
+  public void forEachTile(int width, int height, int tileWidth,
+      int tileHeight, TileOperation operation) {
+    if (width <= 0 || height <= 0) {
+      return;
+    }
+    int across = (width + tileWidth - 1) / tileWidth;
+    int down = (height + tileHeight - 1) / tileHeight;
+    if (getParallelism() == 1 || (long) width * height <= MIN_PIXELS) {
+      for (int t = 0; t < across * down; t++) {
+        runTile(t, across, width, height, tileWidth, tileHeight, operation);
+      }
+      return;
+    }
+    pool.invoke(new Tiles(0, across * down, across, width, height, tileWidth,
+        tileHeight, operation));
+  }
+
+  /**
+   * Runs task on the pool, or on the calling thread before returning if
+   * there is no pool.
+   *
+   * @param task work that produces a result
+   * @return CompletableFuture completed with the result of task
+   */
+  <T> CompletableFuture<T> submit(Supplier<T> task) {
+    if (pool != null) {
+      return CompletableFuture.supplyAsync(task, pool);
+    }
+    CompletableFuture<T> future = new CompletableFuture<T>();
+    try {
+      future.complete(task.get());
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  private static void runTile(int t, int across, int width, int height,
+      int tileWidth, int tileHeight, TileOperation operation) {
+    int x = (t % across) * tileWidth;
+    int y = (t / across) * tileHeight;
+    operation.apply(x, y, Math.min(tileWidth, width - x),
+        Math.min(tileHeight, height - y));
+  }
+
+  /**
+   * Work done on a band of rows from startY up to but not including endY.
+   */
+  @FunctionalInterface
+  public interface BandOperation {
+    void apply(int startY, int endY);
+  }
+
+  /**
+   * Work done on a single tile.
+   */
+  @FunctionalInterface
+  public interface TileOperation {
+    void apply(int x, int y, int width, int height);
+  }
+
+  /**
+   * Recursively halves a range of rows until it is one band long.
+   */
+  @SuppressWarnings("serial")
+  private static class Bands extends RecursiveAction {
+    private final int start;
+    private final int end;
+    private final int rows;
+    private final BandOperation operation;
+
+    Bands(int start, int end, int rows, BandOperation operation) {
+      this.start = start;
+      this.end = end;
+      this.rows = rows;
+      this.operation = operation;
+    }
+
+    protected void compute() {
+      if (end - start <= rows) {
+        operation.apply(start, end);
+        return;
+      }
+      int mid = start + ((end - start) / rows / 2) * rows;
+      if (mid == start) {
+        mid += rows;
+      }
+      invokeAll(new Bands(start, mid, rows, operation),
+          new Bands(mid, end, rows, operation));
+    }
+  }
+
+  /**
+   * Recursively halves a range of tile numbers until it is one tile long.
+   */
+  @SuppressWarnings("serial")
+  private static class Tiles extends RecursiveAction {
+    private final int start;
+    private final int end;
+    private final int across;
+    private final int width;
+    private final int height;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final TileOperation operation;
+
+    Tiles(int start, int end, int across, int width, int height,
+        int tileWidth, int tileHeight, TileOperation operation) {
+      this.start = start;
+      this.end = end;
+      this.across = across;
+      this.width = width;
+      this.height = height;
+      this.tileWidth = tileWidth;
+      this.tileHeight = tileHeight;
+      this.operation = operation;
+    }
+
+    protected void compute() {
+      if (end - start == 1) {
+        runTile(start, across, width, height, tileWidth, tileHeight,
+            operation);
+        return;
+      }
+      int mid = (start + end) >>> 1;
+      invokeAll(new Tiles(start, mid, across, width, height, tileWidth,
+          tileHeight, operation), new Tiles(mid, end, across, width, height,
+          tileWidth, tileHeight, operation));
+    }
+  }
+}
@@ -0,0 +1,112 @@
+package jImage;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ChannelKernels using the Vector API. Whole vectors of packed pixels are
+ * unpacked with shifts and masks, worked on a channel at a time and packed
+ * again; the pixels left over at the end of a run go to the scalar kernels.
+ * Only built by the vector profile, and only loaded when the JVM has
+ * jdk.incubator.vector.
+ *
+ * @author Cy
+ *
+ */
+final class VectorChannelKernels extends ChannelKernels {
+  private static final VectorSpecies<Integer> SPECIES =
+      IntVector.SPECIES_PREFERRED;
+
+  @Override
+  boolean isVectorized() {
+    return true;
+  }
+
+  @Override
+  void setChannel(int[] pixels, int start, int end, int shift, int value) {
+    int keep = 0xFFFFFF & ~(0xFF << shift);
+    int add = value << shift;
+    int i = start;
+    for (int bound = start + SPECIES.loopBound(end - start); i < bound;
+        i += SPECIES.length()) {
+      IntVector.fromArray(SPECIES, pixels, i).and(keep).add(add)
+          .and(0xFFFFFF).intoArray(pixels, i);
+    }
+    super.setChannel(pixels, i, end, shift, value);
+  }
+
+  @Override
+  void invert(int[] pixels, int start, int end) {
+    int i = start;
+    for (int bound = start + SPECIES.loopBound(end - start); i < bound;
+        i += SPECIES.length()) {
+      IntVector.fromArray(SPECIES, pixels, i).not().and(0xFFFFFF)
+          .intoArray(pixels, i);
+    }
+    super.invert(pixels, i, end);
+  }
+
+  @Override
+  void scale(int[] pixels, int start, int end, int red, int green,
+      int blue) {
+    int i = start;
+    for (int bound = start + SPECIES.loopBound(end - start); i < bound;
+        i += SPECIES.length()) {
+      IntVector p = IntVector.fromArray(SPECIES, pixels, i);
+      IntVector r = scale(p.lanewise(VectorOperators.LSHR, 16), red);
+      IntVector g = scale(p.lanewise(VectorOperators.LSHR, 8), green);
+      IntVector b = scale(p, blue);
+      pack(r, g, b).intoArray(pixels, i);
+    }
+    super.scale(pixels, i, end, red, green, blue);
+  }
+
+  private static IntVector scale(IntVector channel, int factor) {
+    return channel.and(0xFF).mul(factor).add(128)
+        .lanewise(VectorOperators.ASHR, 8).min(255);
+  }
+
+  @Override
+  void brightnessContrast(int[] pixels, int start, int end, int brightness,
+      int contrast) {
+    int offset = (128 + brightness) * 256 + 128;
+    int i = start;
+    for (int bound = start + SPECIES.loopBound(end - start); i < bound;
+        i += SPECIES.length()) {
+      IntVector p = IntVector.fromArray(SPECIES, pixels, i);
+      IntVector r = stretch(p.lanewise(VectorOperators.LSHR, 16), contrast,
+          offset);
+      IntVector g = stretch(p.lanewise(VectorOperators.LSHR, 8), contrast,
+          offset);
+      IntVector b = stretch(p, contrast, offset);
+      pack(r, g, b).intoArray(pixels, i);
+    }
+    super.brightnessContrast(pixels, i, end, brightness, contrast);
+  }
+
+  private static IntVector stretch(IntVector channel, int contrast,
+      int offset) {
+    return channel.and(0xFF).sub(128).mul(contrast).add(offset)
+        .lanewise(VectorOperators.ASHR, 8).max(0).min(255);
+  }
+
+  private static IntVector pack(IntVector r, IntVector g, IntVector b) {
+    return r.lanewise(VectorOperators.LSHL, 16)
+        .or(g.lanewise(VectorOperators.LSHL, 8)).or(b);
+  }
+
+  @Override
+  void impose(int[] pixels, int[] over, int start, int end, int key) {
+    int i = start;
+    for (int bound = start + SPECIES.loopBound(end - start); i < bound;
+        i += SPECIES.length()) {
+      IntVector o = IntVector.fromArray(SPECIES, over, i);
+      VectorMask<Integer> keep = o.compare(VectorOperators.EQ, key);
+      o.blend(IntVector.fromArray(SPECIES, pixels, i), keep)
+          .intoArray(pixels, i);
+    }
+    super.impose(pixels, over, i, end, key);
+  }
+}